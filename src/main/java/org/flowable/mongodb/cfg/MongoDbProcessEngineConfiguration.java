@@ -15,6 +15,7 @@ package org.flowable.mongodb.cfg;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.flowable.common.engine.api.FlowableException;
 import org.flowable.common.engine.impl.interceptor.CommandInterceptor;
 import org.flowable.common.engine.impl.persistence.GenericManagerFactory;
 import org.flowable.common.engine.impl.persistence.StrongUuidGenerator;
@@ -24,7 +25,20 @@ import org.flowable.engine.impl.SchemaOperationsProcessEngineBuild;
 import org.flowable.engine.impl.cfg.ProcessEngineConfigurationImpl;
 import org.flowable.identitylink.service.IdentityLinkServiceConfiguration;
 import org.flowable.job.service.JobServiceConfiguration;
+import org.flowable.mongodb.persistence.CompactFieldNames;
+import org.flowable.mongodb.persistence.GridFsByteArrayStore;
+import org.flowable.mongodb.persistence.HistoryArchiver;
+import org.flowable.mongodb.persistence.HistoryCleaner;
 import org.flowable.mongodb.persistence.MongoDbSessionFactory;
+import org.flowable.mongodb.persistence.ProcessDefinitionDocumentCache;
+import org.flowable.mongodb.persistence.ProcessInstanceLeaseManager;
+import org.flowable.mongodb.persistence.QueryShapeRecorder;
+import org.flowable.mongodb.persistence.ResourceBytesCache;
+import org.flowable.mongodb.persistence.ShardKeys;
+import org.flowable.mongodb.persistence.TimeOrderedUuidGenerator;
+import org.flowable.mongodb.persistence.compression.ByteArrayCompression;
+import org.flowable.mongodb.persistence.compression.ByteArrayCompressor;
+import org.flowable.mongodb.persistence.compression.DeflateByteArrayCompressor;
 import org.flowable.mongodb.persistence.manager.MongoDbCommentDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbDeploymentDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbEventSubscriptionDataManager;
@@ -37,6 +51,7 @@ import org.flowable.mongodb.persistence.manager.MongoDbProcessDefinitionDataMana
 import org.flowable.mongodb.persistence.manager.MongoDbProcessDefinitionInfoDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbResourceDataManager;
 import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.flowable.mongodb.schema.migration.SchemaMigration;
 import org.flowable.mongodb.transaction.MongoDbTransactionContextFactory;
 import org.flowable.task.service.TaskServiceConfiguration;
 import org.flowable.variable.service.VariableServiceConfiguration;
@@ -64,6 +79,135 @@ public class MongoDbProcessEngineConfiguration extends ProcessEngineConfiguratio
   private String mongoPassword;
   private String mongoAuthDB;
 
+  /**
+   * When enabled, all executions of a root process instance are stored as subdocuments of one execution tree document
+   * (see {@link MongoDbExecutionDataManager#COLLECTION_EXECUTION_TREES}) instead of one document per execution.
+   */
+  protected boolean embeddedExecutionTreeEnabled;
+
+  /**
+   * When enabled, small scalar variables (with a text value up to {@link #inlineVariableMaxLength} characters)
+   * are stored inside the document of their execution or task instead of in the variables collection.
+   */
+  protected boolean inlineVariablesEnabled;
+  protected int inlineVariableMaxLength = 255;
+
+  /**
+   * When enabled, the process instance locks of exclusive jobs are leases in a separate collection
+   * (see {@link ProcessInstanceLeaseManager}), acquired outside of the transaction of the job.
+   */
+  protected boolean processInstanceLeasesEnabled;
+  protected ProcessInstanceLeaseManager processInstanceLeaseManager;
+
+  /**
+   * When enabled, process definitions are cached node-wide (see {@link ProcessDefinitionDocumentCache}),
+   * with at most {@link #processDefinitionDocumentCacheLimit} process definitions.
+   */
+  protected boolean processDefinitionDocumentCacheEnabled;
+  protected int processDefinitionDocumentCacheLimit = 1000;
+  protected ProcessDefinitionDocumentCache processDefinitionDocumentCache;
+
+  /**
+   * When enabled, the bytes of deployment resources are cached off-heap (see {@link ResourceBytesCache}),
+   * up to {@link #resourceBytesCacheMaxSize} bytes.
+   */
+  protected boolean resourceBytesCacheEnabled;
+  protected long resourceBytesCacheMaxSize = 64L * 1024L * 1024L;
+  protected ResourceBytesCache resourceBytesCache;
+
+  /**
+   * Resource and job byte arrays larger than this number of bytes are stored in GridFS (see {@link GridFsByteArrayStore}).
+   * A negative value (the default) keeps all byte arrays inline.
+   */
+  protected int gridFsThreshold = -1;
+  protected GridFsByteArrayStore gridFsByteArrayStore;
+
+  /**
+   * When enabled, the byte arrays of resources and jobs are stored compressed by the {@link #byteArrayCompressor}.
+   */
+  protected boolean byteArrayCompressionEnabled;
+  protected ByteArrayCompressor byteArrayCompressor;
+  protected ByteArrayCompression byteArrayCompression;
+
+  /**
+   * When enabled, the high-volume collections are stored with short field names (see {@link CompactFieldNames}).
+   * Can only be chosen when the schema is created and can't be combined with the embedded execution tree.
+   */
+  protected boolean compactFieldNamesEnabled;
+
+  /**
+   * When enabled, ids are generated by the {@link TimeOrderedUuidGenerator} instead of the {@link StrongUuidGenerator},
+   * unless another id generator was set.
+   */
+  protected boolean timeOrderedIdsEnabled;
+
+  /**
+   * When enabled, the shapes of all queries are recorded (see {@link QueryShapeRecorder}),
+   * to be analyzed by the {@link org.flowable.mongodb.schema.IndexAdvisor}.
+   */
+  protected boolean queryShapeRecordingEnabled;
+  protected QueryShapeRecorder queryShapeRecorder;
+
+  /**
+   * Schema migration steps that are executed after the default steps when the schema is updated
+   * (see {@link org.flowable.mongodb.schema.migration.SchemaMigrator}).
+   */
+  protected List<SchemaMigration> customSchemaMigrations;
+
+  /**
+   * When enabled, the indices of the schema are created on a background thread after the engine is up
+   * (see {@link MongoProcessSchemaManager#buildDeferredIndices()}), so the engine start doesn't wait for them.
+   */
+  protected boolean asyncIndexCreationEnabled;
+
+  /**
+   * The schema lock is a lease (see {@link org.flowable.mongodb.schema.SchemaLock}) that is renewed while it's held
+   * and expires after this number of milliseconds when its engine crashed.
+   */
+  protected long schemaLockLeaseDuration = 30L * 1000L;
+
+  /**
+   * The maximum number of milliseconds to wait for the schema lock held by another engine.
+   */
+  protected long schemaLockWaitTimeout = 5L * 60L * 1000L;
+
+  /**
+   * When enabled, the engine start skips the schema checks when the schema fingerprint stored by the last schema update
+   * matches the configuration of the engine (see {@link MongoProcessSchemaManager#SCHEMA_FINGERPRINT_PROPERTY}).
+   */
+  protected boolean schemaFingerprintEnabled;
+
+  /**
+   * When enabled, the process instance collections are sharded on the process instance (see {@link ShardKeys})
+   * when the schema is created or updated. The database must be part of a sharded cluster.
+   */
+  protected boolean shardingEnabled;
+  protected ShardKeys shardKeys;
+
+  /**
+   * When enabled, the append-mostly history collections are created as clustered collections on their _id
+   * (see {@link MongoProcessSchemaManager#CLUSTERED_HISTORY_COLLECTIONS}), which requires MongoDB 5.3.
+   * Implies time-ordered ids, so new documents are appended at the end of the collection.
+   */
+  protected boolean clusteredHistoryCollectionsEnabled;
+
+  /**
+   * When enabled, the history of ended process instances is deleted periodically by the {@link #historyCleaner},
+   * after the retention configured on the history cleaner.
+   */
+  protected boolean historyCleaningEnabled;
+  protected HistoryCleaner historyCleaner;
+
+  /**
+   * When enabled, the history of ended process instances is moved periodically to the {@link #historyArchiveDatabaseName} database
+   * by the {@link #historyArchiver}, after the retention configured on the history archiver.
+   * When the archive is queried, the history queries return the archived history too.
+   */
+  protected boolean historyArchivingEnabled;
+  protected String historyArchiveDatabaseName = "flowableArchive";
+  protected boolean historyArchiveQueried = true;
+  protected HistoryArchiver historyArchiver;
+
   public MongoDbProcessEngineConfiguration() {
     this.usingRelationalDatabase = false;
     this.usingSchemaMgmt = true;
@@ -83,6 +227,14 @@ public class MongoDbProcessEngineConfiguration extends ProcessEngineConfiguratio
     this.idGenerator = new StrongUuidGenerator();
   }
 
+  @Override
+  public void initIdGenerator() {
+    if ((timeOrderedIdsEnabled || clusteredHistoryCollectionsEnabled) && idGenerator instanceof StrongUuidGenerator) {
+      this.idGenerator = new TimeOrderedUuidGenerator();
+    }
+    super.initIdGenerator();
+  }
+
   @Override
   public void initNonRelationalDataSource() {
     if (this.mongoClientOptions == null) {
@@ -242,6 +394,111 @@ public class MongoDbProcessEngineConfiguration extends ProcessEngineConfiguratio
     if (this.mongoDbSessionFactory == null) {
       this.mongoDbSessionFactory = new MongoDbSessionFactory(mongoClient, mongoDatabase);
     }
+    this.mongoDbSessionFactory.setEmbeddedExecutionTreeEnabled(embeddedExecutionTreeEnabled);
+    this.mongoDbSessionFactory.setInlineVariablesEnabled(inlineVariablesEnabled);
+    this.mongoDbSessionFactory.setInlineVariableMaxLength(inlineVariableMaxLength);
+
+    if (processInstanceLeasesEnabled && processInstanceLeaseManager == null) {
+      this.processInstanceLeaseManager = new ProcessInstanceLeaseManager(mongoDatabase);
+    }
+    this.mongoDbSessionFactory.setProcessInstanceLeaseManager(processInstanceLeaseManager);
+
+    if (processDefinitionDocumentCacheEnabled && processDefinitionDocumentCache == null) {
+      this.processDefinitionDocumentCache = new ProcessDefinitionDocumentCache(mongoDatabase, processDefinitionDocumentCacheLimit);
+    }
+    this.mongoDbSessionFactory.setProcessDefinitionDocumentCache(processDefinitionDocumentCache);
+
+    if (resourceBytesCacheEnabled && resourceBytesCache == null) {
+      this.resourceBytesCache = new ResourceBytesCache(resourceBytesCacheMaxSize);
+    }
+
+    // Always created, as byte arrays stored in GridFS earlier must remain readable when the threshold is changed
+    if (gridFsByteArrayStore == null) {
+      this.gridFsByteArrayStore = new GridFsByteArrayStore(mongoDatabase, gridFsThreshold);
+    }
+    this.mongoDbSessionFactory.setGridFsByteArrayStore(gridFsByteArrayStore);
+
+    // Always created, as compressed byte arrays must remain readable when compression is disabled
+    if (byteArrayCompression == null) {
+      if (byteArrayCompressor == null) {
+        this.byteArrayCompressor = new DeflateByteArrayCompressor();
+      }
+      this.byteArrayCompression = new ByteArrayCompression(byteArrayCompressor, byteArrayCompressionEnabled);
+    }
+    this.mongoDbSessionFactory.setByteArrayCompression(byteArrayCompression);
+
+    if (queryShapeRecordingEnabled && queryShapeRecorder == null) {
+      this.queryShapeRecorder = new QueryShapeRecorder(
+          mongoDatabase != null ? mongoDatabase.getCodecRegistry() : MongoClient.getDefaultCodecRegistry());
+    }
+    this.mongoDbSessionFactory.setQueryShapeRecorder(queryShapeRecorder);
+
+    if (compactFieldNamesEnabled) {
+      if (embeddedExecutionTreeEnabled) {
+        throw new FlowableException("Compact field names can't be combined with the embedded execution tree");
+      }
+      this.mongoDbSessionFactory.setCompactFieldNames(new CompactFieldNames(
+          mongoDatabase != null ? mongoDatabase.getCodecRegistry() : MongoClient.getDefaultCodecRegistry()));
+    } else {
+      this.mongoDbSessionFactory.setCompactFieldNames(null);
+    }
+
+    if (shardingEnabled && shardKeys == null) {
+      this.shardKeys = new ShardKeys();
+    }
+    this.mongoDbSessionFactory.setShardKeys(shardingEnabled ? shardKeys : null);
+
+    if (historyArchivingEnabled) {
+      if (historyArchiver == null) {
+        this.historyArchiver = new HistoryArchiver();
+      }
+      historyArchiver.setArchiveDatabase(mongoClient.getDatabase(historyArchiveDatabaseName))
+          .setCompactFieldNames(mongoDbSessionFactory.getCompactFieldNames())
+          .setArchiveQueried(historyArchiveQueried);
+    }
+    this.mongoDbSessionFactory.setHistoryArchiver(historyArchivingEnabled ? historyArchiver : null);
+  }
+
+  @Override
+  protected void postProcessEngineInitialisation() {
+    super.postProcessEngineInitialisation();
+    if (schemaManager instanceof MongoProcessSchemaManager) {
+      ((MongoProcessSchemaManager) schemaManager).buildDeferredIndices();
+    }
+    if (processDefinitionDocumentCache != null) {
+      processDefinitionDocumentCache.start();
+    }
+    if (historyCleaningEnabled) {
+      if (historyCleaner == null) {
+        this.historyCleaner = new HistoryCleaner();
+      }
+      historyCleaner.start(commandExecutor);
+    }
+    if (historyArchivingEnabled) {
+      historyArchiver.start(commandExecutor);
+    }
+  }
+
+  @Override
+  public Runnable getProcessEngineCloseRunnable() {
+    final Runnable closeRunnable = super.getProcessEngineCloseRunnable();
+    return new Runnable() {
+
+      @Override
+      public void run() {
+        closeRunnable.run();
+        if (processDefinitionDocumentCache != null) {
+          processDefinitionDocumentCache.stop();
+        }
+        if (historyCleaningEnabled && historyCleaner != null) {
+          historyCleaner.stop();
+        }
+        if (historyArchivingEnabled && historyArchiver != null) {
+          historyArchiver.stop();
+        }
+      }
+
+    };
   }
 
   public List<ServerAddress> getServerAddresses() {
@@ -337,4 +594,310 @@ public class MongoDbProcessEngineConfiguration extends ProcessEngineConfiguratio
     this.mongoAuthDB = mongoAuthDB;
     return this;
   }
+
+  public boolean isEmbeddedExecutionTreeEnabled() {
+    return embeddedExecutionTreeEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setEmbeddedExecutionTreeEnabled(boolean embeddedExecutionTreeEnabled) {
+    this.embeddedExecutionTreeEnabled = embeddedExecutionTreeEnabled;
+    return this;
+  }
+
+  public boolean isInlineVariablesEnabled() {
+    return inlineVariablesEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setInlineVariablesEnabled(boolean inlineVariablesEnabled) {
+    this.inlineVariablesEnabled = inlineVariablesEnabled;
+    return this;
+  }
+
+  public int getInlineVariableMaxLength() {
+    return inlineVariableMaxLength;
+  }
+
+  public MongoDbProcessEngineConfiguration setInlineVariableMaxLength(int inlineVariableMaxLength) {
+    this.inlineVariableMaxLength = inlineVariableMaxLength;
+    return this;
+  }
+
+  public boolean isProcessInstanceLeasesEnabled() {
+    return processInstanceLeasesEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setProcessInstanceLeasesEnabled(boolean processInstanceLeasesEnabled) {
+    this.processInstanceLeasesEnabled = processInstanceLeasesEnabled;
+    return this;
+  }
+
+  public ProcessInstanceLeaseManager getProcessInstanceLeaseManager() {
+    return processInstanceLeaseManager;
+  }
+
+  public MongoDbProcessEngineConfiguration setProcessInstanceLeaseManager(ProcessInstanceLeaseManager processInstanceLeaseManager) {
+    this.processInstanceLeaseManager = processInstanceLeaseManager;
+    return this;
+  }
+
+  public boolean isProcessDefinitionDocumentCacheEnabled() {
+    return processDefinitionDocumentCacheEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setProcessDefinitionDocumentCacheEnabled(boolean processDefinitionDocumentCacheEnabled) {
+    this.processDefinitionDocumentCacheEnabled = processDefinitionDocumentCacheEnabled;
+    return this;
+  }
+
+  public int getProcessDefinitionDocumentCacheLimit() {
+    return processDefinitionDocumentCacheLimit;
+  }
+
+  public MongoDbProcessEngineConfiguration setProcessDefinitionDocumentCacheLimit(int processDefinitionDocumentCacheLimit) {
+    this.processDefinitionDocumentCacheLimit = processDefinitionDocumentCacheLimit;
+    return this;
+  }
+
+  public ProcessDefinitionDocumentCache getProcessDefinitionDocumentCache() {
+    return processDefinitionDocumentCache;
+  }
+
+  public MongoDbProcessEngineConfiguration setProcessDefinitionDocumentCache(ProcessDefinitionDocumentCache processDefinitionDocumentCache) {
+    this.processDefinitionDocumentCache = processDefinitionDocumentCache;
+    return this;
+  }
+
+  public boolean isResourceBytesCacheEnabled() {
+    return resourceBytesCacheEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setResourceBytesCacheEnabled(boolean resourceBytesCacheEnabled) {
+    this.resourceBytesCacheEnabled = resourceBytesCacheEnabled;
+    return this;
+  }
+
+  public long getResourceBytesCacheMaxSize() {
+    return resourceBytesCacheMaxSize;
+  }
+
+  public MongoDbProcessEngineConfiguration setResourceBytesCacheMaxSize(long resourceBytesCacheMaxSize) {
+    this.resourceBytesCacheMaxSize = resourceBytesCacheMaxSize;
+    return this;
+  }
+
+  public ResourceBytesCache getResourceBytesCache() {
+    return resourceBytesCache;
+  }
+
+  public MongoDbProcessEngineConfiguration setResourceBytesCache(ResourceBytesCache resourceBytesCache) {
+    this.resourceBytesCache = resourceBytesCache;
+    return this;
+  }
+
+  public int getGridFsThreshold() {
+    return gridFsThreshold;
+  }
+
+  public MongoDbProcessEngineConfiguration setGridFsThreshold(int gridFsThreshold) {
+    this.gridFsThreshold = gridFsThreshold;
+    return this;
+  }
+
+  public boolean isByteArrayCompressionEnabled() {
+    return byteArrayCompressionEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setByteArrayCompressionEnabled(boolean byteArrayCompressionEnabled) {
+    this.byteArrayCompressionEnabled = byteArrayCompressionEnabled;
+    return this;
+  }
+
+  public ByteArrayCompressor getByteArrayCompressor() {
+    return byteArrayCompressor;
+  }
+
+  public MongoDbProcessEngineConfiguration setByteArrayCompressor(ByteArrayCompressor byteArrayCompressor) {
+    this.byteArrayCompressor = byteArrayCompressor;
+    return this;
+  }
+
+  public ByteArrayCompression getByteArrayCompression() {
+    return byteArrayCompression;
+  }
+
+  public MongoDbProcessEngineConfiguration setByteArrayCompression(ByteArrayCompression byteArrayCompression) {
+    this.byteArrayCompression = byteArrayCompression;
+    return this;
+  }
+
+  public GridFsByteArrayStore getGridFsByteArrayStore() {
+    return gridFsByteArrayStore;
+  }
+
+  public MongoDbProcessEngineConfiguration setGridFsByteArrayStore(GridFsByteArrayStore gridFsByteArrayStore) {
+    this.gridFsByteArrayStore = gridFsByteArrayStore;
+    return this;
+  }
+
+  public boolean isCompactFieldNamesEnabled() {
+    return compactFieldNamesEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setCompactFieldNamesEnabled(boolean compactFieldNamesEnabled) {
+    this.compactFieldNamesEnabled = compactFieldNamesEnabled;
+    return this;
+  }
+
+  public boolean isTimeOrderedIdsEnabled() {
+    return timeOrderedIdsEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setTimeOrderedIdsEnabled(boolean timeOrderedIdsEnabled) {
+    this.timeOrderedIdsEnabled = timeOrderedIdsEnabled;
+    return this;
+  }
+
+  public boolean isQueryShapeRecordingEnabled() {
+    return queryShapeRecordingEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setQueryShapeRecordingEnabled(boolean queryShapeRecordingEnabled) {
+    this.queryShapeRecordingEnabled = queryShapeRecordingEnabled;
+    return this;
+  }
+
+  public QueryShapeRecorder getQueryShapeRecorder() {
+    return queryShapeRecorder;
+  }
+
+  public MongoDbProcessEngineConfiguration setQueryShapeRecorder(QueryShapeRecorder queryShapeRecorder) {
+    this.queryShapeRecorder = queryShapeRecorder;
+    return this;
+  }
+
+  public List<SchemaMigration> getCustomSchemaMigrations() {
+    return customSchemaMigrations;
+  }
+
+  public MongoDbProcessEngineConfiguration setCustomSchemaMigrations(List<SchemaMigration> customSchemaMigrations) {
+    this.customSchemaMigrations = customSchemaMigrations;
+    return this;
+  }
+
+  public boolean isAsyncIndexCreationEnabled() {
+    return asyncIndexCreationEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setAsyncIndexCreationEnabled(boolean asyncIndexCreationEnabled) {
+    this.asyncIndexCreationEnabled = asyncIndexCreationEnabled;
+    return this;
+  }
+
+  public long getSchemaLockLeaseDuration() {
+    return schemaLockLeaseDuration;
+  }
+
+  public MongoDbProcessEngineConfiguration setSchemaLockLeaseDuration(long schemaLockLeaseDuration) {
+    this.schemaLockLeaseDuration = schemaLockLeaseDuration;
+    return this;
+  }
+
+  public long getSchemaLockWaitTimeout() {
+    return schemaLockWaitTimeout;
+  }
+
+  public MongoDbProcessEngineConfiguration setSchemaLockWaitTimeout(long schemaLockWaitTimeout) {
+    this.schemaLockWaitTimeout = schemaLockWaitTimeout;
+    return this;
+  }
+
+  public boolean isSchemaFingerprintEnabled() {
+    return schemaFingerprintEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setSchemaFingerprintEnabled(boolean schemaFingerprintEnabled) {
+    this.schemaFingerprintEnabled = schemaFingerprintEnabled;
+    return this;
+  }
+
+  public boolean isShardingEnabled() {
+    return shardingEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setShardingEnabled(boolean shardingEnabled) {
+    this.shardingEnabled = shardingEnabled;
+    return this;
+  }
+
+  public ShardKeys getShardKeys() {
+    return shardKeys;
+  }
+
+  public MongoDbProcessEngineConfiguration setShardKeys(ShardKeys shardKeys) {
+    this.shardKeys = shardKeys;
+    return this;
+  }
+
+  public boolean isClusteredHistoryCollectionsEnabled() {
+    return clusteredHistoryCollectionsEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setClusteredHistoryCollectionsEnabled(boolean clusteredHistoryCollectionsEnabled) {
+    this.clusteredHistoryCollectionsEnabled = clusteredHistoryCollectionsEnabled;
+    return this;
+  }
+
+  public boolean isHistoryCleaningEnabled() {
+    return historyCleaningEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setHistoryCleaningEnabled(boolean historyCleaningEnabled) {
+    this.historyCleaningEnabled = historyCleaningEnabled;
+    return this;
+  }
+
+  public HistoryCleaner getHistoryCleaner() {
+    return historyCleaner;
+  }
+
+  public MongoDbProcessEngineConfiguration setHistoryCleaner(HistoryCleaner historyCleaner) {
+    this.historyCleaner = historyCleaner;
+    return this;
+  }
+
+  public boolean isHistoryArchivingEnabled() {
+    return historyArchivingEnabled;
+  }
+
+  public MongoDbProcessEngineConfiguration setHistoryArchivingEnabled(boolean historyArchivingEnabled) {
+    this.historyArchivingEnabled = historyArchivingEnabled;
+    return this;
+  }
+
+  public String getHistoryArchiveDatabaseName() {
+    return historyArchiveDatabaseName;
+  }
+
+  public MongoDbProcessEngineConfiguration setHistoryArchiveDatabaseName(String historyArchiveDatabaseName) {
+    this.historyArchiveDatabaseName = historyArchiveDatabaseName;
+    return this;
+  }
+
+  public boolean isHistoryArchiveQueried() {
+    return historyArchiveQueried;
+  }
+
+  public MongoDbProcessEngineConfiguration setHistoryArchiveQueried(boolean historyArchiveQueried) {
+    this.historyArchiveQueried = historyArchiveQueried;
+    return this;
+  }
+
+  public HistoryArchiver getHistoryArchiver() {
+    return historyArchiver;
+  }
+
+  public MongoDbProcessEngineConfiguration setHistoryArchiver(HistoryArchiver historyArchiver) {
+    this.historyArchiver = historyArchiver;
+    return this;
+  }
 }
@@ -0,0 +1,311 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricVariableInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+
+/**
+ * Short aliases for the field names of the high-volume collections, to reduce the size of the documents and indices.
+ *
+ * The mappers and data managers keep using the regular field names: the {@link MongoDbSession} translates documents,
+ * filters, sorts, updates and aggregation pipelines to the aliases when writing or querying
+ * and translates the documents back before they are mapped to entities.
+ *
+ * Only top level fields are translated. Embedded documents (e.g. inline variables) keep the regular field names.
+ *
+ * @author Joram Barrez
+ */
+public class CompactFieldNames {
+
+    public static final Set<String> DEFAULT_COLLECTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            MongoDbExecutionDataManager.COLLECTION_EXECUTIONS,
+            MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES,
+            MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES,
+            MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES,
+            MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES,
+            MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES)));
+
+    /** Aliases can never be changed once documents are written with them. Aliases must not be equal to any regular field name. */
+    public static final Map<String, String> DEFAULT_ALIASES;
+
+    static {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        aliases.put("revision", "rev");
+        aliases.put("tenantId", "tnt");
+        aliases.put("processInstanceId", "piId");
+        aliases.put("rootProcessInstanceId", "rPiId");
+        aliases.put("superProcessInstanceId", "sPiId");
+        aliases.put("superProccessInstanceId", "hsPiId");
+        aliases.put("calledProcessInstanceId", "cPiId");
+        aliases.put("superExecutionId", "sExId");
+        aliases.put("executionId", "exId");
+        aliases.put("processDefinitionId", "pdId");
+        aliases.put("processDefinitionKey", "pdKey");
+        aliases.put("processDefinitionName", "pdName");
+        aliases.put("processDefinitionVersion", "pdVer");
+        aliases.put("processDefinitionCategory", "pdCat");
+        aliases.put("processDefinitionEngineVersion", "pdEVer");
+        aliases.put("deploymentId", "dplId");
+        aliases.put("businessKey", "bKey");
+        aliases.put("activityId", "actId");
+        aliases.put("activityName", "actName");
+        aliases.put("activityType", "actType");
+        aliases.put("startActivityId", "sActId");
+        aliases.put("endActivityId", "eActId");
+        aliases.put("startUserId", "sUsr");
+        aliases.put("startTime", "sT");
+        aliases.put("endTime", "eT");
+        aliases.put("durationInMillis", "dur");
+        aliases.put("deleteReason", "delR");
+        aliases.put("suspensionState", "susp");
+        aliases.put("isActive", "iAct");
+        aliases.put("isConcurrent", "iConc");
+        aliases.put("isScope", "iSc");
+        aliases.put("isEventScope", "iESc");
+        aliases.put("isMultiInstanceRoot", "iMIR");
+        aliases.put("countEnabled", "cntE");
+        aliases.put("eventSubscriptionCount", "esCnt");
+        aliases.put("taskCount", "tCnt");
+        aliases.put("jobCount", "jCnt");
+        aliases.put("timerJobCount", "tjCnt");
+        aliases.put("suspendedJobCount", "sjCnt");
+        aliases.put("deadLetterJobCount", "dljCnt");
+        aliases.put("variableCount", "vCnt");
+        aliases.put("identityLinkCount", "ilCnt");
+        aliases.put("taskId", "tId");
+        aliases.put("parentTaskId", "pTId");
+        aliases.put("taskDefinitionId", "tdId");
+        aliases.put("taskDefinitionKey", "tdKey");
+        aliases.put("typeName", "tp");
+        aliases.put("textValue", "txt");
+        aliases.put("textValue2", "txt2");
+        aliases.put("longValue", "lng");
+        aliases.put("doubleValue", "dbl");
+        aliases.put("scopeId", "scId");
+        aliases.put("subScopeId", "sScId");
+        aliases.put("scopeType", "scTp");
+        aliases.put("scopeDefinitionId", "scDId");
+        aliases.put("createTime", "crT");
+        aliases.put("claimTime", "clT");
+        aliases.put("lastUpdateTime", "luT");
+        aliases.put("description", "desc");
+        DEFAULT_ALIASES = Collections.unmodifiableMap(aliases);
+    }
+
+    protected CodecRegistry codecRegistry;
+    protected Set<String> collections;
+    protected Map<String, String> aliases;
+    protected Map<String, String> fieldNames = new HashMap<>();
+
+    public CompactFieldNames(CodecRegistry codecRegistry) {
+        this(codecRegistry, DEFAULT_COLLECTIONS, DEFAULT_ALIASES);
+    }
+
+    public CompactFieldNames(CodecRegistry codecRegistry, Set<String> collections, Map<String, String> aliases) {
+        this.codecRegistry = codecRegistry;
+        this.collections = collections;
+        this.aliases = aliases;
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            fieldNames.put(alias.getValue(), alias.getKey());
+        }
+    }
+
+    public boolean isCompact(String collection) {
+        return collection != null && collections.contains(collection);
+    }
+
+    /**
+     * Translates the first segment of a (dotted) field name to its alias.
+     */
+    public String toStoredFieldName(String collection, String fieldName) {
+        if (!isCompact(collection) || fieldName == null) {
+            return fieldName;
+        }
+        return translatePath(fieldName, aliases);
+    }
+
+    public Document toStoredDocument(String collection, Document document) {
+        if (!isCompact(collection) || document == null) {
+            return document;
+        }
+        return translateKeys(document, aliases);
+    }
+
+    public Document fromStoredDocument(String collection, Document document) {
+        if (!isCompact(collection) || document == null) {
+            return document;
+        }
+        return translateKeys(document, fieldNames);
+    }
+
+    public Bson toStoredFilter(String collection, Bson filter) {
+        if (!isCompact(collection) || filter == null) {
+            return filter;
+        }
+        return translateFilter(toBsonDocument(filter));
+    }
+
+    /**
+     * Translates the keys of a sort, projection or index specification.
+     */
+    public Bson toStoredKeys(String collection, Bson keys) {
+        if (!isCompact(collection) || keys == null) {
+            return keys;
+        }
+        return translateKeys(toBsonDocument(keys));
+    }
+
+    /**
+     * Translates the fields of the update operators (e.g. $set, $inc) of an update.
+     */
+    @SuppressWarnings("unchecked")
+    public Document toStoredUpdate(String collection, Document update) {
+        if (!isCompact(collection)) {
+            return update;
+        }
+        Document result = new Document();
+        for (Map.Entry<String, Object> operator : update.entrySet()) {
+            if (operator.getValue() instanceof Map) {
+                result.append(operator.getKey(), translateKeys((Map<String, Object>) operator.getValue(), aliases));
+            } else if (operator.getValue() instanceof Bson) {
+                result.append(operator.getKey(), translateKeys(toBsonDocument((Bson) operator.getValue())));
+            } else {
+                result.append(operator.getKey(), operator.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Translates the $match, $sort, $project and $lookup stages of an aggregation pipeline on the given collection.
+     * Stages after a $lookup still see the fields of the collection itself, the looked up documents are translated back
+     * when they are mapped to entities.
+     */
+    public List<Bson> toStoredPipeline(String collection, List<? extends Bson> pipeline) {
+        List<Bson> result = new ArrayList<>(pipeline.size());
+        for (Bson stage : pipeline) {
+            BsonDocument stageDocument = toBsonDocument(stage);
+            BsonDocument translatedStage = new BsonDocument();
+            for (Map.Entry<String, BsonValue> entry : stageDocument.entrySet()) {
+                String stageName = entry.getKey();
+                BsonValue value = entry.getValue();
+                if (("$match".equals(stageName)) && isCompact(collection)) {
+                    value = translateFilter(value.asDocument());
+                } else if (("$sort".equals(stageName) || "$project".equals(stageName)) && isCompact(collection)) {
+                    value = translateKeys(value.asDocument());
+                } else if ("$lookup".equals(stageName)) {
+                    value = translateLookup(collection, value.asDocument());
+                }
+                translatedStage.put(stageName, value);
+            }
+            result.add(translatedStage);
+        }
+        return result;
+    }
+
+    protected BsonDocument translateLookup(String collection, BsonDocument lookup) {
+        BsonDocument result = lookup.clone();
+        if (lookup.containsKey("localField")) {
+            result.put("localField", new BsonString(toStoredFieldName(collection, lookup.getString("localField").getValue())));
+        }
+        if (lookup.containsKey("foreignField") && lookup.containsKey("from")) {
+            String fromCollection = lookup.getString("from").getValue();
+            result.put("foreignField", new BsonString(toStoredFieldName(fromCollection, lookup.getString("foreignField").getValue())));
+        }
+        return result;
+    }
+
+    protected BsonDocument translateFilter(BsonDocument filter) {
+        BsonDocument result = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            BsonValue value = entry.getValue();
+            if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+                BsonArray translatedFilters = new BsonArray();
+                for (BsonValue nestedFilter : value.asArray()) {
+                    translatedFilters.add(translateFilter(nestedFilter.asDocument()));
+                }
+                result.put(key, translatedFilters);
+
+            } else if (key.startsWith("$")) {
+                result.put(key, value);
+
+            } else {
+                // The value can contain operators on embedded documents (e.g. $elemMatch), which are not translated
+                result.put(translatePath(key, aliases), value);
+            }
+        }
+        return result;
+    }
+
+    protected BsonDocument translateKeys(BsonDocument document) {
+        BsonDocument result = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+            result.put(translatePath(entry.getKey(), aliases), entry.getValue());
+        }
+        return result;
+    }
+
+    protected Document translateKeys(Map<String, Object> document, Map<String, String> translations) {
+        Document result = new Document();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            result.append(translatePath(entry.getKey(), translations), entry.getValue());
+        }
+        return result;
+    }
+
+    protected String translatePath(String path, Map<String, String> translations) {
+        int dotIndex = path.indexOf('.');
+        String fieldName = dotIndex >= 0 ? path.substring(0, dotIndex) : path;
+        String translatedFieldName = translations.get(fieldName);
+        if (translatedFieldName == null) {
+            return path;
+        }
+        return dotIndex >= 0 ? translatedFieldName + path.substring(dotIndex) : translatedFieldName;
+    }
+
+    protected BsonDocument toBsonDocument(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, codecRegistry);
+    }
+
+    public Set<String> getCollections() {
+        return collections;
+    }
+
+    public Map<String, String> getAliases() {
+        return aliases;
+    }
+
+}
@@ -0,0 +1,261 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.flowable.common.engine.api.FlowableOptimisticLockingException;
+import org.flowable.common.engine.impl.db.HasRevision;
+import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.engine.impl.persistence.entity.ExecutionEntity;
+import org.flowable.engine.impl.persistence.entity.ExecutionEntityImpl;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Writes the execution changes of one flush to the execution tree documents.
+ *
+ * An execution tree document contains all executions of one root process instance:
+ *
+ * <pre>
+ * {
+ *   _id: rootProcessInstanceId,
+ *   executionIds: [ ... ],
+ *   inlineVariableIds: [ ... ],
+ *   executions: { executionId: { execution document }, ... }
+ * }
+ * </pre>
+ *
+ * The {@value #INLINE_VARIABLE_IDS} are the ids of the inline variables of all executions (see {@link InlineVariableSupport}),
+ * so a tree can be found by the id of one of its variables with an index.
+ *
+ * All changes to the same tree are combined into one update, and all trees are written with one bulk write.
+ *
+ * @author Joram Barrez
+ */
+public class ExecutionTreeWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionTreeWriter.class);
+
+    public static final String EXECUTION_IDS = "executionIds";
+    public static final String EXECUTIONS = "executions";
+    public static final String INLINE_VARIABLE_IDS = "inlineVariableIds";
+
+    protected MongoDbSession mongoDbSession;
+    protected Map<String, TreeChanges> treeChanges = new LinkedHashMap<>();
+
+    public ExecutionTreeWriter(MongoDbSession mongoDbSession) {
+        this.mongoDbSession = mongoDbSession;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void write(Collection<Entity> insertedExecutions, Collection<Entity> updatedExecutions, Collection<Entity> deletedExecutions) {
+        EntityToDocumentMapper<ExecutionEntityImpl> executionMapper = (EntityToDocumentMapper<ExecutionEntityImpl>) mongoDbSession
+                .getMongoDbSessionFactory().getMapperForEntityClass(ExecutionEntityImpl.class);
+
+        for (Entity entity : deletedExecutions) {
+            ExecutionEntity execution = (ExecutionEntity) entity;
+            TreeChanges changes = getTreeChanges(execution);
+            if (execution.getId().equals(changes.rootProcessInstanceId)) {
+                changes.deleteTree = true;
+            } else {
+                changes.deletedExecutionIds.add(execution.getId());
+                if (mongoDbSession.getInlineVariableSupport() != null) {
+                    changes.deletedInlineVariableIds.addAll(mongoDbSession.getInlineVariableSupport().getExecutionInlineVariableIds(execution.getId()));
+                }
+            }
+        }
+
+        for (Entity entity : insertedExecutions) {
+            ExecutionEntityImpl execution = (ExecutionEntityImpl) entity;
+            TreeChanges changes = getTreeChanges(execution);
+            Document executionDocument = mongoDbSession.toDocument(executionMapper, execution);
+            if (execution.getId().equals(changes.rootProcessInstanceId)) {
+                changes.newTree = new Document("_id", changes.rootProcessInstanceId)
+                        .append(EXECUTION_IDS, new ArrayList<String>())
+                        .append(EXECUTIONS, new Document());
+            }
+            changes.insertedExecutions.put(execution.getId(), executionDocument);
+            List<?> inlineVariables = (List<?>) executionDocument.get(InlineVariableSupport.INLINE_VARIABLES);
+            if (inlineVariables != null) {
+                for (Object inlineVariable : inlineVariables) {
+                    changes.insertedInlineVariableIds.add(((Document) inlineVariable).getString("_id"));
+                }
+            }
+        }
+
+        MongoDbExecutionDataManager executionDataManager = (MongoDbExecutionDataManager) mongoDbSession.getMongoDbSessionFactory()
+                .getDataManagerForCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
+        for (Entity entity : updatedExecutions) {
+            ExecutionEntity execution = (ExecutionEntity) entity;
+            BasicDBObject updateObject = executionDataManager.createUpdateObject(execution);
+            BasicDBObject incrementObject = executionDataManager.createIncrementObject(execution);
+            if (updateObject != null || incrementObject != null) {
+                if (updateObject == null) {
+                    updateObject = new BasicDBObject();
+                }
+                if (execution instanceof HasRevision) {
+                    updateObject.append("revision", ((HasRevision) execution).getRevisionNext());
+                }
+                TreeChanges changes = getTreeChanges(execution);
+                changes.updatedExecutions.put(execution.getId(), updateObject);
+                if (incrementObject != null) {
+                    changes.incrementedExecutions.put(execution.getId(), incrementObject);
+                }
+            }
+        }
+
+        List<WriteModel<Document>> writeModels = new ArrayList<>();
+        int expectedUpdates = 0;
+        int expectedDeletes = 0;
+        for (TreeChanges changes : treeChanges.values()) {
+            if (changes.deleteTree) {
+                writeModels.add(new DeleteOneModel<>(Filters.eq("_id", changes.rootProcessInstanceId)));
+                expectedDeletes++;
+
+            } else if (changes.newTree != null) {
+                List<String> executionIds = (List<String>) changes.newTree.get(EXECUTION_IDS);
+                Document executions = (Document) changes.newTree.get(EXECUTIONS);
+                for (String executionId : changes.insertedExecutions.keySet()) {
+                    executionIds.add(executionId);
+                    executions.append(executionId, changes.insertedExecutions.get(executionId));
+                }
+                if (!changes.insertedInlineVariableIds.isEmpty()) {
+                    changes.newTree.append(INLINE_VARIABLE_IDS, changes.insertedInlineVariableIds);
+                }
+                writeModels.add(new InsertOneModel<>(changes.newTree));
+
+            } else {
+                expectedUpdates += addUpdateModels(changes, writeModels);
+
+            }
+        }
+
+        if (!writeModels.isEmpty()) {
+            LOGGER.debug("writing {} execution tree operations", writeModels.size());
+            BulkWriteResult result = mongoDbSession.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES)
+                    .bulkWrite(mongoDbSession.getClientSession(), writeModels);
+            if (result.getMatchedCount() < expectedUpdates || result.getDeletedCount() < expectedDeletes) {
+                throw new FlowableOptimisticLockingException("Execution tree was updated by another transaction concurrently");
+            }
+        }
+
+        for (Entity entity : updatedExecutions) {
+            if (entity instanceof HasRevision) {
+                ((HasRevision) entity).setRevision(((HasRevision) entity).getRevisionNext());
+            }
+        }
+    }
+
+    protected int addUpdateModels(TreeChanges changes, List<WriteModel<Document>> writeModels) {
+        Document set = new Document();
+        for (String executionId : changes.insertedExecutions.keySet()) {
+            set.append(EXECUTIONS + "." + executionId, changes.insertedExecutions.get(executionId));
+        }
+        for (String executionId : changes.updatedExecutions.keySet()) {
+            BasicDBObject updateObject = changes.updatedExecutions.get(executionId);
+            for (String propertyName : updateObject.keySet()) {
+                set.append(EXECUTIONS + "." + executionId + "." + propertyName, updateObject.get(propertyName));
+            }
+        }
+        Document inc = new Document();
+        for (String executionId : changes.incrementedExecutions.keySet()) {
+            BasicDBObject incrementObject = changes.incrementedExecutions.get(executionId);
+            for (String propertyName : incrementObject.keySet()) {
+                inc.append(EXECUTIONS + "." + executionId + "." + propertyName, incrementObject.get(propertyName));
+            }
+        }
+        Document unset = new Document();
+        for (String executionId : changes.deletedExecutionIds) {
+            unset.append(EXECUTIONS + "." + executionId, "");
+        }
+
+        Document update = new Document();
+        if (!set.isEmpty()) {
+            update.append("$set", set);
+        }
+        if (!inc.isEmpty()) {
+            update.append("$inc", inc);
+        }
+        if (!unset.isEmpty()) {
+            update.append("$unset", unset);
+        }
+        if (!changes.insertedExecutions.isEmpty()) {
+            Document addToSet = new Document(EXECUTION_IDS, new Document("$each", new ArrayList<>(changes.insertedExecutions.keySet())));
+            if (!changes.insertedInlineVariableIds.isEmpty()) {
+                addToSet.append(INLINE_VARIABLE_IDS, new Document("$each", changes.insertedInlineVariableIds));
+            }
+            update.append("$addToSet", addToSet);
+        }
+
+        int updates = 0;
+        if (!update.isEmpty()) {
+            writeModels.add(new UpdateOneModel<>(Filters.eq("_id", changes.rootProcessInstanceId), update));
+            updates++;
+        }
+
+        // $addToSet and $pull on the same field are not allowed in one update
+        if (!changes.deletedExecutionIds.isEmpty()) {
+            Document pull = new Document(EXECUTION_IDS, new Document("$in", changes.deletedExecutionIds));
+            if (!changes.deletedInlineVariableIds.isEmpty()) {
+                pull.append(INLINE_VARIABLE_IDS, new Document("$in", changes.deletedInlineVariableIds));
+            }
+            writeModels.add(new UpdateOneModel<>(Filters.eq("_id", changes.rootProcessInstanceId), new Document("$pull", pull)));
+            updates++;
+        }
+        return updates;
+    }
+
+    protected TreeChanges getTreeChanges(ExecutionEntity execution) {
+        String rootProcessInstanceId = execution.getRootProcessInstanceId() != null ? execution.getRootProcessInstanceId() : execution.getId();
+        TreeChanges changes = treeChanges.get(rootProcessInstanceId);
+        if (changes == null) {
+            changes = new TreeChanges(rootProcessInstanceId);
+            treeChanges.put(rootProcessInstanceId, changes);
+        }
+        return changes;
+    }
+
+    protected static class TreeChanges {
+
+        protected String rootProcessInstanceId;
+        protected Document newTree;
+        protected boolean deleteTree;
+        protected Map<String, Document> insertedExecutions = new LinkedHashMap<>();
+        protected Map<String, BasicDBObject> updatedExecutions = new LinkedHashMap<>();
+        protected Map<String, BasicDBObject> incrementedExecutions = new LinkedHashMap<>();
+        protected List<String> deletedExecutionIds = new ArrayList<>();
+        protected List<String> insertedInlineVariableIds = new ArrayList<>();
+        protected List<String> deletedInlineVariableIds = new ArrayList<>();
+
+        public TreeChanges(String rootProcessInstanceId) {
+            this.rootProcessInstanceId = rootProcessInstanceId;
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+/**
+ * Stores byte arrays that are larger than the threshold in GridFS, instead of inline in the document of the entity
+ * (which is limited to 16MB and would otherwise be fetched by every query on the collection).
+ *
+ * The GridFS file has the id of the entity as id. The files and chunks are written with the client session of the
+ * {@link MongoDbSession}, so they're part of the same transaction as the entity. The driver's {@link GridFSBucket}
+ * is not used for writing, as it creates its indices on the first upload, which is not allowed in a transaction.
+ * The indices are created by the schema manager instead.
+ *
+ * @author Joram Barrez
+ */
+public class GridFsByteArrayStore {
+
+    public static final String BUCKET_NAME = "flowableByteArrays";
+    public static final String COLLECTION_FILES = BUCKET_NAME + ".files";
+    public static final String COLLECTION_CHUNKS = BUCKET_NAME + ".chunks";
+
+    /** Marker in the document of the entity, indicating the bytes are stored in GridFS */
+    public static final String GRID_FS_FIELD = "gridFs";
+
+    protected MongoDatabase mongoDatabase;
+    protected int threshold;
+    protected int chunkSize = 255 * 1024;
+
+    public GridFsByteArrayStore(MongoDatabase mongoDatabase, int threshold) {
+        this.mongoDatabase = mongoDatabase;
+        this.threshold = threshold;
+    }
+
+    /**
+     * A negative threshold disables storing in GridFS. Bytes already stored in GridFS can still be read.
+     */
+    public boolean isEnabled() {
+        return threshold >= 0;
+    }
+
+    public boolean isStoredInGridFs(byte[] bytes) {
+        return isEnabled() && bytes != null && bytes.length > threshold;
+    }
+
+    public void store(MongoDbSession mongoDbSession, String id, String name, String deploymentId, byte[] bytes) {
+        List<Document> chunks = new ArrayList<>();
+        for (int n = 0; n * chunkSize < bytes.length; n++) {
+            chunks.add(new Document()
+                    .append("_id", new ObjectId())
+                    .append("files_id", id)
+                    .append("n", n)
+                    .append("data", new Binary(Arrays.copyOfRange(bytes, n * chunkSize, Math.min(bytes.length, (n + 1) * chunkSize)))));
+        }
+
+        Document metadata = new Document();
+        if (deploymentId != null) {
+            metadata.append("deploymentId", deploymentId);
+        }
+        Document file = new Document()
+                .append("_id", id)
+                .append("length", (long) bytes.length)
+                .append("chunkSize", chunkSize)
+                .append("uploadDate", new Date())
+                .append("filename", name != null ? name : id)
+                .append("metadata", metadata);
+
+        ClientSession clientSession = mongoDbSession.getClientSession();
+        if (!chunks.isEmpty()) {
+            mongoDbSession.getCollection(COLLECTION_CHUNKS).insertMany(clientSession, chunks);
+        }
+        mongoDbSession.getCollection(COLLECTION_FILES).insertOne(clientSession, file);
+    }
+
+    /**
+     * Reads the bytes within the transaction of the given session.
+     */
+    public byte[] load(MongoDbSession mongoDbSession, String id) {
+        return load(mongoDbSession.getMongoDatabase(), mongoDbSession.getClientSession(), id);
+    }
+
+    /**
+     * Reads the committed bytes, outside of any transaction.
+     */
+    public byte[] load(String id) {
+        return load(mongoDatabase, null, id);
+    }
+
+    protected byte[] load(MongoDatabase database, ClientSession clientSession, String id) {
+        GridFSBucket bucket = GridFSBuckets.create(database, BUCKET_NAME);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            if (clientSession != null) {
+                bucket.downloadToStream(clientSession, new BsonString(id), outputStream);
+            } else {
+                bucket.downloadToStream(new BsonString(id), outputStream);
+            }
+        } catch (MongoGridFSException e) {
+            // No file with the id
+            return null;
+        }
+        return outputStream.toByteArray();
+    }
+
+    public void delete(MongoDbSession mongoDbSession, String id) {
+        ClientSession clientSession = mongoDbSession.getClientSession();
+        mongoDbSession.getCollection(COLLECTION_FILES).deleteOne(clientSession, Filters.eq("_id", id));
+        mongoDbSession.getCollection(COLLECTION_CHUNKS).deleteMany(clientSession, Filters.eq("files_id", id));
+    }
+
+    public void deleteByDeploymentId(MongoDbSession mongoDbSession, String deploymentId) {
+        ClientSession clientSession = mongoDbSession.getClientSession();
+        List<Object> ids = new ArrayList<>();
+        for (Document file : mongoDbSession.getCollection(COLLECTION_FILES)
+                .find(clientSession, Filters.eq("metadata.deploymentId", deploymentId)).projection(Projections.include("_id"))) {
+            ids.add(file.get("_id"));
+        }
+
+        if (!ids.isEmpty()) {
+            mongoDbSession.getCollection(COLLECTION_FILES).deleteMany(clientSession, Filters.in("_id", ids));
+            mongoDbSession.getCollection(COLLECTION_CHUNKS).deleteMany(clientSession, Filters.in("files_id", ids));
+        }
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+}
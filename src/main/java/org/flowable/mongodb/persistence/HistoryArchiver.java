@@ -0,0 +1,173 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.impl.interceptor.CommandExecutor;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricDetailDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricIdentityLinkDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricVariableInstanceDataManager;
+import org.flowable.mongodb.schema.IndexBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Moves the history of process instances that ended longer ago than their retention to the archive database,
+ * so the regular database (and its cache) only holds the recent history next to the runtime data.
+ *
+ * The retention and batches work as for the {@link HistoryCleaner}: each batch is copied to the collections with the same name
+ * in the archive database with one bulk write per collection and deleted with one deleteMany per collection, in one transaction.
+ * The copies are upserts on the _id, so a batch that is archived again after a failure doesn't duplicate documents.
+ *
+ * $merge isn't used for the copy, as it can't be used in a transaction and would leave the documents in both databases when the delete fails.
+ *
+ * When the archive is queried, the history queries of the {@link MongoDbSession#findIncludingArchive(String, Bson)} return the archived entities too.
+ * Archived entities are read-only.
+ *
+ * @author Joram Barrez
+ */
+public class HistoryArchiver extends HistoryCleaner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryArchiver.class);
+
+    protected MongoDatabase archiveDatabase;
+    protected CompactFieldNames compactFieldNames;
+    protected boolean archiveQueried = true;
+
+    public HistoryArchiver() {
+        this.retentionDays = 90;
+    }
+
+    @Override
+    public void start(CommandExecutor commandExecutor) {
+        initArchiveIndices();
+        super.start(commandExecutor);
+    }
+
+    /**
+     * Creates the archive collections with the indices used to archive and to query the archived history.
+     * The collections must exist before the first batch, as collections can't be created in a transaction.
+     */
+    protected void initArchiveIndices() {
+        IndexBuilder indexBuilder = new IndexBuilder(archiveDatabase, compactFieldNames);
+        indexBuilder.addIndex(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES,
+                new Document("processDefinitionId", 1), new IndexOptions().name("flw_archive_hpi_proc_def_idx"));
+        indexBuilder.addIndex(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES,
+                new Document("processInstanceId", 1), new IndexOptions().name("flw_archive_hai_proc_inst_idx"));
+        indexBuilder.addIndex(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES,
+                new Document("processInstanceId", 1), new IndexOptions().name("flw_archive_hti_proc_inst_idx"));
+        indexBuilder.addIndex(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES,
+                new Document("processInstanceId", 1), new IndexOptions().name("flw_archive_hvi_proc_inst_idx"));
+        indexBuilder.addIndex(MongoDbHistoricDetailDataManager.COLLECTION_HISTORIC_DETAILS,
+                new Document("processInstanceId", 1), new IndexOptions().name("flw_archive_hd_proc_inst_idx"));
+        indexBuilder.addIndex(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS,
+                new Document("processInstanceId", 1), new IndexOptions().name("flw_archive_hil_proc_inst_idx"));
+        indexBuilder.addIndex(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS,
+                new Document("taskId", 1), new IndexOptions().name("flw_archive_hil_task_idx"));
+        indexBuilder.build();
+    }
+
+    /**
+     * Moves the history of all process instances that are past their retention to the archive database.
+     *
+     * @return the number of archived historic process instances
+     */
+    public long archiveHistory() {
+        return cleanHistory();
+    }
+
+    @Override
+    protected int deleteBatch(MongoDbSession mongoDbSession, Bson filter) {
+        List<String> processInstanceIds = findProcessInstanceIds(mongoDbSession, filter);
+        if (processInstanceIds.isEmpty()) {
+            return 0;
+        }
+
+        for (Map.Entry<String, Bson> historyFilter : createHistoryFilters(mongoDbSession, processInstanceIds).entrySet()) {
+            copyToArchive(mongoDbSession, historyFilter.getKey(), historyFilter.getValue());
+            mongoDbSession.bulkDelete(historyFilter.getKey(), historyFilter.getValue());
+        }
+        return processInstanceIds.size();
+    }
+
+    /**
+     * Copies the stored documents as they are, so the archive has the same (compact) field names as the regular database.
+     */
+    protected void copyToArchive(MongoDbSession mongoDbSession, String collection, Bson filter) {
+        List<WriteModel<Document>> copies = new ArrayList<>();
+        for (Document document : mongoDbSession.findDocuments(collection, filter)) {
+            copies.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document, new ReplaceOptions().upsert(true)));
+        }
+        if (!copies.isEmpty()) {
+            getArchiveCollection(collection).bulkWrite(mongoDbSession.getClientSession(), copies);
+        }
+    }
+
+    public MongoCollection<Document> getArchiveCollection(String collection) {
+        return archiveDatabase.getCollection(collection);
+    }
+
+    @Override
+    protected void historyCleaned(long count) {
+        LOGGER.info("Archived the history of {} process instances", count);
+    }
+
+    @Override
+    protected String getThreadName() {
+        return "flowable-history-archiver";
+    }
+
+    public MongoDatabase getArchiveDatabase() {
+        return archiveDatabase;
+    }
+
+    public HistoryArchiver setArchiveDatabase(MongoDatabase archiveDatabase) {
+        this.archiveDatabase = archiveDatabase;
+        return this;
+    }
+
+    public CompactFieldNames getCompactFieldNames() {
+        return compactFieldNames;
+    }
+
+    public HistoryArchiver setCompactFieldNames(CompactFieldNames compactFieldNames) {
+        this.compactFieldNames = compactFieldNames;
+        return this;
+    }
+
+    public boolean isArchiveQueried() {
+        return archiveQueried;
+    }
+
+    public HistoryArchiver setArchiveQueried(boolean archiveQueried) {
+        this.archiveQueried = archiveQueried;
+        return this;
+    }
+
+}
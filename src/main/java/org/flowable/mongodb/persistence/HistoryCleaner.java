@@ -0,0 +1,246 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.impl.interceptor.CommandExecutor;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricDetailDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricIdentityLinkDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricVariableInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbProcessDefinitionDataManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Deletes the history of process instances that ended longer ago than their retention.
+ *
+ * The retention is {@link #retentionDays} by default, which can be overridden per tenant and per process definition key
+ * (the process definition key wins over the tenant). A negative number of days keeps the history forever.
+ *
+ * The process instances are deleted in batches of {@link #batchSize}, each batch in its own transaction:
+ * the historic process instances and all their activity instances, task instances (with their identity links),
+ * variable instances, details and identity links are deleted with one deleteMany per collection.
+ *
+ * A TTL index on the endTime isn't used, as it can only delete the historic process instances and not the related documents.
+ *
+ * @author Joram Barrez
+ */
+public class HistoryCleaner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryCleaner.class);
+
+    protected static final long DAY_IN_MILLIS = 24L * 60L * 60L * 1000L;
+
+    protected int retentionDays = 365;
+    protected Map<String, Integer> tenantRetentionDays = new HashMap<>();
+    protected Map<String, Integer> processDefinitionRetentionDays = new HashMap<>();
+    protected int batchSize = 100;
+    protected long cleaningInterval = 60L * 60L * 1000L;
+
+    protected CommandExecutor commandExecutor;
+    protected ScheduledExecutorService scheduledExecutorService;
+
+    public void start(CommandExecutor commandExecutor) {
+        this.commandExecutor = commandExecutor;
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, getThreadName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                cleanHistory();
+            } catch (RuntimeException e) {
+                // Another node can clean the same process instances concurrently, the next run continues
+                LOGGER.warn("Could not clean history", e);
+            }
+        }, cleaningInterval, cleaningInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduledExecutorService != null) {
+            scheduledExecutorService.shutdownNow();
+            scheduledExecutorService = null;
+        }
+    }
+
+    /**
+     * Deletes the history of all process instances that are past their retention.
+     *
+     * @return the number of deleted historic process instances
+     */
+    public long cleanHistory() {
+        long now = System.currentTimeMillis();
+        long deleted = 0;
+
+        List<String> overriddenProcessDefinitionIds = new ArrayList<>();
+        for (String processDefinitionKey : processDefinitionRetentionDays.keySet()) {
+            List<String> processDefinitionIds = getProcessDefinitionIds(processDefinitionKey);
+            overriddenProcessDefinitionIds.addAll(processDefinitionIds);
+            Integer days = processDefinitionRetentionDays.get(processDefinitionKey);
+            if (days != null && days >= 0 && !processDefinitionIds.isEmpty()) {
+                deleted += cleanHistory(Filters.and(createEndTimeFilter(now, days), Filters.in("processDefinitionId", processDefinitionIds)));
+            }
+        }
+
+        for (String tenantId : tenantRetentionDays.keySet()) {
+            Integer days = tenantRetentionDays.get(tenantId);
+            if (days != null && days >= 0) {
+                deleted += cleanHistory(Filters.and(createEndTimeFilter(now, days), Filters.eq("tenantId", tenantId),
+                        Filters.nin("processDefinitionId", overriddenProcessDefinitionIds)));
+            }
+        }
+
+        if (retentionDays >= 0) {
+            deleted += cleanHistory(Filters.and(createEndTimeFilter(now, retentionDays),
+                    Filters.nin("tenantId", tenantRetentionDays.keySet()), Filters.nin("processDefinitionId", overriddenProcessDefinitionIds)));
+        }
+
+        if (deleted > 0) {
+            historyCleaned(deleted);
+        }
+        return deleted;
+    }
+
+    protected void historyCleaned(long count) {
+        LOGGER.info("Deleted the history of {} process instances", count);
+    }
+
+    protected long cleanHistory(Bson filter) {
+        long deleted = 0;
+        int batchDeleted;
+        do {
+            batchDeleted = commandExecutor.execute(commandContext -> deleteBatch(commandContext.getSession(MongoDbSession.class), filter));
+            deleted += batchDeleted;
+        } while (batchDeleted == batchSize);
+        return deleted;
+    }
+
+    protected int deleteBatch(MongoDbSession mongoDbSession, Bson filter) {
+        List<String> processInstanceIds = findProcessInstanceIds(mongoDbSession, filter);
+        if (processInstanceIds.isEmpty()) {
+            return 0;
+        }
+
+        for (Map.Entry<String, Bson> historyFilter : createHistoryFilters(mongoDbSession, processInstanceIds).entrySet()) {
+            mongoDbSession.bulkDelete(historyFilter.getKey(), historyFilter.getValue());
+        }
+        return processInstanceIds.size();
+    }
+
+    protected List<String> findProcessInstanceIds(MongoDbSession mongoDbSession, Bson filter) {
+        List<String> processInstanceIds = new ArrayList<>();
+        for (Document document : mongoDbSession.findDocuments(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES,
+                filter, Sorts.ascending("endTime"), batchSize).projection(Projections.include("_id"))) {
+            processInstanceIds.add(document.getString("_id"));
+        }
+        return processInstanceIds;
+    }
+
+    /**
+     * The filter per history collection on the documents of the process instances, with the historic process instances last.
+     */
+    protected Map<String, Bson> createHistoryFilters(MongoDbSession mongoDbSession, List<String> processInstanceIds) {
+        Map<String, Bson> historyFilters = new LinkedHashMap<>();
+
+        // Task identity links only refer to the task
+        Bson processInstanceFilter = Filters.in("processInstanceId", processInstanceIds);
+        List<String> taskIds = mongoDbSession.distinct(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, "_id", processInstanceFilter);
+        historyFilters.put(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS,
+                taskIds.isEmpty() ? processInstanceFilter : Filters.or(processInstanceFilter, Filters.in("taskId", taskIds)));
+
+        historyFilters.put(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, processInstanceFilter);
+        historyFilters.put(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, processInstanceFilter);
+        historyFilters.put(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, processInstanceFilter);
+        historyFilters.put(MongoDbHistoricDetailDataManager.COLLECTION_HISTORIC_DETAILS, processInstanceFilter);
+        historyFilters.put(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, Filters.in("_id", processInstanceIds));
+        return historyFilters;
+    }
+
+    protected List<String> getProcessDefinitionIds(String processDefinitionKey) {
+        return commandExecutor.execute(commandContext -> commandContext.getSession(MongoDbSession.class)
+                .distinct(MongoDbProcessDefinitionDataManager.COLLECTION_PROCESS_DEFINITIONS, "_id", Filters.eq("key", processDefinitionKey)));
+    }
+
+    protected Bson createEndTimeFilter(long now, int days) {
+        return Filters.lt("endTime", new Date(now - days * DAY_IN_MILLIS));
+    }
+
+    protected String getThreadName() {
+        return "flowable-history-cleaner";
+    }
+
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+
+    public HistoryCleaner setRetentionDays(int retentionDays) {
+        this.retentionDays = retentionDays;
+        return this;
+    }
+
+    public Map<String, Integer> getTenantRetentionDays() {
+        return tenantRetentionDays;
+    }
+
+    public HistoryCleaner setTenantRetentionDays(String tenantId, int days) {
+        tenantRetentionDays.put(tenantId, days);
+        return this;
+    }
+
+    public Map<String, Integer> getProcessDefinitionRetentionDays() {
+        return processDefinitionRetentionDays;
+    }
+
+    public HistoryCleaner setProcessDefinitionRetentionDays(String processDefinitionKey, int days) {
+        processDefinitionRetentionDays.put(processDefinitionKey, days);
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public HistoryCleaner setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public long getCleaningInterval() {
+        return cleaningInterval;
+    }
+
+    public HistoryCleaner setCleaningInterval(long cleaningInterval) {
+        this.cleaningInterval = cleaningInterval;
+        return this;
+    }
+
+}
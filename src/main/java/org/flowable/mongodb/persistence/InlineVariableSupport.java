@@ -0,0 +1,431 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.impl.db.HasRevision;
+import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.engine.impl.persistence.entity.ExecutionEntityImpl;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.task.service.impl.persistence.entity.TaskEntityImpl;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntity;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntityImpl;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Keeps track of the variables that are stored inline in the document of their execution or task
+ * (the 'hybrid' variable storage, see {@link MongoDbSessionFactory#isInlineVariablesEnabled()}).
+ *
+ * Small scalar variables are stored in the {@value #INLINE_VARIABLES} array of the owner document and are put in the cache
+ * when the owner document is loaded. All other variables are stored in the variables collection.
+ * The {@value #EXTERNAL_VARIABLES} flag on the owner document tells whether the variables collection needs to be queried at all.
+ *
+ * One instance is bound to one {@link MongoDbSession}.
+ *
+ * @author Joram Barrez
+ */
+public class InlineVariableSupport {
+
+    public static final String INLINE_VARIABLES = "inlineVariables";
+    public static final String EXTERNAL_VARIABLES = "externalVariables";
+
+    protected static final Set<String> INLINE_VARIABLE_TYPES = new HashSet<>(Arrays.asList(
+            "string", "long", "integer", "short", "double", "boolean", "date", "null", "uuid"));
+
+    protected static final String EXECUTION_OWNER = "execution/";
+    protected static final String TASK_OWNER = "task/";
+
+    protected MongoDbSession mongoDbSession;
+    protected int maxLength;
+
+    protected Set<String> inlineVariableIds = new HashSet<>();
+    protected Map<String, Boolean> ownerExternalVariables = new HashMap<>();
+
+    // Pending changes of the current flush, by owner key
+    protected Map<String, List<Document>> insertedVariables = new LinkedHashMap<>();
+    protected Map<String, Map<String, BasicDBObject>> updatedVariables = new LinkedHashMap<>();
+    protected Map<String, List<String>> deletedVariables = new LinkedHashMap<>();
+    protected Set<String> ownersWithExternalVariables = new HashSet<>();
+    protected List<Document> movedVariables = new ArrayList<>();
+
+    public InlineVariableSupport(MongoDbSession mongoDbSession, int maxLength) {
+        this.mongoDbSession = mongoDbSession;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Called for every entity that is mapped from a document. Puts the inline variables of an owner document in the cache.
+     */
+    public void documentLoaded(Entity entity, Document document) {
+        String ownerKey = getOwnerKey(entity);
+        if (ownerKey == null) {
+            return;
+        }
+
+        // Documents written before the hybrid storage was enabled don't have the flag, so the variables collection needs to be checked
+        ownerExternalVariables.put(ownerKey, document.getBoolean(EXTERNAL_VARIABLES, true));
+
+        List<?> inlineVariables = (List<?>) document.get(INLINE_VARIABLES);
+        if (inlineVariables != null && !inlineVariables.isEmpty()) {
+            List<Document> variableDocuments = new ArrayList<>(inlineVariables.size());
+            for (Object inlineVariable : inlineVariables) {
+                Document variableDocument = (Document) inlineVariable;
+                variableDocuments.add(variableDocument);
+                inlineVariableIds.add(variableDocument.getString("_id"));
+            }
+            mongoDbSession.mapToEntities(VariableInstanceEntityImpl.class, variableDocuments);
+        }
+    }
+
+    public void entityInserted(Entity entity) {
+        String ownerKey = getOwnerKey(entity);
+        if (ownerKey != null) {
+            ownerExternalVariables.put(ownerKey, Boolean.FALSE);
+        }
+    }
+
+    public boolean isExecutionLoaded(String executionId) {
+        return ownerExternalVariables.containsKey(EXECUTION_OWNER + executionId);
+    }
+
+    public boolean isTaskLoaded(String taskId) {
+        return ownerExternalVariables.containsKey(TASK_OWNER + taskId);
+    }
+
+    /**
+     * @return false only when it's known that no variable of the execution is stored in the variables collection.
+     */
+    public boolean hasExternalExecutionVariables(String executionId) {
+        return !Boolean.FALSE.equals(ownerExternalVariables.get(EXECUTION_OWNER + executionId));
+    }
+
+    public boolean hasExternalTaskVariables(String taskId) {
+        return !Boolean.FALSE.equals(ownerExternalVariables.get(TASK_OWNER + taskId));
+    }
+
+    public boolean isInline(Entity variable) {
+        return inlineVariableIds.contains(variable.getId());
+    }
+
+    /**
+     * Takes the inline variable operations out of the regular operations of the session.
+     * Needs to be called before the inserts are flushed, as the inline variables of new owners are part of the owner insert.
+     */
+    public void prepareFlush(Map<String, Entity> inserted, List<Entity> updated, Map<String, Entity> deleted) {
+        if (inserted != null) {
+            Iterator<Entity> insertedIterator = inserted.values().iterator();
+            while (insertedIterator.hasNext()) {
+                VariableInstanceEntity variable = (VariableInstanceEntity) insertedIterator.next();
+                String ownerKey = getOwnerKey(variable);
+                if (ownerKey != null && isInlineCandidate(variable)) {
+                    inlineVariableIds.add(variable.getId());
+                    addToList(insertedVariables, ownerKey, toVariableDocument(variable));
+                    insertedIterator.remove();
+                } else if (ownerKey != null) {
+                    ownersWithExternalVariables.add(ownerKey);
+                }
+            }
+        }
+
+        Iterator<Entity> updatedIterator = updated.iterator();
+        MongoDbVariableInstanceDataManager variableDataManager = getVariableDataManager();
+        while (updatedIterator.hasNext()) {
+            Entity entity = updatedIterator.next();
+            if (entity instanceof VariableInstanceEntity && isInline(entity)) {
+                VariableInstanceEntity variable = (VariableInstanceEntity) entity;
+                String ownerKey = getOwnerKey(variable);
+                if (isInlineCandidate(variable)) {
+                    BasicDBObject updateObject = variableDataManager.createUpdateObject(variable);
+                    if (updateObject != null) {
+                        updateObject.append("revision", variable.getRevisionNext());
+                        Map<String, BasicDBObject> ownerUpdates = updatedVariables.get(ownerKey);
+                        if (ownerUpdates == null) {
+                            ownerUpdates = new LinkedHashMap<>();
+                            updatedVariables.put(ownerKey, ownerUpdates);
+                        }
+                        ownerUpdates.put(variable.getId(), updateObject);
+                    }
+
+                } else {
+                    // The value doesn't fit inline anymore: move it to the variables collection
+                    inlineVariableIds.remove(variable.getId());
+                    addToList(deletedVariables, ownerKey, variable.getId());
+                    variable.setRevision(variable.getRevisionNext());
+                    movedVariables.add(mongoDbSession.toStoredDocument(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, toVariableDocument(variable)));
+                    ownersWithExternalVariables.add(ownerKey);
+
+                }
+                updatedIterator.remove();
+            }
+        }
+
+        if (deleted != null) {
+            Iterator<Entity> deletedIterator = deleted.values().iterator();
+            while (deletedIterator.hasNext()) {
+                Entity variable = deletedIterator.next();
+                if (isInline(variable)) {
+                    addToList(deletedVariables, getOwnerKey(variable), variable.getId());
+                    deletedIterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the inline variables and the external variables flag to the document of a new execution or task.
+     */
+    public void enrichOwnerDocument(Entity entity, Document document) {
+        String ownerKey = getOwnerKey(entity);
+        if (ownerKey == null) {
+            return;
+        }
+
+        List<Document> variables = insertedVariables.remove(ownerKey);
+        if (variables != null) {
+            document.append(INLINE_VARIABLES, variables);
+        }
+        document.append(EXTERNAL_VARIABLES, ownersWithExternalVariables.remove(ownerKey));
+    }
+
+    /**
+     * Writes the inline variable changes of existing owners. Needs to be called after the owner inserts have been flushed.
+     */
+    public void flush() {
+        Set<String> ownerKeys = new HashSet<>();
+        ownerKeys.addAll(insertedVariables.keySet());
+        ownerKeys.addAll(updatedVariables.keySet());
+        ownerKeys.addAll(deletedVariables.keySet());
+        ownerKeys.addAll(ownersWithExternalVariables);
+
+        Map<String, List<WriteModel<Document>>> writeModels = new LinkedHashMap<>();
+        for (String ownerKey : ownerKeys) {
+            if (isOwnerDeleted(ownerKey)) {
+                continue;
+            }
+
+            String collection = getOwnerCollection(ownerKey);
+            Bson filter = getOwnerFilter(ownerKey);
+            String path = getOwnerPath(ownerKey);
+            List<WriteModel<Document>> collectionWriteModels = writeModels.get(collection);
+            if (collectionWriteModels == null) {
+                collectionWriteModels = new ArrayList<>();
+                writeModels.put(collection, collectionWriteModels);
+            }
+
+            // Pushing, pulling and updating elements of the same array can't be combined in one update
+            Document update = new Document();
+            if (insertedVariables.containsKey(ownerKey)) {
+                Document push = new Document(path + INLINE_VARIABLES, new Document("$each", insertedVariables.get(ownerKey)));
+                if (isTreeOwner(ownerKey)) {
+                    List<String> variableIds = new ArrayList<>();
+                    for (Document variable : insertedVariables.get(ownerKey)) {
+                        variableIds.add(variable.getString("_id"));
+                    }
+                    push.append(ExecutionTreeWriter.INLINE_VARIABLE_IDS, new Document("$each", variableIds));
+                }
+                update.append("$push", push);
+            }
+            if (ownersWithExternalVariables.contains(ownerKey)) {
+                update.append("$set", new Document(path + EXTERNAL_VARIABLES, true));
+                ownerExternalVariables.put(ownerKey, Boolean.TRUE);
+            }
+            if (!update.isEmpty()) {
+                collectionWriteModels.add(new UpdateOneModel<>(filter, update));
+            }
+
+            if (updatedVariables.containsKey(ownerKey)) {
+                Document set = new Document();
+                List<Bson> arrayFilters = new ArrayList<>();
+                int index = 0;
+                for (Map.Entry<String, BasicDBObject> variableUpdate : updatedVariables.get(ownerKey).entrySet()) {
+                    String identifier = "v" + index++;
+                    for (String propertyName : variableUpdate.getValue().keySet()) {
+                        set.append(path + INLINE_VARIABLES + ".$[" + identifier + "]." + propertyName, variableUpdate.getValue().get(propertyName));
+                    }
+                    arrayFilters.add(Filters.eq(identifier + "._id", variableUpdate.getKey()));
+                }
+                collectionWriteModels.add(new UpdateOneModel<>(filter, new Document("$set", set), new UpdateOptions().arrayFilters(arrayFilters)));
+            }
+
+            if (deletedVariables.containsKey(ownerKey)) {
+                Document pull = new Document(path + INLINE_VARIABLES, new Document("_id", new Document("$in", deletedVariables.get(ownerKey))));
+                if (isTreeOwner(ownerKey)) {
+                    pull.append(ExecutionTreeWriter.INLINE_VARIABLE_IDS, new Document("$in", deletedVariables.get(ownerKey)));
+                }
+                collectionWriteModels.add(new UpdateOneModel<>(filter, new Document("$pull", pull)));
+            }
+        }
+
+        for (String collection : writeModels.keySet()) {
+            if (!writeModels.get(collection).isEmpty()) {
+                mongoDbSession.getCollection(collection).bulkWrite(mongoDbSession.getClientSession(), writeModels.get(collection));
+            }
+        }
+
+        if (!movedVariables.isEmpty()) {
+            mongoDbSession.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).insertMany(mongoDbSession.getClientSession(), movedVariables);
+        }
+
+        for (Map<String, BasicDBObject> ownerUpdates : updatedVariables.values()) {
+            for (String variableId : ownerUpdates.keySet()) {
+                Entity variable = mongoDbSession.getEntityCache().findInCache(VariableInstanceEntityImpl.class, variableId);
+                if (variable instanceof HasRevision) {
+                    ((HasRevision) variable).setRevision(((HasRevision) variable).getRevisionNext());
+                }
+            }
+        }
+
+        insertedVariables.clear();
+        updatedVariables.clear();
+        deletedVariables.clear();
+        ownersWithExternalVariables.clear();
+        movedVariables.clear();
+    }
+
+    protected boolean isInlineCandidate(VariableInstanceEntity variable) {
+        if (!INLINE_VARIABLE_TYPES.contains(variable.getTypeName())) {
+            return false;
+        }
+        if (variable.getTextValue2() != null) {
+            return false;
+        }
+        if (variable instanceof VariableInstanceEntityImpl) {
+            VariableInstanceEntityImpl variableEntity = (VariableInstanceEntityImpl) variable;
+            if (variableEntity.getByteArrayRef() != null && variableEntity.getByteArrayRef().getId() != null) {
+                return false;
+            }
+        }
+        return variable.getTextValue() == null || variable.getTextValue().length() <= maxLength;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Document toVariableDocument(VariableInstanceEntity variable) {
+        EntityToDocumentMapper<VariableInstanceEntity> mapper = (EntityToDocumentMapper<VariableInstanceEntity>) mongoDbSession
+                .getMongoDbSessionFactory().getMapperForEntityClass(VariableInstanceEntityImpl.class);
+        return mapper.toDocument(variable);
+    }
+
+    protected String getOwnerKey(Entity entity) {
+        if (entity instanceof ExecutionEntityImpl) {
+            return EXECUTION_OWNER + entity.getId();
+        } else if (entity instanceof TaskEntityImpl) {
+            return TASK_OWNER + entity.getId();
+        } else if (entity instanceof VariableInstanceEntity) {
+            VariableInstanceEntity variable = (VariableInstanceEntity) entity;
+            if (variable.getTaskId() != null) {
+                return TASK_OWNER + variable.getTaskId();
+            } else if (variable.getExecutionId() != null) {
+                return EXECUTION_OWNER + variable.getExecutionId();
+            }
+        }
+        return null;
+    }
+
+    protected boolean isOwnerDeleted(String ownerKey) {
+        Entity owner = null;
+        if (ownerKey.startsWith(EXECUTION_OWNER)) {
+            owner = mongoDbSession.getEntityCache().findInCache(ExecutionEntityImpl.class, getOwnerId(ownerKey));
+        } else {
+            owner = mongoDbSession.getEntityCache().findInCache(TaskEntityImpl.class, getOwnerId(ownerKey));
+        }
+        return owner != null && owner.isDeleted();
+    }
+
+    protected String getOwnerId(String ownerKey) {
+        return ownerKey.substring(ownerKey.indexOf('/') + 1);
+    }
+
+    protected String getOwnerCollection(String ownerKey) {
+        if (ownerKey.startsWith(TASK_OWNER)) {
+            return MongoDbTaskDataManager.COLLECTION_TASKS;
+        }
+        return isExecutionTreeEmbedded() ? MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES : MongoDbExecutionDataManager.COLLECTION_EXECUTIONS;
+    }
+
+    protected Bson getOwnerFilter(String ownerKey) {
+        if (isTreeOwner(ownerKey)) {
+            return Filters.eq(ExecutionTreeWriter.EXECUTION_IDS, getOwnerId(ownerKey));
+        }
+        return Filters.eq("_id", getOwnerId(ownerKey));
+    }
+
+    protected String getOwnerPath(String ownerKey) {
+        if (isTreeOwner(ownerKey)) {
+            return ExecutionTreeWriter.EXECUTIONS + "." + getOwnerId(ownerKey) + ".";
+        }
+        return "";
+    }
+
+    /**
+     * Whether the owner is an execution in an execution tree document, which also keeps the ids of the inline variables of its executions.
+     */
+    protected boolean isTreeOwner(String ownerKey) {
+        return ownerKey.startsWith(EXECUTION_OWNER) && isExecutionTreeEmbedded();
+    }
+
+    /**
+     * The ids of the inline variables of the execution that are in the cache. The inline variables are put in the cache
+     * when their execution is loaded, so these are all inline variables of a loaded execution.
+     */
+    public List<String> getExecutionInlineVariableIds(String executionId) {
+        List<String> variableIds = new ArrayList<>();
+        for (VariableInstanceEntityImpl variable : mongoDbSession.getEntityCache().findInCache(VariableInstanceEntityImpl.class)) {
+            if (executionId.equals(variable.getExecutionId()) && variable.getTaskId() == null && isInline(variable)) {
+                variableIds.add(variable.getId());
+            }
+        }
+        return variableIds;
+    }
+
+    protected boolean isExecutionTreeEmbedded() {
+        return mongoDbSession.getMongoDbSessionFactory().isEmbeddedExecutionTreeEnabled();
+    }
+
+    protected MongoDbVariableInstanceDataManager getVariableDataManager() {
+        return (MongoDbVariableInstanceDataManager) mongoDbSession.getMongoDbSessionFactory()
+                .getDataManagerForCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES);
+    }
+
+    protected <T> void addToList(Map<String, List<T>> map, String key, T value) {
+        List<T> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    public Set<String> getInlineVariableIds() {
+        return Collections.unmodifiableSet(inlineVariableIds);
+    }
+
+}
@@ -14,6 +14,7 @@ package org.flowable.mongodb.persistence;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -23,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.bson.BsonDocument;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.flowable.common.engine.api.FlowableOptimisticLockingException;
@@ -34,17 +36,24 @@ import org.flowable.common.engine.impl.persistence.cache.CachedEntityMatcher;
 import org.flowable.common.engine.impl.persistence.cache.EntityCache;
 import org.flowable.common.engine.impl.persistence.entity.AlwaysUpdatedPersistentObject;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.engine.impl.persistence.entity.ExecutionEntityImpl;
+import org.flowable.mongodb.persistence.manager.AbstractMongoDbDataManager;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntityImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.ClientSessionOptions;
 import com.mongodb.MongoClient;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
@@ -66,6 +75,9 @@ public class MongoDbSession implements Session {
     protected Map<Class<? extends Entity>, Map<String, Entity>> deletedObjects = new HashMap<>();
     protected List<Entity> updatedObjects = new ArrayList<>();
     protected Map<String, List<Bson>> bulkDeletes = new HashMap<>();
+    protected InlineVariableSupport inlineVariableSupport;
+    protected CompactFieldNames compactFieldNames;
+    protected ShardKeys shardKeys;
 
     public MongoDbSession(MongoDbSessionFactory mongoDbSessionFactory, MongoClient mongoClient, MongoDatabase mongoDatabase, EntityCache entityCache) {
         this(mongoDbSessionFactory, mongoClient, mongoDatabase, entityCache, mongoClient.startSession(ClientSessionOptions.builder().causallyConsistent(true).build()));
@@ -81,6 +93,12 @@ public class MongoDbSession implements Session {
         this.mongoDatabase = mongoDatabase;
         this.entityCache = entityCache;
         this.clientSession = clientSession;
+
+        if (mongoDbSessionFactory.isInlineVariablesEnabled()) {
+            this.inlineVariableSupport = new InlineVariableSupport(this, mongoDbSessionFactory.getInlineVariableMaxLength());
+        }
+        this.compactFieldNames = mongoDbSessionFactory.getCompactFieldNames();
+        this.shardKeys = mongoDbSessionFactory.getShardKeys();
     }
     
     public void startTransaction() {
@@ -108,6 +126,10 @@ public class MongoDbSession implements Session {
         insertedObjects.get(clazz).put(entity.getId(), entity);
         entityCache.put(entity, false); // False -> entity is inserted, so always changed
         entity.setInserted(true);
+        
+        if (inlineVariableSupport != null) {
+            inlineVariableSupport.entityInserted(entity);
+        }
     }
     
     @Override
@@ -119,8 +141,17 @@ public class MongoDbSession implements Session {
             debugFlush();
         }
         
+        if (inlineVariableSupport != null) {
+            inlineVariableSupport.prepareFlush(insertedObjects.get(VariableInstanceEntityImpl.class), updatedObjects, deletedObjects.get(VariableInstanceEntityImpl.class));
+        }
+        if (mongoDbSessionFactory.isEmbeddedExecutionTreeEnabled()) {
+            flushExecutionTrees();
+        }
         flushInserts();
         flushUpdates();
+        if (inlineVariableSupport != null) {
+            inlineVariableSupport.flush();
+        }
         flushDeletes();
     }
 
@@ -141,7 +172,7 @@ public class MongoDbSession implements Session {
             if (!entities.isEmpty()) { // Could have 0 elements due to the optimizations before
                 List<Document> documents = entities
                     .values().stream()
-                    .map(entity -> entityMapper.toDocument(entity))
+                    .map(entity -> toDocument(entityMapper, entity))
                     .collect(Collectors.toList());
 
                 if (documents.size() == 1) {
@@ -153,40 +184,104 @@ public class MongoDbSession implements Session {
         }
     }
     
+    /**
+     * All updates of the same collection are sent in one bulk write.
+     * Changed counters are sent as $inc deltas, in the same update as the changed properties.
+     */
     protected void flushUpdates() {
 
+        Map<String, List<WriteModel<Document>>> updatesPerCollection = new LinkedHashMap<>();
         for (Entity updatedEntity : updatedObjects) {
             
             LOGGER.debug("updating: {}", updatedEntity);
 
             Class<?> entityClass = updatedEntity.getClass();
             String collectionName = mongoDbSessionFactory.getClassToCollectionsMap().get(entityClass);
-            BasicDBObject updateBasicDBObject = mongoDbSessionFactory.getDataManagerForCollection(collectionName).createUpdateObject(updatedEntity);
-            if (updateBasicDBObject != null) {
+            AbstractMongoDbDataManager<?> dataManager = mongoDbSessionFactory.getDataManagerForCollection(collectionName);
+            BasicDBObject updateBasicDBObject = dataManager.createUpdateObject(updatedEntity);
+            BasicDBObject incrementBasicDBObject = dataManager.createIncrementObject(updatedEntity);
+            if (updateBasicDBObject != null || incrementBasicDBObject != null) {
 
+                if (updateBasicDBObject == null) {
+                    updateBasicDBObject = new BasicDBObject();
+                }
                 if (updatedEntity instanceof HasRevision) {
                     updateBasicDBObject.append("revision", ((HasRevision) updatedEntity).getRevisionNext());
                 }
 
-                MongoCollection<Document> collection = getMongoDatabase().getCollection(collectionName);
-                UpdateResult updateResult = collection
-                    .updateOne(clientSession, Filters.eq("_id", updatedEntity.getId()), new Document().append("$set", updateBasicDBObject));
-                if (updateResult.getModifiedCount() == 0) {
-                    throw new FlowableOptimisticLockingException(updatedEntity + " was updated by another transaction concurrently");
+                Document update = new Document();
+                if (!updateBasicDBObject.isEmpty()) {
+                    update.append("$set", updateBasicDBObject);
+                }
+                if (incrementBasicDBObject != null) {
+                    update.append("$inc", incrementBasicDBObject);
                 }
+
+                List<WriteModel<Document>> updates = updatesPerCollection.get(collectionName);
+                if (updates == null) {
+                    updates = new ArrayList<>();
+                    updatesPerCollection.put(collectionName, updates);
+                }
+                updates.add(new UpdateOneModel<>(createIdFilter(collectionName, updatedEntity), toStoredUpdate(collectionName, update)));
             }
-            
+
+        }
+
+        for (String collectionName : updatesPerCollection.keySet()) {
+            List<WriteModel<Document>> updates = updatesPerCollection.get(collectionName);
+            BulkWriteResult result = getCollection(collectionName).bulkWrite(clientSession, updates);
+            if (result.getModifiedCount() < updates.size()) {
+                throw new FlowableOptimisticLockingException("An entity in " + collectionName + " was updated by another transaction concurrently");
+            }
+        }
+
+        for (Entity updatedEntity : updatedObjects) {
             if (updatedEntity instanceof HasRevision) {
                 ((HasRevision) updatedEntity).setRevision(((HasRevision) updatedEntity).getRevisionNext());
             }
-
         }
         updatedObjects.clear();
     }
 
+    /**
+     * Executions are not stored in their own collection when the execution tree is embedded:
+     * the changes are taken out of the regular insert/update/delete operations and written to the execution tree documents instead.
+     */
+    protected void flushExecutionTrees() {
+        Map<String, Entity> insertedExecutions = insertedObjects.remove(ExecutionEntityImpl.class);
+        Map<String, Entity> deletedExecutions = deletedObjects.remove(ExecutionEntityImpl.class);
+
+        List<Entity> updatedExecutions = new ArrayList<>();
+        Iterator<Entity> updatedObjectsIterator = updatedObjects.iterator();
+        while (updatedObjectsIterator.hasNext()) {
+            Entity updatedObject = updatedObjectsIterator.next();
+            if (updatedObject instanceof ExecutionEntityImpl) {
+                updatedExecutions.add(updatedObject);
+                updatedObjectsIterator.remove();
+            }
+        }
+
+        new ExecutionTreeWriter(this).write(
+                insertedExecutions != null ? insertedExecutions.values() : Collections.emptyList(),
+                updatedExecutions,
+                deletedExecutions != null ? deletedExecutions.values() : Collections.emptyList());
+    }
+
     public UpdateResult updateImmediately(String collection, Bson filter, BasicDBObject updateDBObject) {
         MongoCollection<Document> mongoDbCollection = getCollection(collection);
-        return mongoDbCollection.updateOne(clientSession, filter, new Document().append("$set", updateDBObject));
+        return mongoDbCollection.updateOne(clientSession, toStoredFilter(collection, filter),
+                toStoredUpdate(collection, new Document().append("$set", updateDBObject)));
+    }
+
+    /**
+     * Updates the given entity immediately when the additional filter matches.
+     * The entity is filtered on its id including the shard key (see {@link #createIdFilter(String, Entity)}), so the update is routed to one shard.
+     */
+    public UpdateResult updateImmediately(String collection, Entity entity, Bson filter, BasicDBObject updateDBObject) {
+        MongoCollection<Document> mongoDbCollection = getCollection(collection);
+        Bson idFilter = createIdFilter(collection, entity);
+        return mongoDbCollection.updateOne(clientSession, filter != null ? Filters.and(idFilter, toStoredFilter(collection, filter)) : idFilter,
+                toStoredUpdate(collection, new Document().append("$set", updateDBObject)));
     }
     
     protected void flushDeletes() {
@@ -198,9 +293,10 @@ public class MongoDbSession implements Session {
                 Map<String, ? extends Entity> entities = deletedObjects.get(clazz);
                 if (!entities.isEmpty()) {
 
-                    MongoCollection<Document> mongoDbCollection = getMongoDatabase().getCollection(mongoDbSessionFactory.getClassToCollectionsMap().get(clazz));
+                    String collectionName = mongoDbSessionFactory.getClassToCollectionsMap().get(clazz);
+                    MongoCollection<Document> mongoDbCollection = getMongoDatabase().getCollection(collectionName);
                     for (Entity entity : entities.values()) {
-                        DeleteResult deleteResult = mongoDbCollection.deleteOne(clientSession, Filters.eq("_id", entity.getId()));
+                        DeleteResult deleteResult = mongoDbCollection.deleteOne(clientSession, createIdFilter(collectionName, entity));
 
                         if (entity instanceof HasRevision && deleteResult.getDeletedCount() == 0) {
                             throw new FlowableOptimisticLockingException(entity + " was deleted by another transaction concurrently");
@@ -218,7 +314,7 @@ public class MongoDbSession implements Session {
 
                 List<Bson> deleteFilters = bulkDeletes.get(collectionName);
                 for (Bson deleteFilter : deleteFilters) {
-                    collection.deleteMany(clientSession, deleteFilter);
+                    collection.deleteMany(clientSession, toStoredFilter(collectionName, deleteFilter));
                 }
             }
         }
@@ -283,6 +379,53 @@ public class MongoDbSession implements Session {
         return (List<T>) new ArrayList<>(dbEntities);
     }
     
+    /**
+     * Finds the entities in the collection and, when the archive is queried, in the archive collection of the {@link HistoryArchiver}.
+     * Archived entities aren't put in the entity cache, as they are read-only and must never be written to the regular collection.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> findIncludingArchive(String collection, Bson bsonFilter) {
+        List<T> entities = find(collection, bsonFilter);
+        HistoryArchiver historyArchiver = mongoDbSessionFactory.getHistoryArchiver();
+        if (historyArchiver == null || !historyArchiver.isArchiveQueried()) {
+            return entities;
+        }
+
+        // A batch that is copied but not yet deleted (when not in a transaction) is in both collections
+        Set<String> ids = new HashSet<>();
+        for (T entity : entities) {
+            ids.add(((Entity) entity).getId());
+        }
+
+        EntityToDocumentMapper<? extends Entity> entityMapper = mongoDbSessionFactory.getCollectionToMapper().get(collection);
+        FindIterable<Document> documents = bsonFilter != null
+                ? historyArchiver.getArchiveCollection(collection).find(clientSession, toStoredFilter(collection, bsonFilter))
+                : historyArchiver.getArchiveCollection(collection).find(clientSession);
+        List<T> result = new ArrayList<>(entities);
+        for (Document document : documents) {
+            Entity entity = fromDocument(entityMapper, document);
+            if (ids.add(entity.getId())) {
+                result.add((T) entity);
+            }
+        }
+        return result;
+    }
+
+    public long countIncludingArchive(String collection, Bson bsonFilter) {
+        long count = count(collection, bsonFilter);
+        HistoryArchiver historyArchiver = mongoDbSessionFactory.getHistoryArchiver();
+        if (historyArchiver == null || !historyArchiver.isArchiveQueried()) {
+            return count;
+        }
+
+        MongoCollection<Document> archiveCollection = historyArchiver.getArchiveCollection(collection);
+        if (bsonFilter != null) {
+            return count + archiveCollection.countDocuments(clientSession, toStoredFilter(collection, bsonFilter));
+        } else {
+            return count + archiveCollection.countDocuments(clientSession);
+        }
+    }
+
     public <T extends Entity> List<T> findFromCache(CachedEntityMatcher<T> entityMatcher, Object parameter, Class<? extends Entity> entityClass) {
         Collection<CachedEntity> cachedObjects = getEntityCache().findInCacheAsCachedObjects(entityClass);
 
@@ -328,7 +471,7 @@ public class MongoDbSession implements Session {
             Document document = iterator.next();
             if (document != null) {
                 EntityToDocumentMapper<? extends Entity> entityMapper = mongoDbSessionFactory.getCollectionToMapper().get(collection);
-                return (T) entityMapper.fromDocument(document);
+                return (T) fromDocument(entityMapper, document);
             }
         }
         return null;
@@ -339,22 +482,63 @@ public class MongoDbSession implements Session {
         EntityToDocumentMapper<? extends Entity> entityMapper = mongoDbSessionFactory.getCollectionToMapper().get(collection);
         List<Object> entities = new ArrayList<>();
         for (Document document : documents) {
-            entities.add((T) entityMapper.fromDocument(document));
+            entities.add((T) fromDocument(entityMapper, document));
         }
         
         return cacheLoadOrStore(entities);
     }
     
+    /**
+     * Maps documents that are not fetched directly from the collection of the entity (e.g. embedded subdocuments) and stores them in the cache.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> mapToEntities(Class<? extends Entity> entityClass, Iterable<Document> documents) {
+        EntityToDocumentMapper<? extends Entity> entityMapper = mongoDbSessionFactory.getMapperForEntityClass(entityClass);
+        List<Object> entities = new ArrayList<>();
+        for (Document document : documents) {
+            entities.add(fromDocument(entityMapper, document));
+        }
+
+        return cacheLoadOrStore(entities);
+    }
+    
     public List<Entity> mapToEntitiesType(String collection, FindIterable<Document> documents) {
         EntityToDocumentMapper<? extends Entity> entityMapper = mongoDbSessionFactory.getCollectionToMapper().get(collection);
         List<Object> entities = new ArrayList<>();
         for (Document document : documents) {
-            entities.add(entityMapper.fromDocument(document));
+            entities.add(fromDocument(entityMapper, document));
         }
         
         return cacheLoadOrStore(entities);
     }
     
+    /**
+     * All documents are mapped to entities through this method, so that data stored inside the document of another entity
+     * (e.g. inline variables) gets loaded too.
+     */
+    public Entity fromDocument(EntityToDocumentMapper<? extends Entity> entityMapper, Document document) {
+        if (compactFieldNames != null) {
+            document = compactFieldNames.fromStoredDocument(mongoDbSessionFactory.getCollectionForMapper(entityMapper), document);
+        }
+        Entity entity = entityMapper.fromDocument(document);
+        if (inlineVariableSupport != null) {
+            inlineVariableSupport.documentLoaded(entity, document);
+        }
+        return entity;
+    }
+    
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Document toDocument(EntityToDocumentMapper entityMapper, Entity entity) {
+        Document document = entityMapper.toDocument(entity);
+        if (inlineVariableSupport != null) {
+            inlineVariableSupport.enrichOwnerDocument(entity, document);
+        }
+        if (compactFieldNames != null) {
+            document = compactFieldNames.toStoredDocument(mongoDbSessionFactory.getCollectionForMapper(entityMapper), document);
+        }
+        return document;
+    }
+    
     public FindIterable<Document> findDocuments(String collection, Bson bsonFilter) {
         return findDocuments(collection, bsonFilter, null);
     }
@@ -364,16 +548,17 @@ public class MongoDbSession implements Session {
     }
     
     public FindIterable<Document> findDocuments(String collection, Bson bsonFilter, Bson bsonSort, int limit) {
+        recordQueryShape(collection, bsonFilter, bsonSort);
         MongoCollection<Document> mongoDbCollection = getCollection(collection);
         FindIterable<Document> documentResult = null;
         if (bsonFilter != null) {
-            documentResult = mongoDbCollection.find(clientSession, bsonFilter);
+            documentResult = mongoDbCollection.find(clientSession, toStoredFilter(collection, bsonFilter));
         } else {
             documentResult = mongoDbCollection.find(clientSession);
         }
         
         if (bsonSort != null) {
-            documentResult = documentResult.sort(bsonSort);
+            documentResult = documentResult.sort(toStoredKeys(collection, bsonSort));
         }
         
         if (limit > 0) {
@@ -397,7 +582,7 @@ public class MongoDbSession implements Session {
         }
         
         EntityToDocumentMapper<? extends Entity> entityMapper = mongoDbSessionFactory.getCollectionToMapper().get(collection);
-        entity = (T) entityMapper.fromDocument(document);
+        entity = (T) fromDocument(entityMapper, document);
         
         entityCache.put((Entity) entity, true); // true -> store state so we can see later if it is updated later on
         return entity;
@@ -413,17 +598,40 @@ public class MongoDbSession implements Session {
         return null;
     }
     
+    public AggregateIterable<Document> aggregate(String collection, List<? extends Bson> pipeline) {
+        if (mongoDbSessionFactory.getQueryShapeRecorder() != null) {
+            recordPipelineQueryShape(collection, pipeline);
+        }
+        if (compactFieldNames != null) {
+            return getCollection(collection).aggregate(clientSession, compactFieldNames.toStoredPipeline(collection, pipeline));
+        }
+        return getCollection(collection).aggregate(clientSession, pipeline);
+    }
+    
+    public List<String> distinct(String collection, String fieldName, Bson bsonFilter) {
+        List<String> values = new ArrayList<>();
+        for (String value : getCollection(collection).distinct(clientSession,
+                toStoredFieldName(collection, fieldName), toStoredFilter(collection, bsonFilter), String.class)) {
+            values.add(value);
+        }
+        return values;
+    }
+    
     public long count(String collection, Bson bsonFilter) {
+        recordQueryShape(collection, bsonFilter, null);
         MongoCollection<Document> mongoDbCollection = getCollection(collection);
         if (bsonFilter != null) {
-            return mongoDbCollection.countDocuments(clientSession, bsonFilter);
+            return mongoDbCollection.countDocuments(clientSession, toStoredFilter(collection, bsonFilter));
         } else {
             return mongoDbCollection.countDocuments(clientSession);
         }
     }
     
     public void update(Entity entity) {
-        entityCache.put(entity, false); // false -> we don't store state, meaning it will always be seen as changed
+        // A cached entity keeps its original state, as the $inc deltas of its counters are computed against it
+        if (entityCache.findInCache(entity.getClass(), entity.getId()) != entity) {
+            entityCache.put(entity, false); // false -> we don't store state, meaning it will always be seen as changed
+        }
         entity.setUpdated(true);
     }
     
@@ -568,7 +776,66 @@ public class MongoDbSession implements Session {
         return entity;
     }
     
-    protected MongoCollection<Document> getCollection(String collection) {
+    protected void recordQueryShape(String collection, Bson filter, Bson sort) {
+        QueryShapeRecorder queryShapeRecorder = mongoDbSessionFactory.getQueryShapeRecorder();
+        if (queryShapeRecorder != null) {
+            queryShapeRecorder.record(collection, filter, sort);
+        }
+    }
+
+    /**
+     * Records the $match and $sort at the start of a pipeline, which are the stages that can use an index.
+     */
+    protected void recordPipelineQueryShape(String collection, List<? extends Bson> pipeline) {
+        Bson filter = null;
+        Bson sort = null;
+        for (Bson stage : pipeline) {
+            BsonDocument stageDocument = stage.toBsonDocument(BsonDocument.class, mongoDatabase.getCodecRegistry());
+            if (filter == null && sort == null && stageDocument.containsKey("$match")) {
+                filter = stageDocument.getDocument("$match");
+            } else if (sort == null && stageDocument.containsKey("$sort")) {
+                sort = stageDocument.getDocument("$sort");
+            } else {
+                break;
+            }
+        }
+        recordQueryShape(collection, filter, sort);
+    }
+
+    /**
+     * Translates a document to the field names it's stored with (see {@link CompactFieldNames}).
+     */
+    public Document toStoredDocument(String collection, Document document) {
+        return compactFieldNames != null ? compactFieldNames.toStoredDocument(collection, document) : document;
+    }
+
+    /**
+     * The filter on the id of an entity that is updated or deleted, including the shard key when the database is sharded (see {@link ShardKeys}).
+     */
+    protected Bson createIdFilter(String collection, Entity entity) {
+        if (shardKeys == null) {
+            return Filters.eq("_id", entity.getId());
+        }
+        return toStoredFilter(collection, shardKeys.createIdFilter(collection, entity));
+    }
+    
+    public Bson toStoredFilter(String collection, Bson filter) {
+        return compactFieldNames != null ? compactFieldNames.toStoredFilter(collection, filter) : filter;
+    }
+
+    public Bson toStoredKeys(String collection, Bson keys) {
+        return compactFieldNames != null ? compactFieldNames.toStoredKeys(collection, keys) : keys;
+    }
+
+    public Document toStoredUpdate(String collection, Document update) {
+        return compactFieldNames != null ? compactFieldNames.toStoredUpdate(collection, update) : update;
+    }
+
+    public String toStoredFieldName(String collection, String fieldName) {
+        return compactFieldNames != null ? compactFieldNames.toStoredFieldName(collection, fieldName) : fieldName;
+    }
+
+    public MongoCollection<Document> getCollection(String collection) {
         return getMongoDatabase().getCollection(collection);
     }
 
@@ -596,6 +863,10 @@ public class MongoDbSession implements Session {
         this.mongoDatabase = mongoDatabase;
     }
 
+    public InlineVariableSupport getInlineVariableSupport() {
+        return inlineVariableSupport;
+    }
+
     public ClientSession getClientSession() {
         return clientSession;
     }
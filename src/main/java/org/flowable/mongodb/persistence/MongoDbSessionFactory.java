@@ -14,7 +14,10 @@ package org.flowable.mongodb.persistence;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.flowable.common.engine.impl.context.Context;
 import org.flowable.common.engine.impl.interceptor.CommandContext;
@@ -30,15 +33,16 @@ import org.flowable.engine.impl.persistence.entity.HistoricActivityInstanceEntit
 import org.flowable.engine.impl.persistence.entity.HistoricDetailEntityImpl;
 import org.flowable.engine.impl.persistence.entity.HistoricProcessInstanceEntityImpl;
 import org.flowable.engine.impl.persistence.entity.MessageEventSubscriptionEntityImpl;
-import org.flowable.engine.impl.persistence.entity.ResourceEntityImpl;
 import org.flowable.engine.impl.persistence.entity.SignalEventSubscriptionEntityImpl;
 import org.flowable.identitylink.service.impl.persistence.entity.HistoricIdentityLinkEntityImpl;
 import org.flowable.identitylink.service.impl.persistence.entity.IdentityLinkEntityImpl;
-import org.flowable.job.service.impl.persistence.entity.JobByteArrayEntityImpl;
 import org.flowable.job.service.impl.persistence.entity.JobEntityImpl;
 import org.flowable.job.service.impl.persistence.entity.TimerJobEntityImpl;
+import org.flowable.mongodb.persistence.compression.ByteArrayCompression;
+import org.flowable.mongodb.persistence.entity.MongoDbJobByteArrayEntityImpl;
 import org.flowable.mongodb.persistence.entity.MongoDbModelEntityImpl;
 import org.flowable.mongodb.persistence.entity.MongoDbProcessDefinitionEntityImpl;
+import org.flowable.mongodb.persistence.entity.MongoDbResourceEntityImpl;
 import org.flowable.mongodb.persistence.manager.AbstractMongoDbDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbCommentDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbDeploymentDataManager;
@@ -59,6 +63,7 @@ import org.flowable.mongodb.persistence.manager.MongoDbResourceDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbTimerJobDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.mongodb.persistence.mapper.AbstractEntityToDocumentMapper;
 import org.flowable.mongodb.persistence.mapper.CommentEntityMapper;
 import org.flowable.mongodb.persistence.mapper.DeploymentEntityMapper;
 import org.flowable.mongodb.persistence.mapper.EventSubscriptionEntityMapper;
@@ -100,6 +105,19 @@ public class MongoDbSessionFactory implements SessionFactory {
     protected Map<String, EntityToDocumentMapper<? extends Entity>> collectionToMapperMap = new HashMap<>();
     protected Map<String, Class<? extends Entity>> collectionToClassMap = new HashMap<>();
     protected Map<String, AbstractMongoDbDataManager> collectionToDataManager = new HashMap<>();
+    protected Map<EntityToDocumentMapper<? extends Entity>, String> mapperToCollectionMap = new IdentityHashMap<>();
+
+    protected boolean embeddedExecutionTreeEnabled;
+    protected boolean inlineVariablesEnabled;
+    protected int inlineVariableMaxLength = 255;
+    protected ProcessInstanceLeaseManager processInstanceLeaseManager;
+    protected ProcessDefinitionDocumentCache processDefinitionDocumentCache;
+    protected GridFsByteArrayStore gridFsByteArrayStore;
+    protected ByteArrayCompression byteArrayCompression;
+    protected CompactFieldNames compactFieldNames;
+    protected ShardKeys shardKeys;
+    protected HistoryArchiver historyArchiver;
+    protected QueryShapeRecorder queryShapeRecorder;
 
     public MongoDbSessionFactory(MongoClient mongoClient, MongoDatabase mongoDatabase) {
         this(mongoClient, mongoDatabase, null);
@@ -115,7 +133,7 @@ public class MongoDbSessionFactory implements SessionFactory {
 
     protected void initDefaultMappers() {
         registerEntityMapper(DeploymentEntityImpl.class, new DeploymentEntityMapper(), MongoDbDeploymentDataManager.COLLECTION_DEPLOYMENT);
-        registerEntityMapper(ResourceEntityImpl.class, new ResourceEntityMapper(), MongoDbResourceDataManager.COLLECTION_BYTE_ARRAY);
+        registerEntityMapper(MongoDbResourceEntityImpl.class, new ResourceEntityMapper(), MongoDbResourceDataManager.COLLECTION_BYTE_ARRAY);
         registerEntityMapper(MongoDbProcessDefinitionEntityImpl.class, new ProcessDefinitionEntityMapper(), MongoDbProcessDefinitionDataManager.COLLECTION_PROCESS_DEFINITIONS);
         registerEntityMapper(ExecutionEntityImpl.class, new ExecutionEntityMapper(), MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
         registerEntityMapper(SignalEventSubscriptionEntityImpl.class, new EventSubscriptionEntityMapper(), MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION);
@@ -131,7 +149,7 @@ public class MongoDbSessionFactory implements SessionFactory {
 
         registerEntityMapper(JobEntityImpl.class, new JobEntityMapper(), MongoDbJobDataManager.COLLECTION_JOBS);
         registerEntityMapper(TimerJobEntityImpl.class, new TimerJobEntityMapper(), MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS);
-        registerEntityMapper(JobByteArrayEntityImpl.class,new JobByteArrayEntityMapper(), MongoDbJobByteArrayDataManager.COLLECTION_JOB_BYTE_ARRAY);
+        registerEntityMapper(MongoDbJobByteArrayEntityImpl.class,new JobByteArrayEntityMapper(), MongoDbJobByteArrayDataManager.COLLECTION_JOB_BYTE_ARRAY);
 
         registerEntityMapper(HistoricProcessInstanceEntityImpl.class, new HistoricProcessInstanceEntityMapper(), MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES);
         registerEntityMapper(HistoricActivityInstanceEntityImpl.class, new HistoricActivityInstanceEntityMapper(), MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES);
@@ -156,9 +174,13 @@ public class MongoDbSessionFactory implements SessionFactory {
 
     public void registerEntityMapper(Class<? extends Entity> clazz, EntityToDocumentMapper<? extends Entity> mapper, String collection) {
         entityMappers.put(clazz, mapper);
+        if (byteArrayCompression != null && mapper instanceof AbstractEntityToDocumentMapper) {
+            ((AbstractEntityToDocumentMapper<?>) mapper).setByteArrayCompression(byteArrayCompression);
+        }
         classToCollectionMap.put(clazz, collection);
         collectionToClassMap.put(collection, clazz);
         collectionToMapperMap.put(collection, mapper);
+        mapperToCollectionMap.put(mapper, collection);
     }
 
     public void registerDataManager(String collection, AbstractMongoDbDataManager dataManager) {
@@ -182,7 +204,23 @@ public class MongoDbSessionFactory implements SessionFactory {
     }
 
     public Collection<String> getCollectionNames() {
-        return classToCollectionMap.values();
+        boolean gridFsEnabled = gridFsByteArrayStore != null && gridFsByteArrayStore.isEnabled();
+        if (!embeddedExecutionTreeEnabled && processInstanceLeaseManager == null && !gridFsEnabled) {
+            return classToCollectionMap.values();
+        }
+
+        Set<String> collectionNames = new LinkedHashSet<>(classToCollectionMap.values());
+        if (embeddedExecutionTreeEnabled) {
+            collectionNames.add(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES);
+        }
+        if (processInstanceLeaseManager != null) {
+            collectionNames.add(ProcessInstanceLeaseManager.COLLECTION_PROCESS_INSTANCE_LOCKS);
+        }
+        if (gridFsEnabled) {
+            collectionNames.add(GridFsByteArrayStore.COLLECTION_FILES);
+            collectionNames.add(GridFsByteArrayStore.COLLECTION_CHUNKS);
+        }
+        return collectionNames;
     }
 
     public String getCollectionForEntityClass(Class<? extends Entity> clazz) {
@@ -209,6 +247,10 @@ public class MongoDbSessionFactory implements SessionFactory {
         this.collectionToMapperMap = collectionToMapper;
     }
 
+    public String getCollectionForMapper(EntityToDocumentMapper<? extends Entity> mapper) {
+        return mapperToCollectionMap.get(mapper);
+    }
+
     public Class<? extends Entity> getClassForCollection(String collection) {
         return collectionToClassMap.get(collection);
     }
@@ -237,4 +279,100 @@ public class MongoDbSessionFactory implements SessionFactory {
         this.entityMappers = entityMappers;
     }
 
+    public boolean isEmbeddedExecutionTreeEnabled() {
+        return embeddedExecutionTreeEnabled;
+    }
+
+    public void setEmbeddedExecutionTreeEnabled(boolean embeddedExecutionTreeEnabled) {
+        this.embeddedExecutionTreeEnabled = embeddedExecutionTreeEnabled;
+    }
+
+    public boolean isInlineVariablesEnabled() {
+        return inlineVariablesEnabled;
+    }
+
+    public void setInlineVariablesEnabled(boolean inlineVariablesEnabled) {
+        this.inlineVariablesEnabled = inlineVariablesEnabled;
+    }
+
+    public int getInlineVariableMaxLength() {
+        return inlineVariableMaxLength;
+    }
+
+    public void setInlineVariableMaxLength(int inlineVariableMaxLength) {
+        this.inlineVariableMaxLength = inlineVariableMaxLength;
+    }
+
+    public ProcessInstanceLeaseManager getProcessInstanceLeaseManager() {
+        return processInstanceLeaseManager;
+    }
+
+    public void setProcessInstanceLeaseManager(ProcessInstanceLeaseManager processInstanceLeaseManager) {
+        this.processInstanceLeaseManager = processInstanceLeaseManager;
+    }
+
+    public ByteArrayCompression getByteArrayCompression() {
+        return byteArrayCompression;
+    }
+
+    /**
+     * Sets the compression used by all registered (and later registered) mappers for their byte array fields.
+     */
+    public void setByteArrayCompression(ByteArrayCompression byteArrayCompression) {
+        this.byteArrayCompression = byteArrayCompression;
+        for (EntityToDocumentMapper<? extends Entity> mapper : entityMappers.values()) {
+            if (mapper instanceof AbstractEntityToDocumentMapper) {
+                ((AbstractEntityToDocumentMapper<?>) mapper).setByteArrayCompression(byteArrayCompression);
+            }
+        }
+    }
+
+    public GridFsByteArrayStore getGridFsByteArrayStore() {
+        return gridFsByteArrayStore;
+    }
+
+    public void setGridFsByteArrayStore(GridFsByteArrayStore gridFsByteArrayStore) {
+        this.gridFsByteArrayStore = gridFsByteArrayStore;
+    }
+
+    public ProcessDefinitionDocumentCache getProcessDefinitionDocumentCache() {
+        return processDefinitionDocumentCache;
+    }
+
+    public void setProcessDefinitionDocumentCache(ProcessDefinitionDocumentCache processDefinitionDocumentCache) {
+        this.processDefinitionDocumentCache = processDefinitionDocumentCache;
+    }
+
+    public CompactFieldNames getCompactFieldNames() {
+        return compactFieldNames;
+    }
+
+    public void setCompactFieldNames(CompactFieldNames compactFieldNames) {
+        this.compactFieldNames = compactFieldNames;
+    }
+
+    public ShardKeys getShardKeys() {
+        return shardKeys;
+    }
+
+    public void setShardKeys(ShardKeys shardKeys) {
+        this.shardKeys = shardKeys;
+    }
+
+    public HistoryArchiver getHistoryArchiver() {
+        return historyArchiver;
+    }
+
+    public void setHistoryArchiver(HistoryArchiver historyArchiver) {
+        this.historyArchiver = historyArchiver;
+    }
+
+    public QueryShapeRecorder getQueryShapeRecorder() {
+        return queryShapeRecorder;
+    }
+
+    public void setQueryShapeRecorder(QueryShapeRecorder queryShapeRecorder) {
+        this.queryShapeRecorder = queryShapeRecorder;
+    }
+
 }
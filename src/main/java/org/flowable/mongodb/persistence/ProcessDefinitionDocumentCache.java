@@ -0,0 +1,207 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.flowable.mongodb.persistence.manager.MongoDbProcessDefinitionDataManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * Node-wide cache of process definition documents, shared by all commands (contrary to the entity cache, which is per command).
+ *
+ * The documents are cached, not the entities: every command maps its own entity instance from the cached document,
+ * so changes to an entity in one command are never visible to other commands.
+ *
+ * The cache watches the process definitions collection with a change stream.
+ * Every change (on any node) evicts the changed process definition and all 'latest version' mappings.
+ * When the change stream isn't available (e.g. when not connected to a replica set),
+ * nothing is cached, as changes of other nodes wouldn't be noticed.
+ *
+ * @author Joram Barrez
+ */
+public class ProcessDefinitionDocumentCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessDefinitionDocumentCache.class);
+
+    protected MongoDatabase mongoDatabase;
+    protected Map<String, Document> documents;
+    protected Map<String, String> latestProcessDefinitionIds = new HashMap<>();
+
+    /** Incremented on every invalidation, to avoid caching documents that were read before the invalidation */
+    protected long generation;
+
+    protected volatile boolean watching;
+    protected volatile boolean running;
+    protected Thread watchThread;
+    protected long retryWaitTime = 5000L;
+
+    public ProcessDefinitionDocumentCache(MongoDatabase mongoDatabase, final int limit) {
+        this.mongoDatabase = mongoDatabase;
+        this.documents = new LinkedHashMap<String, Document>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                return size() > limit;
+            }
+
+        };
+    }
+
+    public synchronized Document get(String processDefinitionId) {
+        return watching ? documents.get(processDefinitionId) : null;
+    }
+
+    public synchronized String getLatestProcessDefinitionId(String key, String tenantId) {
+        return watching ? latestProcessDefinitionIds.get(createLatestKey(key, tenantId)) : null;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a document that was read when the cache was at the given generation.
+     * The document is ignored when the cache was invalidated in the meantime, as the document could be outdated.
+     */
+    public synchronized void put(Document document, long readGeneration) {
+        if (watching && readGeneration == generation) {
+            documents.put(document.getString("_id"), document);
+        }
+    }
+
+    public synchronized void putLatest(String key, String tenantId, Document document, long readGeneration) {
+        if (watching && readGeneration == generation) {
+            documents.put(document.getString("_id"), document);
+            latestProcessDefinitionIds.put(createLatestKey(key, tenantId), document.getString("_id"));
+        }
+    }
+
+    public synchronized void invalidate(String processDefinitionId) {
+        generation++;
+        if (processDefinitionId != null) {
+            documents.remove(processDefinitionId);
+        }
+
+        // A new version or a deleted deployment can change the latest version of any key
+        latestProcessDefinitionIds.clear();
+    }
+
+    public synchronized void clear() {
+        generation++;
+        documents.clear();
+        latestProcessDefinitionIds.clear();
+    }
+
+    public void start() {
+        running = true;
+        watchThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                watch();
+            }
+
+        }, "flowable-process-definition-cache-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+        watching = false;
+        clear();
+    }
+
+    protected void watch() {
+        while (running) {
+            try (MongoCursor<ChangeStreamDocument<Document>> cursor = mongoDatabase.getCollection(MongoDbProcessDefinitionDataManager.COLLECTION_PROCESS_DEFINITIONS)
+                    .watch().maxAwaitTime(1, TimeUnit.SECONDS).iterator()) {
+
+                // Anything cached before the change stream was opened can be outdated
+                clear();
+                watching = true;
+                LOGGER.debug("Watching process definition changes");
+
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change != null) {
+                        invalidate(getProcessDefinitionId(change.getDocumentKey()));
+                    }
+                }
+
+            } catch (MongoException e) {
+                watching = false;
+                clear();
+                if (running) {
+                    LOGGER.warn("Could not watch process definition changes, process definitions are not cached", e);
+                    try {
+                        Thread.sleep(retryWaitTime);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    protected String getProcessDefinitionId(BsonDocument documentKey) {
+        if (documentKey != null) {
+            BsonValue id = documentKey.get("_id");
+            if (id != null && id.isString()) {
+                return id.asString().getValue();
+            }
+        }
+        return null;
+    }
+
+    protected String createLatestKey(String key, String tenantId) {
+        return tenantId != null ? key + '\u0000' + tenantId : key;
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    public boolean isWatching() {
+        return watching;
+    }
+
+    public long getRetryWaitTime() {
+        return retryWaitTime;
+    }
+
+    public void setRetryWaitTime(long retryWaitTime) {
+        this.retryWaitTime = retryWaitTime;
+    }
+
+}
@@ -0,0 +1,130 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.api.FlowableOptimisticLockingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Manages the process instance locks of exclusive async jobs as leases in a separate collection.
+ *
+ * Contrary to the lock time on the process instance execution, a lease is written outside of the transaction of the job:
+ * it's visible to other engines immediately, it doesn't cause write conflicts with the process instance
+ * and it can't be left behind by a transaction that fails to commit.
+ *
+ * A lease document looks like:
+ *
+ * <pre>
+ * {
+ *   _id: processInstanceId,
+ *   owner: id of the engine node holding the lease,
+ *   generation: incremented on every acquire,
+ *   lockTime: time the lease expires
+ * }
+ * </pre>
+ *
+ * Expired leases can be taken over immediately and are removed by a TTL index on the lockTime.
+ * The generation only makes sure a node doesn't release a lease that was taken over after it expired:
+ * it isn't checked by the job transaction, so it doesn't fence the writes of a node whose lease expired while the job was running.
+ *
+ * @author Joram Barrez
+ */
+public class ProcessInstanceLeaseManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessInstanceLeaseManager.class);
+
+    public static final String COLLECTION_PROCESS_INSTANCE_LOCKS = "processInstanceLocks";
+
+    protected MongoDatabase mongoDatabase;
+    protected String owner = UUID.randomUUID().toString();
+
+    /** The generations of the leases held by this node, used to only release a lease that wasn't taken over */
+    protected Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    public ProcessInstanceLeaseManager(MongoDatabase mongoDatabase) {
+        this.mongoDatabase = mongoDatabase;
+    }
+
+    /**
+     * Acquires the lease on the process instance until the lock time.
+     * A lease that is held by another engine and that hasn't expired before the expiration time can't be acquired.
+     */
+    public void acquireLease(String processInstanceId, Date lockTime, Date expirationTime) {
+        Bson filter = Filters.and(Filters.eq("_id", processInstanceId), Filters.lt("lockTime", expirationTime));
+        Bson update = Updates.combine(Updates.set("owner", owner), Updates.set("lockTime", lockTime), Updates.inc("generation", 1L));
+
+        try {
+            // No client session: the lease is committed independently of the job transaction
+            Document lease = getLeaseCollection().findOneAndUpdate(filter, update,
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+            generations.put(processInstanceId, lease.getLong("generation"));
+            LOGGER.debug("Acquired lease on process instance {} with generation {}", processInstanceId, lease.getLong("generation"));
+
+        } catch (MongoCommandException e) {
+            // The upsert fails with a duplicate key when a non-expired lease exists
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) {
+                throw new FlowableOptimisticLockingException("Could not lock process instance");
+            }
+            throw e;
+
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                throw new FlowableOptimisticLockingException("Could not lock process instance");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the lease on the process instance, if it's still held by this node.
+     */
+    public void releaseLease(String processInstanceId) {
+        Long generation = generations.remove(processInstanceId);
+        Bson filter = Filters.and(Filters.eq("_id", processInstanceId), Filters.eq("owner", owner));
+        if (generation != null) {
+            filter = Filters.and(filter, Filters.eq("generation", generation));
+        }
+        getLeaseCollection().deleteOne(filter);
+    }
+
+    protected MongoCollection<Document> getLeaseCollection() {
+        return mongoDatabase.getCollection(COLLECTION_PROCESS_INSTANCE_LOCKS);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+}
@@ -0,0 +1,194 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+/**
+ * Records the shapes of the queries executed through the {@link MongoDbSession}:
+ * the fields used in equality conditions, range conditions and the sort of a query on a collection, without the values.
+ *
+ * The recorded shapes are analyzed by the {@link org.flowable.mongodb.schema.IndexAdvisor}.
+ * Field names are recorded as used by the data managers (i.e. not the compact field names).
+ *
+ * @author Joram Barrez
+ */
+public class QueryShapeRecorder {
+
+    protected CodecRegistry codecRegistry;
+    protected int maxShapes = 1000;
+    protected ConcurrentMap<String, QueryShape> shapes = new ConcurrentHashMap<>();
+
+    public QueryShapeRecorder(CodecRegistry codecRegistry) {
+        this.codecRegistry = codecRegistry;
+    }
+
+    public void record(String collection, Bson filter, Bson sort) {
+        BsonDocument filterDocument = filter != null ? filter.toBsonDocument(BsonDocument.class, codecRegistry) : new BsonDocument();
+        BsonDocument sortDocument = sort != null ? sort.toBsonDocument(BsonDocument.class, codecRegistry) : new BsonDocument();
+
+        Set<String> equalityFields = new TreeSet<>();
+        Set<String> rangeFields = new TreeSet<>();
+        collectFields(filterDocument, equalityFields, rangeFields);
+        rangeFields.removeAll(equalityFields);
+
+        String key = collection + '|' + equalityFields + '|' + rangeFields + '|' + sortDocument.toJson();
+        QueryShape shape = shapes.get(key);
+        if (shape == null) {
+            if (shapes.size() >= maxShapes) {
+                return;
+            }
+            shape = new QueryShape(collection, new ArrayList<>(equalityFields), new ArrayList<>(rangeFields), sortDocument, filterDocument);
+            QueryShape existingShape = shapes.putIfAbsent(key, shape);
+            if (existingShape != null) {
+                shape = existingShape;
+            }
+        }
+        shape.increment();
+    }
+
+    protected void collectFields(BsonDocument filter, Set<String> equalityFields, Set<String> rangeFields) {
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            BsonValue value = entry.getValue();
+            if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+                for (BsonValue nestedFilter : value.asArray()) {
+                    if (nestedFilter.isDocument()) {
+                        collectFields(nestedFilter.asDocument(), equalityFields, rangeFields);
+                    }
+                }
+
+            } else if (!key.startsWith("$")) {
+                if (isRangeCondition(value)) {
+                    rangeFields.add(key);
+                } else {
+                    equalityFields.add(key);
+                }
+            }
+        }
+    }
+
+    protected boolean isRangeCondition(BsonValue value) {
+        if (value.isRegularExpression()) {
+            return true;
+        }
+        if (value.isDocument() && !value.asDocument().isEmpty()) {
+            String operator = value.asDocument().getFirstKey();
+            return operator.startsWith("$") && !"$eq".equals(operator) && !"$in".equals(operator) && !"$elemMatch".equals(operator);
+        }
+        return false;
+    }
+
+    public Collection<QueryShape> getShapes() {
+        return shapes.values();
+    }
+
+    public void clear() {
+        shapes.clear();
+    }
+
+    public int getMaxShapes() {
+        return maxShapes;
+    }
+
+    public void setMaxShapes(int maxShapes) {
+        this.maxShapes = maxShapes;
+    }
+
+    public static class QueryShape {
+
+        protected String collection;
+        protected List<String> equalityFields;
+        protected List<String> rangeFields;
+        protected BsonDocument sort;
+        protected BsonDocument sampleFilter;
+        protected long count;
+
+        public QueryShape(String collection, List<String> equalityFields, List<String> rangeFields, BsonDocument sort, BsonDocument sampleFilter) {
+            this.collection = collection;
+            this.equalityFields = equalityFields;
+            this.rangeFields = rangeFields;
+            this.sort = sort;
+            this.sampleFilter = sampleFilter;
+        }
+
+        protected synchronized void increment() {
+            count++;
+        }
+
+        /**
+         * The index that supports this shape best: equality fields first, then the sort fields and then the range fields.
+         */
+        public BsonDocument getIndexKeys() {
+            BsonDocument keys = new BsonDocument();
+            for (String field : equalityFields) {
+                keys.put(field, new BsonInt32(1));
+            }
+            for (Map.Entry<String, BsonValue> sortField : sort.entrySet()) {
+                if (!keys.containsKey(sortField.getKey())) {
+                    keys.put(sortField.getKey(), sortField.getValue());
+                }
+            }
+            for (String field : rangeFields) {
+                if (!keys.containsKey(field)) {
+                    keys.put(field, new BsonInt32(1));
+                }
+            }
+            return keys;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        public List<String> getEqualityFields() {
+            return equalityFields;
+        }
+
+        public List<String> getRangeFields() {
+            return rangeFields;
+        }
+
+        public BsonDocument getSort() {
+            return sort;
+        }
+
+        public BsonDocument getSampleFilter() {
+            return sampleFilter;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return collection + " " + getIndexKeys().toJson() + " (" + getCount() + " times)";
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-wide cache of the bytes of deployment resources (BPMN xml, diagrams, ...), keyed by deployment id and resource name.
+ *
+ * The bytes are kept off-heap in direct {@link ByteBuffer}s, so that a large number of deployments doesn't grow the heap.
+ * The least recently used resources are evicted when the total size exceeds the maximum size.
+ *
+ * Resources of a deployment never change, so no invalidation is needed: deleted deployments are evicted locally
+ * and on other nodes the entries are eventually evicted as they're not used anymore.
+ *
+ * @author Joram Barrez
+ */
+public class ResourceBytesCache {
+
+    protected long maxSize;
+    protected long size;
+    protected Map<String, ByteBuffer> buffers = new LinkedHashMap<>(16, 0.75f, true);
+
+    public ResourceBytesCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a copy of the cached bytes, or null when the resource isn't cached.
+     */
+    public synchronized byte[] get(String deploymentId, String resourceName) {
+        ByteBuffer buffer = buffers.get(createKey(deploymentId, resourceName));
+        if (buffer == null) {
+            return null;
+        }
+
+        byte[] bytes = new byte[buffer.capacity()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public synchronized void put(String deploymentId, String resourceName, byte[] bytes) {
+        if (bytes == null || bytes.length > maxSize) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+
+        ByteBuffer previousBuffer = buffers.put(createKey(deploymentId, resourceName), buffer);
+        if (previousBuffer != null) {
+            size -= previousBuffer.capacity();
+        }
+        size += bytes.length;
+
+        Iterator<ByteBuffer> iterator = buffers.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().capacity();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void evictDeployment(String deploymentId) {
+        String prefix = deploymentId + "/";
+        Iterator<Map.Entry<String, ByteBuffer>> iterator = buffers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                size -= entry.getValue().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        buffers.clear();
+        size = 0;
+    }
+
+    protected String createKey(String deploymentId, String resourceName) {
+        // Deployment ids don't contain a '/', resource names can
+        return deploymentId + "/" + resourceName;
+    }
+
+    public synchronized int getResourceCount() {
+        return buffers.size();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+}
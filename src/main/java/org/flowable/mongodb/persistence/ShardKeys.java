@@ -0,0 +1,154 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.api.FlowableIllegalArgumentException;
+import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.engine.impl.persistence.entity.EventSubscriptionEntityImpl;
+import org.flowable.engine.impl.persistence.entity.ExecutionEntityImpl;
+import org.flowable.engine.impl.persistence.entity.HistoricActivityInstanceEntityImpl;
+import org.flowable.engine.impl.persistence.entity.HistoricDetailEntityImpl;
+import org.flowable.engine.impl.persistence.entity.HistoricProcessInstanceEntityImpl;
+import org.flowable.identitylink.service.impl.persistence.entity.HistoricIdentityLinkEntityImpl;
+import org.flowable.job.service.impl.persistence.entity.AbstractRuntimeJobEntity;
+import org.flowable.mongodb.persistence.manager.MongoDbEventSubscriptionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricDetailDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricIdentityLinkDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricVariableInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbIdentityLinkDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbJobDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTimerJobDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.task.service.impl.persistence.entity.HistoricTaskInstanceEntityImpl;
+import org.flowable.task.service.impl.persistence.entity.TaskEntityImpl;
+import org.flowable.variable.service.impl.persistence.entity.HistoricVariableInstanceEntityImpl;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * The shard keys of the process instance collections when the database is a sharded cluster.
+ *
+ * The executions are sharded on the rootProcessInstanceId, so a process instance with all its child executions is in one chunk.
+ * The other collections are sharded on the processInstanceId, as their entities don't have the root process instance id.
+ *
+ * The shard keys are hashed: the ids of the process instances increase monotonically (e.g. with time-ordered ids),
+ * so a ranged shard key would send all inserts to the last chunk on one shard. The hashes spread the new process instances
+ * evenly over the chunks of all shards. On MongoDB 4.4 and later the shard keys are compound hashed keys suffixed with the _id,
+ * so the documents of one (large) process instance can still be split over chunks.
+ *
+ * The {@link MongoDbSession} adds the shard key to the filters of the updates and deletes of an entity,
+ * so they are routed to one shard instead of being broadcast to all shards.
+ *
+ * The variables, identity links and execution trees remain unsharded, as they are the target of the $lookup stages of the queries
+ * (see {@link #LOOKUP_COLLECTIONS}) and a $lookup of a sharded collection isn't allowed in a transaction.
+ * The other collections (deployments, process definitions, ...) are small and remain unsharded.
+ *
+ * The shard keys scale the writes over the shards, they don't co-locate the documents of one process instance:
+ * each collection is split into chunks independently, so a transaction on a process instance can span several shards.
+ *
+ * @author Joram Barrez
+ */
+public class ShardKeys {
+
+    /**
+     * The collections that are the target of a $lookup in the queries, which must not be sharded.
+     */
+    public static final Set<String> LOOKUP_COLLECTIONS = new HashSet<>(Arrays.asList(
+            MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES,
+            MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS,
+            MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES));
+
+    protected Map<String, String> shardKeyFields = new LinkedHashMap<>();
+    protected Map<String, Function<Entity, String>> shardKeyValues = new LinkedHashMap<>();
+
+    public ShardKeys() {
+        addShardKey(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, "rootProcessInstanceId",
+                entity -> ((ExecutionEntityImpl) entity).getRootProcessInstanceId());
+        addShardKey(MongoDbTaskDataManager.COLLECTION_TASKS, "processInstanceId",
+                entity -> ((TaskEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION, "processInstanceId",
+                entity -> ((EventSubscriptionEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbJobDataManager.COLLECTION_JOBS, "processInstanceId",
+                entity -> ((AbstractRuntimeJobEntity) entity).getProcessInstanceId());
+        addShardKey(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, "processInstanceId",
+                entity -> ((AbstractRuntimeJobEntity) entity).getProcessInstanceId());
+
+        addShardKey(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, "processInstanceId",
+                entity -> ((HistoricProcessInstanceEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, "processInstanceId",
+                entity -> ((HistoricActivityInstanceEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, "processInstanceId",
+                entity -> ((HistoricTaskInstanceEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, "processInstanceId",
+                entity -> ((HistoricVariableInstanceEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, "processInstanceId",
+                entity -> ((HistoricIdentityLinkEntityImpl) entity).getProcessInstanceId());
+        addShardKey(MongoDbHistoricDetailDataManager.COLLECTION_HISTORIC_DETAILS, "processInstanceId",
+                entity -> ((HistoricDetailEntityImpl) entity).getProcessInstanceId());
+    }
+
+    public void addShardKey(String collection, String field, Function<Entity, String> value) {
+        if (LOOKUP_COLLECTIONS.contains(collection)) {
+            throw new FlowableIllegalArgumentException("Collection " + collection + " is the target of a $lookup and can't be sharded");
+        }
+        shardKeyFields.put(collection, field);
+        shardKeyValues.put(collection, value);
+    }
+
+    public boolean isSharded(String collection) {
+        return shardKeyFields.containsKey(collection);
+    }
+
+    /**
+     * The key of the shardCollection command: the hashed shard key field, followed by the _id when compound hashed keys are supported (MongoDB 4.4).
+     */
+    public Document getShardKey(String collection, boolean compoundHashedKeySupported) {
+        Document shardKey = new Document(shardKeyFields.get(collection), "hashed");
+        if (compoundHashedKeySupported) {
+            shardKey.append("_id", 1);
+        }
+        return shardKey;
+    }
+
+    /**
+     * The filter on the id of the entity, including the shard key when the collection is sharded.
+     * A missing shard key value is stored as a missing field, which matches a filter on null.
+     */
+    public Bson createIdFilter(String collection, Entity entity) {
+        Bson idFilter = Filters.eq("_id", entity.getId());
+        Function<Entity, String> shardKeyValue = shardKeyValues.get(collection);
+        if (shardKeyValue == null) {
+            return idFilter;
+        }
+        return Filters.and(Filters.eq(shardKeyFields.get(collection), shardKeyValue.apply(entity)), idFilter);
+    }
+
+    public Map<String, String> getShardKeyFields() {
+        return shardKeyFields;
+    }
+
+}
@@ -0,0 +1,74 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.flowable.common.engine.impl.cfg.IdGenerator;
+import org.flowable.common.engine.impl.persistence.StrongUuidGenerator;
+
+/**
+ * Generates UUIDs (in the same string format as the {@link StrongUuidGenerator}) that sort in the order they are generated,
+ * following the layout of version 7 UUIDs:
+ *
+ * <pre>
+ * 48 bits milliseconds since the epoch | version 7 | 12 bits sequence | variant | 62 random bits
+ * </pre>
+ *
+ * The sequence keeps the ids generated in the same millisecond ordered.
+ * When more than 4096 ids are generated in one millisecond, the sequence overflows into the timestamp,
+ * which then runs slightly ahead of the clock until the clock catches up.
+ *
+ * New ids are therefore always appended at the end of the _id index and the indices on references (e.g. processInstanceId),
+ * so inserts touch the same few index pages instead of random pages spread over the whole index.
+ *
+ * @author Joram Barrez
+ */
+public class TimeOrderedUuidGenerator implements IdGenerator {
+
+    protected static final int SEQUENCE_BITS = 12;
+    protected static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    /** Milliseconds and sequence of the last generated id */
+    protected final AtomicLong lastTimestamp = new AtomicLong();
+
+    @Override
+    public String getNextId() {
+        return nextUuid().toString();
+    }
+
+    public UUID nextUuid() {
+        long timestamp = nextTimestamp();
+        long mostSigBits = ((timestamp >>> SEQUENCE_BITS) << 16) | 0x7000L | (timestamp & SEQUENCE_MASK);
+        long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    protected long nextTimestamp() {
+        while (true) {
+            long last = lastTimestamp.get();
+            long now = currentTimeMillis() << SEQUENCE_BITS;
+            long next = now > last ? now : last + 1;
+            if (lastTimestamp.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+}
@@ -0,0 +1,90 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence.compression;
+
+import org.bson.types.Binary;
+import org.flowable.common.engine.api.FlowableException;
+
+/**
+ * Converts the byte arrays of entities from and to the stored BSON binaries.
+ *
+ * Bytes are only stored compressed when compression is enabled and the compressed bytes are smaller.
+ * Reading doesn't depend on compression being enabled: the binary subtype tells whether the bytes are compressed,
+ * so documents written before compression was enabled (or after it was disabled) are read as is.
+ *
+ * @author Joram Barrez
+ */
+public class ByteArrayCompression {
+
+    protected ByteArrayCompressor compressor;
+    protected boolean enabled;
+
+    /** Byte arrays smaller than this are not worth compressing */
+    protected int minSize = 256;
+
+    public ByteArrayCompression(ByteArrayCompressor compressor, boolean enabled) {
+        this.compressor = compressor;
+        this.enabled = enabled;
+    }
+
+    public Object toStoredValue(byte[] bytes) {
+        if (bytes == null || !enabled || bytes.length < minSize) {
+            return bytes;
+        }
+
+        byte[] compressedBytes = compressor.compress(bytes);
+        if (compressedBytes.length >= bytes.length) {
+            return bytes;
+        }
+        return new Binary(compressor.getBinarySubType(), compressedBytes);
+    }
+
+    public byte[] fromStoredValue(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+
+        Binary binary = (Binary) value;
+        if ((binary.getType() & 0x80) == 0) { // not a user defined subtype, e.g. the generic binary subtype
+            return binary.getData();
+        }
+        if (binary.getType() == compressor.getBinarySubType()) {
+            return compressor.decompress(binary.getData());
+        }
+        if (binary.getType() == DeflateByteArrayCompressor.BINARY_SUB_TYPE) {
+            // Written with the default compressor, before a custom compressor was configured
+            return new DeflateByteArrayCompressor().decompress(binary.getData());
+        }
+        throw new FlowableException("Unknown binary subtype " + binary.getType());
+    }
+
+    public ByteArrayCompressor getCompressor() {
+        return compressor;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+}
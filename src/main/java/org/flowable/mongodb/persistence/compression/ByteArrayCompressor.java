@@ -0,0 +1,34 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence.compression;
+
+/**
+ * Compresses the byte arrays of entities before they are stored.
+ *
+ * Compressed bytes are stored as a BSON binary with the subtype of the compressor,
+ * so that they can be told apart from uncompressed bytes (which have the generic binary subtype).
+ *
+ * @author Joram Barrez
+ */
+public interface ByteArrayCompressor {
+
+    /**
+     * The BSON binary subtype marking bytes compressed by this compressor. Must be a user defined subtype (0x80 - 0xFF).
+     */
+    byte getBinarySubType();
+
+    byte[] compress(byte[] bytes);
+
+    byte[] decompress(byte[] bytes);
+
+}
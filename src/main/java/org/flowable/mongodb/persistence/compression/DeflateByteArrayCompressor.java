@@ -0,0 +1,94 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.flowable.common.engine.api.FlowableException;
+
+/**
+ * {@link ByteArrayCompressor} using the deflate algorithm of the JDK.
+ *
+ * @author Joram Barrez
+ */
+public class DeflateByteArrayCompressor implements ByteArrayCompressor {
+
+    public static final byte BINARY_SUB_TYPE = (byte) 0x80;
+
+    protected int level = Deflater.DEFAULT_COMPRESSION;
+
+    public DeflateByteArrayCompressor() {
+
+    }
+
+    public DeflateByteArrayCompressor(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getBinarySubType() {
+        return BINARY_SUB_TYPE;
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new FlowableException("Compressed bytes are truncated");
+                }
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } catch (DataFormatException e) {
+            throw new FlowableException("Could not decompress bytes", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+}
@@ -0,0 +1,73 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence.entity;
+
+import org.flowable.engine.impl.persistence.entity.ResourceEntityImpl;
+
+/**
+ * Resource of which the bytes can be loaded lazily, when {@link #getBytes()} is called for the first time.
+ *
+ * @author Joram Barrez
+ */
+public class MongoDbResourceEntityImpl extends ResourceEntityImpl {
+
+    private static final long serialVersionUID = 1L;
+
+    protected transient ResourceBytesLoader bytesLoader;
+    protected boolean storedInGridFs;
+
+    @Override
+    public byte[] getBytes() {
+        if (bytes == null && bytesLoader != null) {
+            bytes = bytesLoader.loadBytes(this);
+            bytesLoader = null;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void setBytes(byte[] bytes) {
+        this.bytes = bytes;
+        this.bytesLoader = null;
+    }
+
+    /**
+     * Returns whether the bytes are available without loading them.
+     */
+    public boolean isBytesLoaded() {
+        return bytes != null;
+    }
+
+    public boolean isStoredInGridFs() {
+        return storedInGridFs;
+    }
+
+    public void setStoredInGridFs(boolean storedInGridFs) {
+        this.storedInGridFs = storedInGridFs;
+    }
+
+    public ResourceBytesLoader getBytesLoader() {
+        return bytesLoader;
+    }
+
+    public void setBytesLoader(ResourceBytesLoader bytesLoader) {
+        this.bytesLoader = bytesLoader;
+    }
+
+    public interface ResourceBytesLoader {
+
+        byte[] loadBytes(MongoDbResourceEntityImpl resource);
+
+    }
+
+}
@@ -19,11 +19,13 @@ import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.flowable.common.engine.impl.AbstractEngineConfiguration;
 import org.flowable.common.engine.impl.context.Context;
+import org.flowable.common.engine.impl.db.ListQueryParameterObject;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
 import org.flowable.common.engine.impl.persistence.entity.data.DataManager;
 import org.flowable.mongodb.persistence.MongoDbSession;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
 
 /**
@@ -100,6 +102,89 @@ public abstract class AbstractMongoDbDataManager<EntityImpl extends Entity> impl
         return updateObject;
     }
 
+    /**
+     * Returns the counters of the {@link Entity}, which are updated with $inc deltas (see {@link #createIncrementObject(Entity)}).
+     * Returns null for entities without counters, which is the default.
+     */
+    protected Map<String, Integer> getCounters(Entity entity) {
+        return null;
+    }
+
+    /**
+     * Returns the changes of the counters of the {@link Entity} as deltas, to be applied with an $inc update.
+     * Incrementing (instead of setting the new value) doesn't depend on the value read when loading the entity.
+     * Returns null when no counter has changed, which is the default for entities without counters.
+     */
+    public BasicDBObject createIncrementObject(Entity entity) {
+        Map<String, Integer> counters = getCounters(entity);
+        if (counters == null) {
+            return null;
+        }
+
+        BasicDBObject incrementObject = null;
+        for (Map.Entry<String, Integer> counter : counters.entrySet()) {
+            incrementObject = setIncrementProperty(entity, counter.getKey(), counter.getValue(), incrementObject);
+        }
+        return incrementObject;
+    }
+
+    /**
+     * Helper method for subclasses to add the delta of a counter compared to the value when the {@link Entity} was loaded.
+     * Counters that aren't in the original persistent state have no known delta, they are set by {@link #setCounterProperties(Entity, BasicDBObject)}.
+     */
+    @SuppressWarnings("unchecked")
+    protected BasicDBObject setIncrementProperty(Entity entity, String propertyName, int value, BasicDBObject incrementObject) {
+        Map<String, Object> persistentState = (Map<String, Object>) entity.getOriginalPersistentState();
+        if (persistentState == null || !persistentState.containsKey(propertyName)) {
+            return incrementObject;
+        }
+        Object originalValue = persistentState.get(propertyName);
+        int delta = value - (originalValue != null ? ((Number) originalValue).intValue() : 0);
+        if (delta != 0) {
+            if (incrementObject == null) {
+                incrementObject = new BasicDBObject();
+            }
+            incrementObject.append(propertyName, delta);
+        }
+
+        return incrementObject;
+    }
+
+    /**
+     * Helper method for subclasses to set the counters that aren't in the original persistent state of the {@link Entity},
+     * as an $inc can only be computed against a known original value.
+     */
+    @SuppressWarnings("unchecked")
+    protected BasicDBObject setCounterProperties(Entity entity, BasicDBObject updateObject) {
+        Map<String, Integer> counters = getCounters(entity);
+        if (counters == null) {
+            return updateObject;
+        }
+
+        Map<String, Object> persistentState = (Map<String, Object>) entity.getOriginalPersistentState();
+        for (Map.Entry<String, Integer> counter : counters.entrySet()) {
+            if (persistentState == null || !persistentState.containsKey(counter.getKey())) {
+                if (updateObject == null) {
+                    updateObject = new BasicDBObject();
+                }
+                updateObject.append(counter.getKey(), counter.getValue());
+            }
+        }
+        return updateObject;
+    }
+
+    /**
+     * Adds the paging of the query (if any) to an aggregation pipeline.
+     */
+    protected void addPaging(List<Bson> pipeline, ListQueryParameterObject query) {
+        if (query.getFirstResult() > 0) {
+            pipeline.add(Aggregates.skip(query.getFirstResult()));
+        }
+        if (query.getMaxResults() > 0 && query.getMaxResults() < Integer.MAX_VALUE) {
+            pipeline.add(Aggregates.limit(query.getMaxResults()));
+        }
+    }
+
     protected Bson makeAndFilter(List<Bson> filters) {
         if (filters.size() > 1) {
             return Filters.and(filters);
@@ -24,6 +24,7 @@ import org.flowable.engine.repository.Deployment;
 import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
 
 /**
  * @author Joram Barrez
@@ -64,7 +65,8 @@ public class MongoDbDeploymentDataManager extends AbstractMongoDbDataManager<Dep
 
     @Override
     public List<String> getDeploymentResourceNames(String deploymentId) {
-        throw new UnsupportedOperationException();
+        // Only the names are fetched, not the bytes of the resources
+        return getMongoDbSession().distinct(MongoDbResourceDataManager.COLLECTION_BYTE_ARRAY, "name", Filters.eq("deploymentId", deploymentId));
     }
 
     @Override
@@ -14,11 +14,20 @@ package org.flowable.mongodb.persistence.manager;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.flowable.common.engine.api.FlowableException;
 import org.flowable.common.engine.api.FlowableOptimisticLockingException;
@@ -26,6 +35,7 @@ import org.flowable.common.engine.impl.persistence.entity.Entity;
 import org.flowable.engine.ProcessEngineConfiguration;
 import org.flowable.engine.impl.ExecutionQueryImpl;
 import org.flowable.engine.impl.ProcessInstanceQueryImpl;
+import org.flowable.engine.impl.ProcessInstanceQueryProperty;
 import org.flowable.engine.impl.persistence.entity.ExecutionEntity;
 import org.flowable.engine.impl.persistence.entity.ExecutionEntityImpl;
 import org.flowable.engine.impl.persistence.entity.data.ExecutionDataManager;
@@ -37,12 +47,27 @@ import org.flowable.engine.impl.persistence.entity.data.impl.cachematcher.Execut
 import org.flowable.engine.impl.persistence.entity.data.impl.cachematcher.InactiveExecutionsByProcInstMatcher;
 import org.flowable.engine.impl.persistence.entity.data.impl.cachematcher.InactiveExecutionsInActivityAndProcInstMatcher;
 import org.flowable.engine.impl.util.ProcessDefinitionUtil;
+import org.flowable.engine.repository.ProcessDefinition;
 import org.flowable.engine.runtime.Execution;
 import org.flowable.engine.runtime.ProcessInstance;
 import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.InlineVariableSupport;
+import org.flowable.mongodb.persistence.ProcessInstanceLeaseManager;
+import org.flowable.mongodb.persistence.mapper.ExecutionEntityMapper;
+import org.flowable.variable.service.impl.QueryOperator;
+import org.flowable.variable.service.impl.QueryVariableValue;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntity;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntityImpl;
+import org.flowable.variable.service.impl.persistence.entity.data.impl.cachematcher.VariableInstanceByExecutionIdMatcher;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.result.UpdateResult;
 
 /**
@@ -52,6 +77,8 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
 
     public static final String COLLECTION_EXECUTIONS = "executions";
 
+    public static final String COLLECTION_EXECUTION_TREES = "executionTrees";
+
     protected ExecutionsByParentExecutionIdEntityMatcher executionsByParentIdMatcher = new ExecutionsByParentExecutionIdEntityMatcher();
 
     protected ExecutionsByProcessInstanceIdEntityMatcher executionsByProcessInstanceIdMatcher = new ExecutionsByProcessInstanceIdEntityMatcher();
@@ -66,6 +93,8 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
 
     protected InactiveExecutionsByProcInstMatcher inactiveExecutionsByProcInstMatcher = new InactiveExecutionsByProcInstMatcher();
 
+    protected VariableInstanceByExecutionIdMatcher variableInstanceByExecutionIdMatcher = new VariableInstanceByExecutionIdMatcher();
+
     public MongoDbExecutionDataManager(MongoDbProcessEngineConfiguration processEngineConfiguration) {
         super(processEngineConfiguration);
     }
@@ -79,6 +108,35 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
         return COLLECTION_EXECUTIONS;
     }
 
+    /**
+     * Denormalizes the process definition on the execution (a process definition never changes), which avoids a join when querying.
+     * Done here and not in the mapper, as looking up the process definition needs the command context.
+     */
+    @Override
+    public void insert(ExecutionEntity executionEntity) {
+        if (executionEntity.getProcessDefinitionId() != null) {
+            ProcessDefinition processDefinition = ProcessDefinitionUtil.getProcessDefinition(executionEntity.getProcessDefinitionId());
+            if (processDefinition != null) {
+                ExecutionEntityImpl executionEntityImpl = (ExecutionEntityImpl) executionEntity;
+                executionEntityImpl.setProcessDefinitionKey(processDefinition.getKey());
+                executionEntityImpl.setProcessDefinitionName(processDefinition.getName());
+                executionEntityImpl.setProcessDefinitionVersion(processDefinition.getVersion());
+                executionEntityImpl.setDeploymentId(processDefinition.getDeploymentId());
+                ((ExecutionEntityMapper) getMongoDbSession().getMongoDbSessionFactory().getMapperForEntityClass(ExecutionEntityImpl.class))
+                        .addProcessDefinition(processDefinition);
+            }
+        }
+        super.insert(executionEntity);
+    }
+
+    @Override
+    public ExecutionEntity findById(String executionId) {
+        if (isEmbeddedExecutionTree()) {
+            return findInExecutionTree(executionId);
+        }
+        return super.findById(executionId);
+    }
+
     @Override
     public BasicDBObject createUpdateObject(Entity entity) {
         ExecutionEntity executionEntity = (ExecutionEntity) entity;
@@ -90,10 +148,37 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
         updateObject = setUpdateProperty(executionEntity, "activityId", executionEntity.getActivityId(), updateObject);
         updateObject = setUpdateProperty(executionEntity, "parentId", executionEntity.getParentId(), updateObject);
         updateObject = setUpdateProperty(executionEntity, "superExecutionId", executionEntity.getSuperExecutionId(), updateObject);
+        updateObject = setCounterProperties(executionEntity, updateObject);
         return updateObject;
     }
 
+    @Override
+    protected Map<String, Integer> getCounters(Entity entity) {
+        ExecutionEntityImpl executionEntity = (ExecutionEntityImpl) entity;
+        Map<String, Integer> counters = new LinkedHashMap<>();
+        counters.put("eventSubscriptionCount", executionEntity.getEventSubscriptionCount());
+        counters.put("taskCount", executionEntity.getTaskCount());
+        counters.put("jobCount", executionEntity.getJobCount());
+        counters.put("timerJobCount", executionEntity.getTimerJobCount());
+        counters.put("suspendedJobCount", executionEntity.getSuspendedJobCount());
+        counters.put("deadLetterJobCount", executionEntity.getDeadLetterJobCount());
+        counters.put("variableCount", executionEntity.getVariableCount());
+        counters.put("identityLinkCount", executionEntity.getIdentityLinkCount());
+        return counters;
+    }
+
     public ExecutionEntity findSubProcessInstanceBySuperExecutionId(String superExecutionId) {
+       if (isEmbeddedExecutionTree()) {
+           // A sub process instance is part of the same execution tree as its super execution
+           findById(superExecutionId);
+           for (ExecutionEntity executionEntity : getMongoDbSession().getEntityCache().findInCache(ExecutionEntityImpl.class)) {
+               if (superExecutionId.equals(executionEntity.getSuperExecutionId()) && !getMongoDbSession().isEntityToBeDeleted(executionEntity)) {
+                   return executionEntity;
+               }
+           }
+           return null;
+       }
+
        List<ExecutionEntity> executionEntities = getMongoDbSession().find(COLLECTION_EXECUTIONS, Filters.eq("superExecutionId", superExecutionId));
        if (executionEntities.size() > 1) {
            throw new FlowableException("Programmatics error: multiple super executions found");
@@ -105,6 +190,10 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
     }
 
     public List<ExecutionEntity> findChildExecutionsByParentExecutionId(String parentExecutionId) {
+        if (isEmbeddedExecutionTree()) {
+            findById(parentExecutionId);
+            return getMongoDbSession().findFromCache(executionsByParentIdMatcher, parentExecutionId, ExecutionEntityImpl.class);
+        }
         Bson filter = Filters.eq("parentId", parentExecutionId);
         return getMongoDbSession().find(COLLECTION_EXECUTIONS, filter, parentExecutionId, ExecutionEntityImpl.class, executionsByParentIdMatcher, true);
     }
@@ -128,11 +217,11 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
     }
 
     public long findExecutionCountByQueryCriteria(ExecutionQueryImpl executionQuery) {
-        return getMongoDbSession().count(COLLECTION_EXECUTIONS, createFilter(executionQuery));
+        return countExecutions(createFilter(executionQuery));
     }
 
     public List<ExecutionEntity> findExecutionsByQueryCriteria(ExecutionQueryImpl executionQuery) {
-        return getMongoDbSession().find(COLLECTION_EXECUTIONS, createFilter(executionQuery));
+        return findExecutions(createFilter(executionQuery));
     }
 
     protected Bson createFilter(ExecutionQueryImpl executionQuery) {
@@ -144,31 +233,32 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
             filters.add(Filters.eq("processDefinitionId", executionQuery.getProcessDefinitionId()));
         }
         if (executionQuery.getProcessDefinitionIds() != null) {
-            filters.add(Filters.in("processDefinitionId", executionQuery.getProcessDefinitionId()));
+            filters.add(Filters.in("processDefinitionId", executionQuery.getProcessDefinitionIds()));
         }
+        // The process definition properties are denormalized on the execution (no join needed as in the relational counterpart)
         if (executionQuery.getDeploymentId() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.eq("deploymentId", executionQuery.getDeploymentId()));
         }
         if (executionQuery.getDeploymentIds() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.in("deploymentId", executionQuery.getDeploymentIds()));
         }
         if (executionQuery.getProcessDefinitionKey() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.eq("processDefinitionKey", executionQuery.getProcessDefinitionKey()));
         }
         if (executionQuery.getProcessDefinitionKeys() != null) {
-            // TODO
+            filters.add(Filters.in("processDefinitionKey", executionQuery.getProcessDefinitionKeys()));
         }
         if (executionQuery.getProcessDefinitionCategory() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.eq("processDefinitionCategory", executionQuery.getProcessDefinitionCategory()));
         }
         if (executionQuery.getProcessDefinitionName() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.eq("processDefinitionName", executionQuery.getProcessDefinitionName()));
         }
         if (executionQuery.getProcessDefinitionVersion() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.eq("processDefinitionVersion", executionQuery.getProcessDefinitionVersion()));
         }
         if (executionQuery.getProcessDefinitionEngineVersion() != null) {
-            // TODO (done with join in relation counterpart)
+            filters.add(Filters.eq("processDefinitionEngineVersion", executionQuery.getProcessDefinitionEngineVersion()));
         }
         if (executionQuery.getActivityId() != null) {
             filters.add(Filters.eq("activityId", executionQuery.getActivityId()));
@@ -183,7 +273,7 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
             filters.add(Filters.exists("parentId"));
         }
         if (executionQuery.isOnlySubProcessExecutions()) {
-            // TODO
+            filters.add(Filters.exists("superExecutionId", true));
         }
         if (executionQuery.isOnlyProcessInstanceExecutions()) {
             filters.add(Filters.not(Filters.exists("parentId")));
@@ -201,13 +291,13 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
             filters.add(Filters.eq("startedBy", executionQuery.getStartedBy()));
         }
         if (executionQuery.getSuperProcessInstanceId() != null) {
-            // TODO
+            filters.add(Filters.eq("superProcessInstanceId", executionQuery.getSuperProcessInstanceId()));
         }
         if (executionQuery.getSubProcessInstanceId() != null) {
-            // TODO
+            filters.add(Filters.eq("_id", getSuperProcessInstanceId(executionQuery.getSubProcessInstanceId())));
         }
         if (executionQuery.isExcludeSubprocesses()) {
-            // TODO
+            filters.add(Filters.not(Filters.exists("superExecutionId")));
         }
         if (executionQuery.getSuspensionState() != null) {
             // TODO
@@ -242,16 +332,17 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
         if (executionQuery.isWithoutTenantId()) {
             filters.add(Filters.or(Filters.eq("tenantId", ProcessEngineConfiguration.NO_TENANT_ID), Filters.not(Filters.exists("tenantId"))));
         }
+        addQueryVariableFilters(filters, executionQuery.getQueryVariableValues(), false);
 
         return makeAndFilter(filters);
     }
 
-    public long findProcessInstanceCountByQueryCriteria(ProcessInstanceQueryImpl executionQuery) {
-        return getMongoDbSession().count(COLLECTION_EXECUTIONS, Filters.eq("parentId", null));
+    public long findProcessInstanceCountByQueryCriteria(ProcessInstanceQueryImpl processInstanceQuery) {
+        return countExecutions(createFilter(processInstanceQuery));
     }
 
     public List<ProcessInstance> findProcessInstanceByQueryCriteria(ProcessInstanceQueryImpl processInstanceQuery) {
-        return getMongoDbSession().find(COLLECTION_EXECUTIONS, createFilter(processInstanceQuery));
+        return findExecutions(createFilter(processInstanceQuery));
     }
 
     public List<ExecutionEntity> findExecutionsByRootProcessInstanceId(String rootProcessInstanceId) {
@@ -272,8 +363,140 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
         }
     }
 
-    public List<ProcessInstance> findProcessInstanceAndVariablesByQueryCriteria(ProcessInstanceQueryImpl executionQuery) {
-       throw new UnsupportedOperationException();
+    @SuppressWarnings("unchecked")
+    public List<ProcessInstance> findProcessInstanceAndVariablesByQueryCriteria(ProcessInstanceQueryImpl processInstanceQuery) {
+        int variablesLimit = processInstanceQuery.getProcessInstanceVariablesLimit() != null
+                ? processInstanceQuery.getProcessInstanceVariablesLimit() : getProcessEngineConfiguration().getExecutionQueryLimit();
+
+        if (isEmbeddedExecutionTree()) {
+            // The process instances are spread over the execution tree documents, so the variables are fetched with one extra query
+            List<ProcessInstance> processInstances = sortAndPage(findProcessInstanceByQueryCriteria(processInstanceQuery), processInstanceQuery);
+            Set<String> processInstanceIds = new HashSet<>();
+            for (ProcessInstance processInstance : processInstances) {
+                processInstanceIds.add(processInstance.getId());
+            }
+            if (!processInstanceIds.isEmpty()) {
+                List<VariableInstanceEntity> variables = getVariableDataManager().findVariableInstancesByExecutionIds(processInstanceIds);
+                for (ProcessInstance processInstance : processInstances) {
+                    setQueryVariables((ExecutionEntity) processInstance, variables, variablesLimit);
+                }
+            }
+            return processInstances;
+        }
+
+        List<Bson> pipeline = new ArrayList<>();
+        Bson filter = createFilter(processInstanceQuery);
+        if (filter != null) {
+            pipeline.add(Aggregates.match(filter));
+        }
+        pipeline.add(Aggregates.sort(createSort(processInstanceQuery)));
+        addPaging(pipeline, processInstanceQuery);
+        pipeline.add(Aggregates.lookup(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, "_id", "executionId", "queryVariables"));
+
+        List<ProcessInstance> processInstances = new ArrayList<>();
+        for (Document processInstanceDocument : getMongoDbSession().aggregate(COLLECTION_EXECUTIONS, pipeline)) {
+            ExecutionEntity processInstance = (ExecutionEntity) getMongoDbSession()
+                    .mapToEntities(ExecutionEntityImpl.class, Collections.singletonList(processInstanceDocument)).get(0);
+
+            // Inline variables are put in the cache when the process instance document is mapped
+            List<VariableInstanceEntity> variables = new ArrayList<>(getMongoDbSession().findFromCache(
+                    variableInstanceByExecutionIdMatcher, processInstance.getId(), VariableInstanceEntityImpl.class));
+            List<VariableInstanceEntity> queryVariables = getMongoDbSession().mapToEntities(
+                    VariableInstanceEntityImpl.class, (List<Document>) processInstanceDocument.get("queryVariables"));
+            for (VariableInstanceEntity variable : queryVariables) {
+                if (!variables.contains(variable)) {
+                    variables.add(variable);
+                }
+            }
+            setQueryVariables(processInstance, variables, variablesLimit);
+            processInstances.add(processInstance);
+        }
+        return processInstances;
+    }
+
+    /**
+     * The sort of the process instance query, with the _id last so the pages are deterministic.
+     */
+    protected Bson createSort(ProcessInstanceQueryImpl processInstanceQuery) {
+        List<Bson> sorts = new ArrayList<>();
+        boolean idSorted = false;
+        for (Map.Entry<String, Boolean> orderBy : processInstanceQuery.getOrderByColumnMap().entrySet()) {
+            String fieldName = getSortFieldName(orderBy.getKey());
+            if (fieldName != null) {
+                sorts.add(orderBy.getValue() ? Sorts.ascending(fieldName) : Sorts.descending(fieldName));
+                idSorted |= "_id".equals(fieldName);
+            }
+        }
+        if (!idSorted) {
+            sorts.add(Sorts.ascending("_id"));
+        }
+        return Sorts.orderBy(sorts);
+    }
+
+    protected String getSortFieldName(String column) {
+        if (ProcessInstanceQueryProperty.PROCESS_INSTANCE_ID.getName().equals(column)) {
+            return "_id";
+        } else if (ProcessInstanceQueryProperty.PROCESS_DEFINITION_ID.getName().equals(column)) {
+            return "processDefinitionId";
+        } else if (ProcessInstanceQueryProperty.PROCESS_DEFINITION_KEY.getName().equals(column)) {
+            return "processDefinitionKey";
+        } else if (ProcessInstanceQueryProperty.TENANT_ID.getName().equals(column)) {
+            return "tenantId";
+        }
+        return null;
+    }
+
+    /**
+     * Sorts and pages the process instances in memory, as the process instances of the execution trees are matched after unwinding the trees.
+     */
+    protected List<ProcessInstance> sortAndPage(List<ProcessInstance> processInstances, ProcessInstanceQueryImpl processInstanceQuery) {
+        Comparator<ProcessInstance> comparator = null;
+        for (Map.Entry<String, Boolean> orderBy : processInstanceQuery.getOrderByColumnMap().entrySet()) {
+            Function<ProcessInstance, String> sortValue = getSortValue(getSortFieldName(orderBy.getKey()));
+            if (sortValue != null) {
+                Comparator<ProcessInstance> columnComparator = Comparator.comparing(sortValue, Comparator.nullsFirst(Comparator.naturalOrder()));
+                if (!orderBy.getValue()) {
+                    columnComparator = columnComparator.reversed();
+                }
+                comparator = comparator != null ? comparator.thenComparing(columnComparator) : columnComparator;
+            }
+        }
+        Comparator<ProcessInstance> idComparator = Comparator.comparing(ProcessInstance::getId);
+        comparator = comparator != null ? comparator.thenComparing(idComparator) : idComparator;
+
+        List<ProcessInstance> sortedProcessInstances = new ArrayList<>(processInstances);
+        sortedProcessInstances.sort(comparator);
+
+        int fromIndex = Math.min(Math.max(processInstanceQuery.getFirstResult(), 0), sortedProcessInstances.size());
+        int toIndex = sortedProcessInstances.size();
+        if (processInstanceQuery.getMaxResults() > 0 && processInstanceQuery.getMaxResults() < toIndex - fromIndex) {
+            toIndex = fromIndex + processInstanceQuery.getMaxResults();
+        }
+        return new ArrayList<>(sortedProcessInstances.subList(fromIndex, toIndex));
+    }
+
+    protected Function<ProcessInstance, String> getSortValue(String fieldName) {
+        if ("_id".equals(fieldName)) {
+            return ProcessInstance::getId;
+        } else if ("processDefinitionId".equals(fieldName)) {
+            return ProcessInstance::getProcessDefinitionId;
+        } else if ("processDefinitionKey".equals(fieldName)) {
+            return ProcessInstance::getProcessDefinitionKey;
+        } else if ("tenantId".equals(fieldName)) {
+            return ProcessInstance::getTenantId;
+        }
+        return null;
+    }
+
+    protected void setQueryVariables(ExecutionEntity processInstance, List<VariableInstanceEntity> variables, int variablesLimit) {
+        List<VariableInstanceEntity> queryVariables = new ArrayList<>();
+        for (VariableInstanceEntity variable : variables) {
+            // Task local variables are not process variables
+            if (processInstance.getId().equals(variable.getExecutionId()) && variable.getTaskId() == null && queryVariables.size() < variablesLimit) {
+                queryVariables.add(variable);
+            }
+        }
+        ((ExecutionEntityImpl) processInstance).setQueryVariables(queryVariables);
     }
 
     public Collection<ExecutionEntity> findInactiveExecutionsByProcessInstanceId(String processInstanceId) {
@@ -316,7 +539,7 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
             Filters.eq("processDefinitionId", processDefinitionId),
             Filters.not(Filters.exists("parentId"))
         );
-        return getMongoDbSession().find(COLLECTION_EXECUTIONS, filter);
+        return findExecutions(filter);
     }
 
     public List<Execution> findExecutionsByNativeQuery(Map<String, Object> parameterMap) {
@@ -340,25 +563,84 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
     }
 
     public void updateProcessInstanceLockTime(String processInstanceId, Date lockDate, Date expirationTime) {
+        ProcessInstanceLeaseManager leaseManager = getMongoDbSession().getMongoDbSessionFactory().getProcessInstanceLeaseManager();
+        if (leaseManager != null) {
+            leaseManager.acquireLease(processInstanceId, lockDate, expirationTime);
+            return;
+        }
+
+        if (isEmbeddedExecutionTree()) {
+            String lockTimeField = ExecutionTreeWriter.EXECUTIONS + "." + processInstanceId + ".lockTime";
+            BasicDBObject updateObject = new BasicDBObject();
+            updateObject.append(lockTimeField, lockDate);
+
+            Bson filter = Filters.and(Filters.eq(ExecutionTreeWriter.EXECUTION_IDS, processInstanceId),
+                    Filters.or(Filters.eq(lockTimeField, null), Filters.lt(lockTimeField, expirationTime)));
+            UpdateResult updateResult = getMongoDbSession().updateImmediately(COLLECTION_EXECUTION_TREES, filter, updateObject);
+            if (updateResult.getModifiedCount() != 1) {
+                throw new FlowableOptimisticLockingException("Could not lock process instance");
+            }
+            return;
+        }
+
         BasicDBObject updateObject = new BasicDBObject();
         updateObject.append("lockTime", lockDate);
 
-        Bson filter = Filters.and(Filters.eq("_id", processInstanceId), Filters.or(Filters.eq("lockTime", null), Filters.lt("lockTime", expirationTime)));
-        UpdateResult updateResult = getMongoDbSession().updateImmediately(COLLECTION_EXECUTIONS, filter, updateObject);
-        if (updateResult.getModifiedCount() != 1) {
+        Bson filter = Filters.or(Filters.eq("lockTime", null), Filters.lt("lockTime", expirationTime));
+        UpdateResult updateResult = updateProcessInstanceImmediately(processInstanceId, filter, updateObject);
+        if (updateResult == null || updateResult.getModifiedCount() != 1) {
             throw new FlowableOptimisticLockingException("Could not lock process instance");
         }
     }
 
     public void clearProcessInstanceLockTime(String processInstanceId) {
+        ProcessInstanceLeaseManager leaseManager = getMongoDbSession().getMongoDbSessionFactory().getProcessInstanceLeaseManager();
+        if (leaseManager != null) {
+            leaseManager.releaseLease(processInstanceId);
+            return;
+        }
+
+        if (isEmbeddedExecutionTree()) {
+            BasicDBObject updateObject = new BasicDBObject();
+            updateObject.append(ExecutionTreeWriter.EXECUTIONS + "." + processInstanceId + ".lockTime", null);
+
+            getMongoDbSession().updateImmediately(COLLECTION_EXECUTION_TREES, Filters.eq(ExecutionTreeWriter.EXECUTION_IDS, processInstanceId), updateObject);
+            return;
+        }
+
         BasicDBObject updateObject = new BasicDBObject();
         updateObject.append("lockTime", null);
 
-        getMongoDbSession().updateImmediately(COLLECTION_EXECUTIONS, Filters.eq("_id", processInstanceId), updateObject);
+        updateProcessInstanceImmediately(processInstanceId, null, updateObject);
+    }
+
+    /**
+     * When the executions are sharded, the process instance is loaded (from the cache when it was already fetched)
+     * to filter the update on its shard key, so the update isn't broadcast to all shards.
+     *
+     * @return the result of the update, or null when the process instance doesn't exist
+     */
+    protected UpdateResult updateProcessInstanceImmediately(String processInstanceId, Bson filter, BasicDBObject updateObject) {
+        if (getMongoDbSession().getMongoDbSessionFactory().getShardKeys() == null) {
+            Bson idFilter = Filters.eq("_id", processInstanceId);
+            return getMongoDbSession().updateImmediately(COLLECTION_EXECUTIONS, filter != null ? Filters.and(idFilter, filter) : idFilter, updateObject);
+        }
+
+        ExecutionEntity processInstance = findById(processInstanceId);
+        if (processInstance == null) {
+            return null;
+        }
+        return getMongoDbSession().updateImmediately(COLLECTION_EXECUTIONS, processInstance, filter, updateObject);
     }
 
     protected boolean isExecutionTreeFetched(final String executionId) {
 
+        // The execution tree document is always fetched as a whole, so after the lookup all executions of the tree are in the cache
+        if (isEmbeddedExecutionTree()) {
+            findById(executionId);
+            return true;
+        }
+
         // Need to get the cache result before doing the findById
         ExecutionEntity cachedExecutionEntity = getMongoDbSession().getEntityCache().findInCache(ExecutionEntityImpl.class, executionId);
 
@@ -398,32 +680,276 @@ public class MongoDbExecutionDataManager extends AbstractMongoDbDataManager<Exec
             andFilters.add(Filters.eq("deploymentId", processInstanceQuery.getDeploymentId()));
         }
 
+        if (processInstanceQuery.getDeploymentIds() != null) {
+            andFilters.add(Filters.in("deploymentId", processInstanceQuery.getDeploymentIds()));
+        }
+
         if (processInstanceQuery.getProcessDefinitionId() != null) {
             andFilters.add(Filters.eq("processDefinitionId", processInstanceQuery.getProcessDefinitionId()));
         }
 
+        if (processInstanceQuery.getProcessDefinitionIds() != null) {
+            andFilters.add(Filters.in("processDefinitionId", processInstanceQuery.getProcessDefinitionIds()));
+        }
+
+        if (processInstanceQuery.getProcessDefinitionKey() != null) {
+            andFilters.add(Filters.eq("processDefinitionKey", processInstanceQuery.getProcessDefinitionKey()));
+        }
+
+        if (processInstanceQuery.getProcessDefinitionKeys() != null) {
+            andFilters.add(Filters.in("processDefinitionKey", processInstanceQuery.getProcessDefinitionKeys()));
+        }
+
+        if (processInstanceQuery.getProcessDefinitionCategory() != null) {
+            andFilters.add(Filters.eq("processDefinitionCategory", processInstanceQuery.getProcessDefinitionCategory()));
+        }
+
+        if (processInstanceQuery.getProcessDefinitionName() != null) {
+            andFilters.add(Filters.eq("processDefinitionName", processInstanceQuery.getProcessDefinitionName()));
+        }
+
+        if (processInstanceQuery.getProcessDefinitionVersion() != null) {
+            andFilters.add(Filters.eq("processDefinitionVersion", processInstanceQuery.getProcessDefinitionVersion()));
+        }
+
+        if (processInstanceQuery.getProcessDefinitionEngineVersion() != null) {
+            andFilters.add(Filters.eq("processDefinitionEngineVersion", processInstanceQuery.getProcessDefinitionEngineVersion()));
+        }
+
         if (processInstanceQuery.getRootProcessInstanceId() != null) {
             andFilters.add(Filters.eq("rootProcessInstanceId", processInstanceQuery.getRootProcessInstanceId()));
         }
 
         if (processInstanceQuery.getSuperProcessInstanceId() != null) {
-            List<ExecutionEntity> superExecutions = getMongoDbSession().find(COLLECTION_EXECUTIONS,
-                    Filters.eq("processInstanceId", processInstanceQuery.getSuperProcessInstanceId()));
+            andFilters.add(Filters.eq("superProcessInstanceId", processInstanceQuery.getSuperProcessInstanceId()));
+        }
 
-            List<String> superExecutionIds = new ArrayList<>();
-            for (ExecutionEntity execution : superExecutions) {
-                superExecutionIds.add(execution.getId());
-            }
+        if (processInstanceQuery.getSubProcessInstanceId() != null) {
+            andFilters.add(Filters.eq("_id", getSuperProcessInstanceId(processInstanceQuery.getSubProcessInstanceId())));
+        }
 
-            andFilters.add(Filters.in("superExecutionId", superExecutionIds));
+        if (processInstanceQuery.isExcludeSubprocesses()) {
+            andFilters.add(Filters.not(Filters.exists("superExecutionId")));
         }
 
-        if (processInstanceQuery.getSubProcessInstanceId() != null) {
-            andFilters.add(Filters.eq("subProcessInstanceId", processInstanceQuery.getSubProcessInstanceId()));
+        if (processInstanceQuery.isOnlySubProcessExecutions()) {
+            andFilters.add(Filters.exists("superExecutionId"));
         }
 
+        addQueryVariableFilters(andFilters, processInstanceQuery.getQueryVariableValues(), true);
+
         Bson filter = Filters.and(andFilters.toArray(new Bson[andFilters.size()]));
 
         return filter;
     }
+
+    /**
+     * Returns the id of the process instance that called the given sub process instance,
+     * looked up by id (and thus typically from the cache).
+     */
+    protected String getSuperProcessInstanceId(String subProcessInstanceId) {
+        ExecutionEntity subProcessInstance = findById(subProcessInstanceId);
+        if (subProcessInstance != null && subProcessInstance.getSuperExecutionId() != null) {
+            ExecutionEntity superExecution = findById(subProcessInstance.getSuperExecutionId());
+            if (superExecution != null) {
+                return superExecution.getProcessInstanceId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Variable value conditions are a semi-join: the ids of the executions owning a matching variable
+     * are fetched first (index backed) and used in an $in filter on the executions.
+     */
+    protected void addQueryVariableFilters(List<Bson> filters, List<QueryVariableValue> queryVariableValues, boolean processInstanceQuery) {
+        if (queryVariableValues == null) {
+            return;
+        }
+
+        MongoDbVariableInstanceDataManager variableDataManager = getVariableDataManager();
+        for (QueryVariableValue queryVariableValue : queryVariableValues) {
+            Bson variableFilter = variableDataManager.createQueryVariableValueFilter(queryVariableValue);
+            Set<String> executionIds = new HashSet<>(variableDataManager.findExecutionIdsByQueryVariableValue(queryVariableValue));
+            if (getMongoDbSession().getInlineVariableSupport() != null) {
+                executionIds.addAll(findExecutionIds(Filters.elemMatch(InlineVariableSupport.INLINE_VARIABLES, variableFilter)));
+            }
+
+            // Non-local variables of an execution query are the variables of the process instance
+            String fieldName = processInstanceQuery || queryVariableValue.isLocal() ? "_id" : "processInstanceId";
+            if (QueryOperator.NOT_EXISTS.name().equals(queryVariableValue.getOperator())) {
+                filters.add(Filters.nin(fieldName, executionIds));
+            } else {
+                filters.add(Filters.in(fieldName, executionIds));
+            }
+        }
+    }
+
+    protected List<String> findExecutionIds(Bson filter) {
+        if (isEmbeddedExecutionTree()) {
+            List<Bson> pipeline = createExecutionTreePipeline(filter);
+            pipeline.add(Aggregates.project(Projections.include("_id")));
+            List<String> executionIds = new ArrayList<>();
+            for (Document execution : getMongoDbSession().aggregate(COLLECTION_EXECUTION_TREES, pipeline)) {
+                executionIds.add(execution.getString("_id"));
+            }
+            return executionIds;
+        }
+        return getMongoDbSession().distinct(COLLECTION_EXECUTIONS, "_id", filter);
+    }
+
+    protected MongoDbVariableInstanceDataManager getVariableDataManager() {
+        return (MongoDbVariableInstanceDataManager) getMongoDbSession().getMongoDbSessionFactory()
+                .getDataManagerForCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES);
+    }
+
+    protected MongoDbProcessEngineConfiguration getProcessEngineConfiguration() {
+        return (MongoDbProcessEngineConfiguration) engineConfiguration;
+    }
+
+    protected boolean isEmbeddedExecutionTree() {
+        return getMongoDbSession().getMongoDbSessionFactory().isEmbeddedExecutionTreeEnabled();
+    }
+
+    protected <T> List<T> findExecutions(Bson filter) {
+        if (isEmbeddedExecutionTree()) {
+            return findInExecutionTrees(filter);
+        }
+        return getMongoDbSession().find(COLLECTION_EXECUTIONS, filter);
+    }
+
+    protected long countExecutions(Bson filter) {
+        if (isEmbeddedExecutionTree()) {
+            List<Bson> pipeline = createExecutionTreePipeline(filter);
+            pipeline.add(Aggregates.count());
+            Document result = getMongoDbSession().aggregate(COLLECTION_EXECUTION_TREES, pipeline).first();
+            return result != null ? ((Number) result.get("count")).longValue() : 0L;
+        }
+        return getMongoDbSession().count(COLLECTION_EXECUTIONS, filter);
+    }
+
+    protected ExecutionEntity findInExecutionTree(String executionId) {
+        ExecutionEntity cachedExecutionEntity = getMongoDbSession().getEntityCache().findInCache(ExecutionEntityImpl.class, executionId);
+        if (cachedExecutionEntity != null) {
+            return cachedExecutionEntity;
+        }
+
+        Document executionTree = getMongoDbSession().findDocuments(COLLECTION_EXECUTION_TREES,
+                Filters.eq(ExecutionTreeWriter.EXECUTION_IDS, executionId)).first();
+        if (executionTree == null) {
+            return null;
+        }
+
+        loadExecutionTree(executionTree);
+        return getMongoDbSession().getEntityCache().findInCache(ExecutionEntityImpl.class, executionId);
+    }
+
+    /**
+     * Executions only get into the cache together with their whole tree,
+     * which is what allows the tree lookups to be answered from the cache.
+     */
+    protected void loadExecutionTree(Document executionTree) {
+        Document executions = (Document) executionTree.get(ExecutionTreeWriter.EXECUTIONS);
+        List<Document> executionDocuments = new ArrayList<>(executions.size());
+        for (Object execution : executions.values()) {
+            executionDocuments.add((Document) execution);
+        }
+        getMongoDbSession().mapToEntities(ExecutionEntityImpl.class, executionDocuments);
+    }
+
+    /**
+     * Matches the executions of all execution trees against the filter,
+     * and returns the matching executions after loading their full trees (in one round trip).
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> List<T> findInExecutionTrees(Bson filter) {
+        List<Bson> pipeline = createExecutionTreePipeline(filter);
+        pipeline.add(Aggregates.group("$rootProcessInstanceId", Accumulators.push("matchingIds", "$_id")));
+        pipeline.add(Aggregates.lookup(COLLECTION_EXECUTION_TREES, "_id", "_id", "tree"));
+
+        List<T> result = new ArrayList<>();
+        for (Document treeResult : getMongoDbSession().aggregate(COLLECTION_EXECUTION_TREES, pipeline)) {
+            List<Document> trees = (List<Document>) treeResult.get("tree");
+            if (trees == null || trees.isEmpty()) {
+                continue;
+            }
+
+            loadExecutionTree(trees.get(0));
+            for (String executionId : (List<String>) treeResult.get("matchingIds")) {
+                ExecutionEntity executionEntity = getMongoDbSession().getEntityCache().findInCache(ExecutionEntityImpl.class, executionId);
+                if (executionEntity != null && !getMongoDbSession().isEntityToBeDeleted(executionEntity)) {
+                    result.add((T) executionEntity);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected List<Bson> createExecutionTreePipeline(Bson filter) {
+        List<Bson> pipeline = new ArrayList<>();
+        if (filter != null) {
+            Bson treeFilter = createExecutionTreeFilter(filter.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry()));
+            if (treeFilter != null) {
+                pipeline.add(Aggregates.match(treeFilter));
+            }
+        }
+        pipeline.add(Aggregates.project(new Document("execution", new Document("$objectToArray", "$" + ExecutionTreeWriter.EXECUTIONS))));
+        pipeline.add(Aggregates.unwind("$execution"));
+        pipeline.add(Aggregates.replaceRoot("$execution.v"));
+        if (filter != null) {
+            pipeline.add(Aggregates.match(filter));
+        }
+        return pipeline;
+    }
+
+    /**
+     * Narrows the execution trees with the indexed executionIds, inlineVariableIds and tree _id before the executions are unwound,
+     * when the filter fixes the id, process instance id, root process instance id or inline variable id of the executions.
+     * Returns null when the filter doesn't fix any of them.
+     */
+    protected Bson createExecutionTreeFilter(BsonDocument filter) {
+        List<Bson> treeFilters = new ArrayList<>();
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            if ("$and".equals(entry.getKey()) && entry.getValue().isArray()) {
+                for (BsonValue andFilter : entry.getValue().asArray()) {
+                    if (andFilter.isDocument()) {
+                        Bson treeFilter = createExecutionTreeFilter(andFilter.asDocument());
+                        if (treeFilter != null) {
+                            treeFilters.add(treeFilter);
+                        }
+                    }
+                }
+
+            } else if ("_id".equals(entry.getKey()) || "processInstanceId".equals(entry.getKey())) {
+                addExecutionTreeFilter(treeFilters, ExecutionTreeWriter.EXECUTION_IDS, entry.getValue());
+
+            } else if ("rootProcessInstanceId".equals(entry.getKey())) {
+                // The tree _id is the root process instance id
+                addExecutionTreeFilter(treeFilters, "_id", entry.getValue());
+
+            } else if ((InlineVariableSupport.INLINE_VARIABLES + "._id").equals(entry.getKey())) {
+                addExecutionTreeFilter(treeFilters, ExecutionTreeWriter.INLINE_VARIABLE_IDS, entry.getValue());
+            }
+        }
+
+        if (treeFilters.isEmpty()) {
+            return null;
+        }
+        return treeFilters.size() == 1 ? treeFilters.get(0) : Filters.and(treeFilters);
+    }
+
+    protected void addExecutionTreeFilter(List<Bson> treeFilters, String treeField, BsonValue value) {
+        if (value.isString()) {
+            treeFilters.add(Filters.eq(treeField, value.asString().getValue()));
+
+        } else if (value.isDocument() && value.asDocument().size() == 1) {
+            BsonValue eqValue = value.asDocument().get("$eq");
+            BsonValue inValue = value.asDocument().get("$in");
+            if (eqValue != null && eqValue.isString()) {
+                treeFilters.add(Filters.eq(treeField, eqValue.asString().getValue()));
+            } else if (inValue != null && inValue.isArray()) {
+                treeFilters.add(new Document(treeField, new Document("$in", inValue)));
+            }
+        }
+    }
 }
@@ -87,7 +87,7 @@ public class MongoDbHistoricProcessInstanceDataManager extends AbstractMongoDbDa
 
     @Override
     public List<HistoricProcessInstance> findHistoricProcessInstancesByQueryCriteria(HistoricProcessInstanceQueryImpl historicProcessInstanceQuery) {
-        return getMongoDbSession().find(COLLECTION_HISTORIC_PROCESS_INSTANCES, createFilter(historicProcessInstanceQuery));
+        return getMongoDbSession().findIncludingArchive(COLLECTION_HISTORIC_PROCESS_INSTANCES, createFilter(historicProcessInstanceQuery));
     }
 
     @Override
@@ -16,8 +16,9 @@ import java.util.List;
 
 import org.flowable.common.engine.impl.persistence.entity.Entity;
 import org.flowable.job.service.impl.persistence.entity.JobByteArrayEntity;
-import org.flowable.job.service.impl.persistence.entity.JobByteArrayEntityImpl;
 import org.flowable.job.service.impl.persistence.entity.data.JobByteArrayDataManager;
+import org.flowable.mongodb.persistence.GridFsByteArrayStore;
+import org.flowable.mongodb.persistence.entity.MongoDbJobByteArrayEntityImpl;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.client.model.Filters;
@@ -36,7 +37,38 @@ public class MongoDbJobByteArrayDataManager extends AbstractMongoDbDataManager<J
 
     @Override
     public JobByteArrayEntity create() {
-        return new JobByteArrayEntityImpl();
+        return new MongoDbJobByteArrayEntityImpl();
+    }
+
+    @Override
+    public JobByteArrayEntity findById(String id) {
+        JobByteArrayEntity jobByteArrayEntity = super.findById(id);
+        if (jobByteArrayEntity instanceof MongoDbJobByteArrayEntityImpl) {
+            MongoDbJobByteArrayEntityImpl mongoDbJobByteArrayEntity = (MongoDbJobByteArrayEntityImpl) jobByteArrayEntity;
+            if (mongoDbJobByteArrayEntity.isStoredInGridFs() && mongoDbJobByteArrayEntity.getBytes() == null) {
+                mongoDbJobByteArrayEntity.setBytes(getGridFsByteArrayStore().load(getMongoDbSession(), id));
+            }
+        }
+        return jobByteArrayEntity;
+    }
+
+    @Override
+    public void insert(JobByteArrayEntity entity) {
+        super.insert(entity); // assigns the id
+
+        GridFsByteArrayStore gridFsByteArrayStore = getGridFsByteArrayStore();
+        if (gridFsByteArrayStore != null && gridFsByteArrayStore.isStoredInGridFs(entity.getBytes())) {
+            gridFsByteArrayStore.store(getMongoDbSession(), entity.getId(), entity.getName(), null, entity.getBytes());
+            ((MongoDbJobByteArrayEntityImpl) entity).setStoredInGridFs(true);
+        }
+    }
+
+    @Override
+    public void delete(JobByteArrayEntity entity) {
+        super.delete(entity);
+        if (entity instanceof MongoDbJobByteArrayEntityImpl && ((MongoDbJobByteArrayEntityImpl) entity).isStoredInGridFs()) {
+            getGridFsByteArrayStore().delete(getMongoDbSession(), entity.getId());
+        }
     }
 
     @Override
@@ -52,6 +84,16 @@ public class MongoDbJobByteArrayDataManager extends AbstractMongoDbDataManager<J
     @Override
     public void deleteByteArrayNoRevisionCheck(String byteArrayEntityId) {
         getMongoDbSession().bulkDelete(COLLECTION_JOB_BYTE_ARRAY, Filters.eq("_id", byteArrayEntityId));
+
+        // Without the entity it's unknown whether the bytes are in GridFS
+        GridFsByteArrayStore gridFsByteArrayStore = getGridFsByteArrayStore();
+        if (gridFsByteArrayStore != null && gridFsByteArrayStore.isEnabled()) {
+            gridFsByteArrayStore.delete(getMongoDbSession(), byteArrayEntityId);
+        }
+    }
+
+    protected GridFsByteArrayStore getGridFsByteArrayStore() {
+        return getMongoDbSession().getMongoDbSessionFactory().getGridFsByteArrayStore();
     }
 
 }
\ No newline at end of file
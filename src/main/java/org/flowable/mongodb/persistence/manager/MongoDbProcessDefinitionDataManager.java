@@ -13,9 +13,11 @@
 package org.flowable.mongodb.persistence.manager;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
 import org.flowable.engine.ProcessEngineConfiguration;
@@ -24,6 +26,7 @@ import org.flowable.engine.impl.persistence.entity.ProcessDefinitionEntity;
 import org.flowable.engine.impl.persistence.entity.data.ProcessDefinitionDataManager;
 import org.flowable.engine.repository.ProcessDefinition;
 import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ProcessDefinitionDocumentCache;
 import org.flowable.mongodb.persistence.entity.MongoDbProcessDefinitionEntityImpl;
 
 import com.mongodb.BasicDBObject;
@@ -60,6 +63,30 @@ public class MongoDbProcessDefinitionDataManager extends AbstractMongoDbDataMana
         return updateObject;
     }
 
+    @Override
+    public ProcessDefinitionEntity findById(String id) {
+        ProcessDefinitionDocumentCache documentCache = getDocumentCache();
+        if (documentCache == null) {
+            return super.findById(id);
+        }
+
+        ProcessDefinitionEntity cachedEntity = getMongoDbSession().getEntityCache().findInCache(MongoDbProcessDefinitionEntityImpl.class, id);
+        if (cachedEntity != null) {
+            return cachedEntity;
+        }
+
+        Document document = documentCache.get(id);
+        if (document == null) {
+            long generation = documentCache.getGeneration();
+            document = findCommittedDocument(Filters.eq("_id", id));
+            if (document == null) {
+                return super.findById(id);
+            }
+            documentCache.put(document, generation);
+        }
+        return toEntity(document);
+    }
+
     @Override
     public void insert(ProcessDefinitionEntity entity) {
         MongoDbProcessDefinitionEntityImpl latestProcessDefinitionEntity = (MongoDbProcessDefinitionEntityImpl)
@@ -72,25 +99,77 @@ public class MongoDbProcessDefinitionDataManager extends AbstractMongoDbDataMana
         }
 
         super.insert(entity);
+
+        // The change stream invalidates the cache of all nodes after the commit, this already prevents stale 'latest' lookups on this node
+        invalidateDocumentCache(null);
     }
 
     @Override
     public ProcessDefinitionEntity findLatestProcessDefinitionByKey(String processDefinitionKey) {
         // TODO. Not all properties included yet. Check the mybatis query for all details.
-        return getMongoDbSession().findOne(COLLECTION_PROCESS_DEFINITIONS,
-            Filters.and(
+        Bson filter = Filters.and(
                 Filters.eq("key", processDefinitionKey),
                 Filters.eq("latest",true)
-            ));
+            );
+        return findLatestProcessDefinition(processDefinitionKey, null, filter);
     }
 
     @Override
     public ProcessDefinitionEntity findLatestProcessDefinitionByKeyAndTenantId(String processDefinitionKey, String tenantId) {
-        return getMongoDbSession().findOne(COLLECTION_PROCESS_DEFINITIONS, Filters.and(
+        Bson filter = Filters.and(
             Filters.eq("key", processDefinitionKey),
             Filters.eq("latest", true),
             Filters.eq("tenantId", tenantId)
-        ));
+        );
+        return findLatestProcessDefinition(processDefinitionKey, tenantId != null ? tenantId : "", filter);
+    }
+
+    protected ProcessDefinitionEntity findLatestProcessDefinition(String processDefinitionKey, String tenantId, Bson filter) {
+        ProcessDefinitionDocumentCache documentCache = getDocumentCache();
+        if (documentCache == null) {
+            return getMongoDbSession().findOne(COLLECTION_PROCESS_DEFINITIONS, filter);
+        }
+
+        String processDefinitionId = documentCache.getLatestProcessDefinitionId(processDefinitionKey, tenantId);
+        if (processDefinitionId != null) {
+            Document document = documentCache.get(processDefinitionId);
+            if (document != null) {
+                return toEntity(document);
+            }
+        }
+
+        long generation = documentCache.getGeneration();
+        Document document = findCommittedDocument(filter);
+        if (document == null) {
+            return getMongoDbSession().findOne(COLLECTION_PROCESS_DEFINITIONS, filter);
+        }
+        documentCache.putLatest(processDefinitionKey, tenantId, document, generation);
+        return toEntity(document);
+    }
+
+    /**
+     * Documents for the node-wide cache are read outside of the transaction, as only committed data can be shared.
+     */
+    protected Document findCommittedDocument(Bson filter) {
+        return getMongoDbSession().getMongoDatabase().getCollection(COLLECTION_PROCESS_DEFINITIONS).find(filter).first();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ProcessDefinitionEntity toEntity(Document document) {
+        // Goes through the entity cache of the command: when the entity is already loaded, that instance is returned
+        List<ProcessDefinitionEntity> entities = getMongoDbSession().mapToEntities(MongoDbProcessDefinitionEntityImpl.class, Collections.singletonList(document));
+        return entities.get(0);
+    }
+
+    protected void invalidateDocumentCache(String processDefinitionId) {
+        ProcessDefinitionDocumentCache documentCache = getDocumentCache();
+        if (documentCache != null) {
+            documentCache.invalidate(processDefinitionId);
+        }
+    }
+
+    protected ProcessDefinitionDocumentCache getDocumentCache() {
+        return getMongoDbSession().getMongoDbSessionFactory().getProcessDefinitionDocumentCache();
     }
 
     @Override
@@ -106,6 +185,7 @@ public class MongoDbProcessDefinitionDataManager extends AbstractMongoDbDataMana
     @Override
     public void deleteProcessDefinitionsByDeploymentId(String deploymentId) {
         getMongoDbSession().bulkDelete(COLLECTION_PROCESS_DEFINITIONS, Filters.eq("deploymentId", deploymentId));
+        invalidateDocumentCache(null);
     }
 
     @Override
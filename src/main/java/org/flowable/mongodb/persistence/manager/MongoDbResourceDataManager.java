@@ -12,21 +12,40 @@
  */
 package org.flowable.mongodb.persistence.manager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.engine.impl.bpmn.deployer.ResourceNameUtil;
 import org.flowable.engine.impl.persistence.entity.ResourceEntity;
-import org.flowable.engine.impl.persistence.entity.ResourceEntityImpl;
 import org.flowable.engine.impl.persistence.entity.data.ResourceDataManager;
 import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.GridFsByteArrayStore;
+import org.flowable.mongodb.persistence.ResourceBytesCache;
+import org.flowable.mongodb.persistence.compression.ByteArrayCompression;
+import org.flowable.mongodb.persistence.entity.MongoDbResourceEntityImpl;
+import org.flowable.mongodb.persistence.entity.MongoDbResourceEntityImpl.ResourceBytesLoader;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 
 /**
+ * Resources are fetched without the bytes of diagram images, which are fetched lazily.
+ * When the {@link ResourceBytesCache} is enabled, resources are fetched without any bytes and only the bytes that aren't cached are fetched separately.
+ * Large resources are stored in GridFS (see {@link GridFsByteArrayStore}).
+ *
  * @author Joram Barrez
  */
-public class MongoDbResourceDataManager extends AbstractMongoDbDataManager<ResourceEntity> implements ResourceDataManager {
+public class MongoDbResourceDataManager extends AbstractMongoDbDataManager<ResourceEntity> implements ResourceDataManager, ResourceBytesLoader {
 
     public static final String COLLECTION_BYTE_ARRAY = "byteArrays";
 
@@ -41,7 +60,7 @@ public class MongoDbResourceDataManager extends AbstractMongoDbDataManager<Resou
 
     @Override
     public ResourceEntity create() {
-        return new ResourceEntityImpl();
+        return new MongoDbResourceEntityImpl();
     }
 
     @Override
@@ -49,24 +68,197 @@ public class MongoDbResourceDataManager extends AbstractMongoDbDataManager<Resou
         return null;
     }
 
+    @Override
+    public void insert(ResourceEntity entity) {
+        super.insert(entity); // assigns the id
+
+        GridFsByteArrayStore gridFsByteArrayStore = getGridFsByteArrayStore();
+        if (gridFsByteArrayStore != null && gridFsByteArrayStore.isStoredInGridFs(entity.getBytes())) {
+            gridFsByteArrayStore.store(getMongoDbSession(), entity.getId(), entity.getName(), entity.getDeploymentId(), entity.getBytes());
+            ((MongoDbResourceEntityImpl) entity).setStoredInGridFs(true);
+        }
+    }
+
     @Override
     public void deleteResourcesByDeploymentId(String deploymentId) {
         getMongoDbSession().bulkDelete(COLLECTION_BYTE_ARRAY, Filters.eq("deploymentId", deploymentId));
+
+        GridFsByteArrayStore gridFsByteArrayStore = getGridFsByteArrayStore();
+        if (gridFsByteArrayStore != null && gridFsByteArrayStore.isEnabled()) {
+            gridFsByteArrayStore.deleteByDeploymentId(getMongoDbSession(), deploymentId);
+        }
+
+        ResourceBytesCache resourceBytesCache = getResourceBytesCache();
+        if (resourceBytesCache != null) {
+            resourceBytesCache.evictDeployment(deploymentId);
+        }
     }
 
     @Override
     public ResourceEntity findResourceByDeploymentIdAndResourceName(String deploymentId, String resourceName) {
-        return getMongoDbSession().findOne(COLLECTION_BYTE_ARRAY,
-            Filters.and(
-                Filters.eq("deploymentId", deploymentId),
-                Filters.eq("name", resourceName)
-            )
+        Bson filter = Filters.and(
+            Filters.eq("deploymentId", deploymentId),
+            Filters.eq("name", resourceName)
         );
+
+        if (getResourceBytesCache() == null) {
+            ResourceEntity resource = getMongoDbSession().findOne(COLLECTION_BYTE_ARRAY, filter);
+            if (resource instanceof MongoDbResourceEntityImpl && !((MongoDbResourceEntityImpl) resource).isBytesLoaded()) {
+                ((MongoDbResourceEntityImpl) resource).setBytesLoader(this);
+            }
+            return resource;
+        }
+
+        // The resource is explicitly requested, so the bytes are needed: they are only fetched when not cached
+        List<ResourceEntity> resources = findResourcesWithoutBytes(filter);
+        if (resources.isEmpty()) {
+            return null;
+        }
+        ResourceEntity resource = resources.get(0);
+        if (resource instanceof MongoDbResourceEntityImpl) {
+            MongoDbResourceEntityImpl mongoDbResource = (MongoDbResourceEntityImpl) resource;
+            if (!mongoDbResource.isBytesLoaded() && !setCachedBytes(mongoDbResource)) {
+                mongoDbResource.setBytesLoader(this);
+            }
+        }
+        return resource;
     }
 
     @Override
     public List<ResourceEntity> findResourcesByDeploymentId(String deploymentId) {
-        return getMongoDbSession().find(COLLECTION_BYTE_ARRAY, Filters.eq("deploymentId", deploymentId));
+        Bson filter = Filters.eq("deploymentId", deploymentId);
+        List<ResourceEntity> resources = getResourceBytesCache() == null ? findResourcesWithoutImageBytes(filter) : findResourcesWithoutBytes(filter);
+
+        Map<String, MongoDbResourceEntityImpl> resourcesToFetch = new HashMap<>();
+        for (ResourceEntity resource : resources) {
+            if (resource instanceof MongoDbResourceEntityImpl) {
+                MongoDbResourceEntityImpl mongoDbResource = (MongoDbResourceEntityImpl) resource;
+                if (mongoDbResource.isBytesLoaded() || setCachedBytes(mongoDbResource)) {
+                    continue;
+                }
+
+                if (isImageResource(mongoDbResource.getName())) {
+                    mongoDbResource.setBytesLoader(this);
+                } else if (mongoDbResource.isStoredInGridFs()) {
+                    setLoadedBytes(mongoDbResource, getGridFsByteArrayStore().load(getMongoDbSession(), mongoDbResource.getId()));
+                } else {
+                    resourcesToFetch.put(mongoDbResource.getId(), mongoDbResource);
+                }
+            }
+        }
+
+        if (!resourcesToFetch.isEmpty()) {
+            for (Document document : getMongoDbSession().findDocuments(COLLECTION_BYTE_ARRAY, Filters.in("_id", new ArrayList<>(resourcesToFetch.keySet())))
+                    .projection(Projections.include("bytes"))) {
+                MongoDbResourceEntityImpl resource = resourcesToFetch.get(document.getString("_id"));
+                setFetchedBytes(resource, document);
+            }
+        }
+
+        return resources;
+    }
+
+    @Override
+    public byte[] loadBytes(MongoDbResourceEntityImpl resource) {
+        // Resources never change once deployed, so the committed bytes can be read outside of any transaction
+        if (resource.isStoredInGridFs()) {
+            return setLoadedBytes(resource, getGridFsByteArrayStore().load(resource.getId()));
+        }
+
+        Document document = ((MongoDbProcessEngineConfiguration) engineConfiguration).getMongoDatabase().getCollection(COLLECTION_BYTE_ARRAY)
+            .find(Filters.eq("_id", resource.getId()))
+            .projection(Projections.include("bytes"))
+            .first();
+        return setFetchedBytes(resource, document);
+    }
+
+    protected List<ResourceEntity> findResourcesWithoutBytes(Bson filter) {
+        return getMongoDbSession().mapToEntities(COLLECTION_BYTE_ARRAY,
+            getMongoDbSession().findDocuments(COLLECTION_BYTE_ARRAY, filter).projection(Projections.exclude("bytes")));
+    }
+
+    /**
+     * Fetches the resources in one query, with the bytes of all resources except the diagram images.
+     */
+    protected List<ResourceEntity> findResourcesWithoutImageBytes(Bson filter) {
+        List<Bson> imageConditions = new ArrayList<>();
+        for (String suffix : ResourceNameUtil.DIAGRAM_SUFFIXES) {
+            imageConditions.add(createNameEndsWithExpression("." + suffix));
+        }
+
+        List<Bson> pipeline = Arrays.asList(
+            Aggregates.match(filter),
+            Aggregates.addFields(new Field<>("bytes", new Document("$cond", Arrays.asList(new Document("$or", imageConditions), "$$REMOVE", "$bytes"))))
+        );
+        return getMongoDbSession().mapToEntities(MongoDbResourceEntityImpl.class, getMongoDbSession().aggregate(COLLECTION_BYTE_ARRAY, pipeline));
+    }
+
+    /**
+     * Case insensitive check on the end of the resource name, with $substrCP as $regexMatch needs MongoDB 4.2.
+     */
+    protected Document createNameEndsWithExpression(String suffix) {
+        Document lowerCaseName = new Document("$toLower", "$name");
+        Document start = new Document("$max", Arrays.asList(0, new Document("$subtract", Arrays.asList(new Document("$strLenCP", lowerCaseName), suffix.length()))));
+        return new Document("$eq", Arrays.asList(new Document("$substrCP", Arrays.asList(lowerCaseName, start, suffix.length())), suffix));
+    }
+
+    protected boolean setCachedBytes(MongoDbResourceEntityImpl resource) {
+        ResourceBytesCache resourceBytesCache = getResourceBytesCache();
+        if (resourceBytesCache != null) {
+            byte[] bytes = resourceBytesCache.get(resource.getDeploymentId(), resource.getName());
+            if (bytes != null) {
+                resource.setBytes(bytes);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected byte[] setFetchedBytes(MongoDbResourceEntityImpl resource, Document document) {
+        if (document == null) {
+            return null;
+        }
+        // Decompresses the bytes, if stored compressed
+        return setLoadedBytes(resource, getByteArrayCompression().fromStoredValue(document.get("bytes")));
+    }
+
+    protected byte[] setLoadedBytes(MongoDbResourceEntityImpl resource, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        resource.setBytes(bytes);
+
+        ResourceBytesCache resourceBytesCache = getResourceBytesCache();
+        if (resourceBytesCache != null) {
+            resourceBytesCache.put(resource.getDeploymentId(), resource.getName(), bytes);
+        }
+        return bytes;
+    }
+
+    protected boolean isImageResource(String resourceName) {
+        if (resourceName == null) {
+            return false;
+        }
+        String lowerCaseResourceName = resourceName.toLowerCase(Locale.ROOT);
+        for (String suffix : ResourceNameUtil.DIAGRAM_SUFFIXES) {
+            if (lowerCaseResourceName.endsWith("." + suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected ByteArrayCompression getByteArrayCompression() {
+        return ((MongoDbProcessEngineConfiguration) engineConfiguration).getByteArrayCompression();
+    }
+
+    protected GridFsByteArrayStore getGridFsByteArrayStore() {
+        return ((MongoDbProcessEngineConfiguration) engineConfiguration).getGridFsByteArrayStore();
+    }
+
+    protected ResourceBytesCache getResourceBytesCache() {
+        return ((MongoDbProcessEngineConfiguration) engineConfiguration).getResourceBytesCache();
     }
 
 }
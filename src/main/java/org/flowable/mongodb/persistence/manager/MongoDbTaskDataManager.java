@@ -13,19 +13,31 @@
 package org.flowable.mongodb.persistence.manager;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.identitylink.service.impl.persistence.entity.IdentityLinkEntity;
+import org.flowable.identitylink.service.impl.persistence.entity.IdentityLinkEntityImpl;
+import org.flowable.mongodb.persistence.InlineVariableSupport;
 import org.flowable.task.api.Task;
 import org.flowable.task.service.impl.TaskQueryImpl;
 import org.flowable.task.service.impl.TaskQueryProperty;
 import org.flowable.task.service.impl.persistence.entity.TaskEntity;
 import org.flowable.task.service.impl.persistence.entity.TaskEntityImpl;
 import org.flowable.task.service.impl.persistence.entity.data.TaskDataManager;
+import org.flowable.task.service.impl.util.CommandContextUtil;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntity;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntityImpl;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
 
@@ -52,9 +64,20 @@ public class MongoDbTaskDataManager extends AbstractMongoDbDataManager<TaskEntit
         BasicDBObject updateObject = null;
         updateObject = setUpdateProperty(taskEntity, "assignee", taskEntity.getAssignee(), updateObject);
         updateObject = setUpdateProperty(taskEntity, "owner", taskEntity.getOwner(), updateObject);
+        updateObject = setCounterProperties(taskEntity, updateObject);
         return updateObject;
     }
 
+    @Override
+    protected Map<String, Integer> getCounters(Entity entity) {
+        TaskEntityImpl taskEntity = (TaskEntityImpl) entity;
+        Map<String, Integer> counters = new LinkedHashMap<>();
+        counters.put("variableCount", taskEntity.getVariableCount());
+        counters.put("identityLinkCount", taskEntity.getIdentityLinkCount());
+        counters.put("subTaskCount", taskEntity.getSubTaskCount());
+        return counters;
+    }
+
     @Override
     public List<TaskEntity> findTasksByExecutionId(String executionId) {
         Bson filter = Filters.eq("executionId", executionId);
@@ -89,8 +112,105 @@ public class MongoDbTaskDataManager extends AbstractMongoDbDataManager<TaskEntit
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public List<Task> findTasksWithRelatedEntitiesByQueryCriteria(TaskQueryImpl taskQuery) {
-        throw new UnsupportedOperationException();
+        boolean inlineOrEmbedded = getMongoDbSession().getInlineVariableSupport() != null
+                || getMongoDbSession().getMongoDbSessionFactory().isEmbeddedExecutionTreeEnabled();
+
+        List<Bson> pipeline = new ArrayList<>();
+        Bson filter = createFilter(taskQuery);
+        if (filter != null) {
+            pipeline.add(Aggregates.match(filter));
+        }
+        Bson sort = createSort(taskQuery);
+        if (sort != null) {
+            pipeline.add(Aggregates.sort(sort));
+        }
+        addPaging(pipeline, taskQuery);
+
+        if (taskQuery.isIncludeTaskLocalVariables()) {
+            pipeline.add(Aggregates.lookup(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, "_id", "taskId", "queryTaskVariables"));
+        }
+        if (taskQuery.isIncludeProcessVariables() && !inlineOrEmbedded) {
+            pipeline.add(Aggregates.lookup(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, "processInstanceId", "executionId", "queryProcessVariables"));
+        }
+        if (taskQuery.isIncludeIdentityLinks()) {
+            pipeline.add(Aggregates.lookup(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, "_id", "taskId", "queryIdentityLinks"));
+        }
+
+        List<TaskEntity> tasks = new ArrayList<>();
+        List<Document> taskDocuments = new ArrayList<>();
+        for (Document taskDocument : getMongoDbSession().aggregate(COLLECTION_TASKS, pipeline)) {
+            List<TaskEntity> mappedTasks = getMongoDbSession().mapToEntities(TaskEntityImpl.class, Collections.singletonList(taskDocument));
+            tasks.add(mappedTasks.get(0));
+            taskDocuments.add(taskDocument);
+        }
+
+        // With inline variables or embedded execution trees the process variables are not all in the variables collection
+        List<VariableInstanceEntity> processVariables = null;
+        if (taskQuery.isIncludeProcessVariables() && inlineOrEmbedded) {
+            Set<String> processInstanceIds = new HashSet<>();
+            for (TaskEntity task : tasks) {
+                if (task.getProcessInstanceId() != null) {
+                    processInstanceIds.add(task.getProcessInstanceId());
+                }
+            }
+            processVariables = processInstanceIds.isEmpty() ? Collections.<VariableInstanceEntity>emptyList()
+                    : getVariableDataManager().findVariableInstancesByExecutionIds(processInstanceIds);
+        }
+
+        int variablesLimit = taskQuery.getTaskVariablesLimit() != null
+                ? taskQuery.getTaskVariablesLimit() : CommandContextUtil.getTaskServiceConfiguration().getTaskQueryLimit();
+        for (int i = 0; i < tasks.size(); i++) {
+            TaskEntityImpl task = (TaskEntityImpl) tasks.get(i);
+            Document taskDocument = taskDocuments.get(i);
+
+            List<VariableInstanceEntity> queryVariables = new ArrayList<>();
+            if (taskQuery.isIncludeTaskLocalVariables()) {
+                List<VariableInstanceEntity> taskVariables = getMongoDbSession().mapToEntities(
+                        VariableInstanceEntityImpl.class, (List<Document>) taskDocument.get("queryTaskVariables"));
+                addQueryVariables(queryVariables, taskVariables, variablesLimit);
+                List<Document> inlineVariables = (List<Document>) taskDocument.get(InlineVariableSupport.INLINE_VARIABLES);
+                if (getMongoDbSession().getInlineVariableSupport() != null && inlineVariables != null) {
+                    // Already put in the cache when the task document was mapped
+                    addQueryVariables(queryVariables, getMongoDbSession().mapToEntities(VariableInstanceEntityImpl.class, inlineVariables), variablesLimit);
+                }
+            }
+            if (taskQuery.isIncludeProcessVariables() && task.getProcessInstanceId() != null) {
+                List<VariableInstanceEntity> variables = processVariables != null ? processVariables : getMongoDbSession().mapToEntities(
+                        VariableInstanceEntityImpl.class, (List<Document>) taskDocument.get("queryProcessVariables"));
+                for (VariableInstanceEntity variable : variables) {
+                    // Only the process instance scope variables, not the task local ones
+                    if (task.getProcessInstanceId().equals(variable.getExecutionId()) && variable.getTaskId() == null) {
+                        addQueryVariables(queryVariables, Collections.singletonList(variable), variablesLimit);
+                    }
+                }
+            }
+            if (taskQuery.isIncludeTaskLocalVariables() || taskQuery.isIncludeProcessVariables()) {
+                task.setQueryVariables(queryVariables);
+            }
+
+            if (taskQuery.isIncludeIdentityLinks()) {
+                List<IdentityLinkEntity> identityLinks = getMongoDbSession().mapToEntities(
+                        IdentityLinkEntityImpl.class, (List<Document>) taskDocument.get("queryIdentityLinks"));
+                task.setQueryIdentityLinks(identityLinks);
+            }
+        }
+
+        return new ArrayList<>(tasks);
+    }
+
+    protected void addQueryVariables(List<VariableInstanceEntity> queryVariables, List<VariableInstanceEntity> variables, int variablesLimit) {
+        for (VariableInstanceEntity variable : variables) {
+            if (queryVariables.size() < variablesLimit && !queryVariables.contains(variable)) {
+                queryVariables.add(variable);
+            }
+        }
+    }
+
+    protected MongoDbVariableInstanceDataManager getVariableDataManager() {
+        return (MongoDbVariableInstanceDataManager) getMongoDbSession().getMongoDbSessionFactory()
+                .getDataManagerForCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES);
     }
 
     @Override
@@ -61,7 +61,7 @@ public class MongoDbTimerJobDataManager extends AbstractMongoDbDataManager<Timer
         updateObject = setUpdateProperty(jobEntity, "exceptionMessage", jobEntity.getExceptionMessage(), updateObject);
         updateObject = setUpdateProperty(jobEntity, "lockOwner", jobEntity.getLockOwner(), updateObject);
         updateObject = setUpdateProperty(jobEntity, "lockExpirationTime", jobEntity.getLockExpirationTime(), updateObject);
-        updateObject = setUpdateProperty(jobEntity, "dueDate", jobEntity.getDuedate(), updateObject);
+        updateObject = setUpdateProperty(jobEntity, "duedate", jobEntity.getDuedate(), updateObject);
         return updateObject;
     }
 
@@ -12,17 +12,30 @@
  */
 package org.flowable.mongodb.persistence.manager;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.InlineVariableSupport;
+import org.flowable.mongodb.persistence.manager.cachematcher.VariableInstancesByExecutionAndNamesMatcher;
+import org.flowable.mongodb.persistence.manager.cachematcher.VariableInstancesByExecutionIdsMatcher;
+import org.flowable.mongodb.persistence.manager.cachematcher.VariableInstancesByTaskAndNamesMatcher;
+import org.flowable.mongodb.persistence.manager.cachematcher.VariableInstancesByTaskIdsMatcher;
+import org.flowable.variable.service.impl.QueryOperator;
+import org.flowable.variable.service.impl.QueryVariableValue;
 import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntity;
 import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntityImpl;
 import org.flowable.variable.service.impl.persistence.entity.data.VariableInstanceDataManager;
 import org.flowable.variable.service.impl.persistence.entity.data.impl.cachematcher.VariableInstanceByExecutionIdMatcher;
+import org.flowable.variable.service.impl.persistence.entity.data.impl.cachematcher.VariableInstanceByTaskIdMatcher;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.client.model.Filters;
@@ -36,6 +49,16 @@ public class MongoDbVariableInstanceDataManager extends AbstractMongoDbDataManag
 
     protected VariableInstanceByExecutionIdMatcher variableInstanceByExecutionIdMatcher = new VariableInstanceByExecutionIdMatcher();
 
+    protected VariableInstanceByTaskIdMatcher variableInstanceByTaskIdMatcher = new VariableInstanceByTaskIdMatcher();
+
+    protected VariableInstancesByExecutionIdsMatcher variableInstancesByExecutionIdsMatcher = new VariableInstancesByExecutionIdsMatcher();
+
+    protected VariableInstancesByTaskIdsMatcher variableInstancesByTaskIdsMatcher = new VariableInstancesByTaskIdsMatcher();
+
+    protected VariableInstancesByExecutionAndNamesMatcher variableInstancesByExecutionAndNamesMatcher = new VariableInstancesByExecutionAndNamesMatcher();
+
+    protected VariableInstancesByTaskAndNamesMatcher variableInstancesByTaskAndNamesMatcher = new VariableInstancesByTaskAndNamesMatcher();
+
     @Override
     public String getCollection() {
         return COLLECTION_VARIABLES;
@@ -46,6 +69,23 @@ public class MongoDbVariableInstanceDataManager extends AbstractMongoDbDataManag
         return new VariableInstanceEntityImpl();
     }
 
+    @Override
+    public VariableInstanceEntity findById(String id) {
+        VariableInstanceEntity variableInstanceEntity = super.findById(id);
+        if (variableInstanceEntity == null && getInlineVariableSupport() != null) {
+            // Loading the owner document puts its inline variables in the cache.
+            // With the embedded execution tree, the trees are matched on their indexed inline variable ids first.
+            Bson filter = Filters.eq(InlineVariableSupport.INLINE_VARIABLES + "._id", id);
+            MongoDbExecutionDataManager executionDataManager = (MongoDbExecutionDataManager) getMongoDbSession().getMongoDbSessionFactory()
+                    .getDataManagerForCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
+            if (executionDataManager.findExecutions(filter).isEmpty()) {
+                getMongoDbSession().findOne(MongoDbTaskDataManager.COLLECTION_TASKS, filter);
+            }
+            variableInstanceEntity = getMongoDbSession().getEntityCache().findInCache(VariableInstanceEntityImpl.class, id);
+        }
+        return variableInstanceEntity;
+    }
+
     @Override
     public BasicDBObject createUpdateObject(Entity entity) {
         VariableInstanceEntity variableEntity = (VariableInstanceEntity) entity;
@@ -60,45 +100,137 @@ public class MongoDbVariableInstanceDataManager extends AbstractMongoDbDataManag
 
     @Override
     public List<VariableInstanceEntity> findVariableInstancesByTaskId(String taskId) {
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureTaskLoaded(inlineVariableSupport, taskId);
+            if (!inlineVariableSupport.hasExternalTaskVariables(taskId)) {
+                return getMongoDbSession().findFromCache(variableInstanceByTaskIdMatcher, taskId, VariableInstanceEntityImpl.class);
+            }
+            return getMongoDbSession().find(COLLECTION_VARIABLES, Filters.eq("taskId", taskId), taskId,
+                    VariableInstanceEntityImpl.class, variableInstanceByTaskIdMatcher, true);
+        }
         return getMongoDbSession().find(COLLECTION_VARIABLES, Filters.eq("taskId", taskId));
     }
 
     @Override
     public List<VariableInstanceEntity> findVariableInstancesByTaskIds(Set<String> taskIds) {
-        throw new UnsupportedOperationException();
+        Collection<String> queriedTaskIds = taskIds;
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureTasksLoaded(inlineVariableSupport, taskIds);
+            queriedTaskIds = new ArrayList<>();
+            for (String taskId : taskIds) {
+                if (inlineVariableSupport.hasExternalTaskVariables(taskId)) {
+                    queriedTaskIds.add(taskId);
+                }
+            }
+            if (queriedTaskIds.isEmpty()) {
+                return getMongoDbSession().findFromCache(variableInstancesByTaskIdsMatcher, taskIds, VariableInstanceEntityImpl.class);
+            }
+        }
+
+        return getMongoDbSession().find(COLLECTION_VARIABLES, Filters.in("taskId", queriedTaskIds), taskIds,
+                VariableInstanceEntityImpl.class, variableInstancesByTaskIdsMatcher, true);
     }
 
     @Override
     public List<VariableInstanceEntity> findVariableInstancesByExecutionId(String executionId) {
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureExecutionLoaded(inlineVariableSupport, executionId);
+            if (!inlineVariableSupport.hasExternalExecutionVariables(executionId)) {
+                return getMongoDbSession().findFromCache(variableInstanceByExecutionIdMatcher, executionId, VariableInstanceEntityImpl.class);
+            }
+        }
         return getMongoDbSession().find(COLLECTION_VARIABLES, Filters.eq("executionId", executionId), executionId,
                 VariableInstanceEntityImpl.class, variableInstanceByExecutionIdMatcher, true);
     }
 
     @Override
     public List<VariableInstanceEntity> findVariableInstancesByExecutionIds(Set<String> executionIds) {
-        throw new UnsupportedOperationException();
+        Collection<String> queriedExecutionIds = executionIds;
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureExecutionsLoaded(inlineVariableSupport, executionIds);
+            queriedExecutionIds = new ArrayList<>();
+            for (String executionId : executionIds) {
+                if (inlineVariableSupport.hasExternalExecutionVariables(executionId)) {
+                    queriedExecutionIds.add(executionId);
+                }
+            }
+            if (queriedExecutionIds.isEmpty()) {
+                return getMongoDbSession().findFromCache(variableInstancesByExecutionIdsMatcher, executionIds, VariableInstanceEntityImpl.class);
+            }
+        }
+
+        return getMongoDbSession().find(COLLECTION_VARIABLES, Filters.in("executionId", queriedExecutionIds), executionIds,
+                VariableInstanceEntityImpl.class, variableInstancesByExecutionIdsMatcher, true);
     }
 
     @Override
     public VariableInstanceEntity findVariableInstanceByExecutionAndName(String executionId, String variableName) {
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureExecutionLoaded(inlineVariableSupport, executionId);
+            VariableInstanceEntity variableInstanceEntity = findInCacheByName(
+                    getMongoDbSession().findFromCache(variableInstanceByExecutionIdMatcher, executionId, VariableInstanceEntityImpl.class), variableName);
+            if (variableInstanceEntity != null || !inlineVariableSupport.hasExternalExecutionVariables(executionId)) {
+                return variableInstanceEntity;
+            }
+        }
         Bson filter = Filters.and(Filters.eq("executionId", executionId), Filters.eq("name", variableName));
         return getMongoDbSession().findOne(COLLECTION_VARIABLES, filter);
     }
 
     @Override
     public List<VariableInstanceEntity> findVariableInstancesByExecutionAndNames(String executionId, Collection<String> names) {
-        throw new UnsupportedOperationException();
+        Map<String, Object> params = new HashMap<>(2);
+        params.put("executionId", executionId);
+        params.put("names", names);
+
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureExecutionLoaded(inlineVariableSupport, executionId);
+            if (!inlineVariableSupport.hasExternalExecutionVariables(executionId)) {
+                return getMongoDbSession().findFromCache(variableInstancesByExecutionAndNamesMatcher, params, VariableInstanceEntityImpl.class);
+            }
+        }
+
+        Bson filter = Filters.and(Filters.eq("executionId", executionId), Filters.in("name", names));
+        return getMongoDbSession().find(COLLECTION_VARIABLES, filter, params, VariableInstanceEntityImpl.class, variableInstancesByExecutionAndNamesMatcher, true);
     }
 
     @Override
     public VariableInstanceEntity findVariableInstanceByTaskAndName(String taskId, String variableName) {
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureTaskLoaded(inlineVariableSupport, taskId);
+            VariableInstanceEntity variableInstanceEntity = findInCacheByName(
+                    getMongoDbSession().findFromCache(variableInstanceByTaskIdMatcher, taskId, VariableInstanceEntityImpl.class), variableName);
+            if (variableInstanceEntity != null || !inlineVariableSupport.hasExternalTaskVariables(taskId)) {
+                return variableInstanceEntity;
+            }
+        }
         Bson filter = Filters.and(Filters.eq("taskId", taskId), Filters.eq("name", variableName));
         return getMongoDbSession().findOne(COLLECTION_VARIABLES, filter);
     }
 
     @Override
     public List<VariableInstanceEntity> findVariableInstancesByTaskAndNames(String taskId, Collection<String> names) {
-        throw new UnsupportedOperationException();
+        Map<String, Object> params = new HashMap<>(2);
+        params.put("taskId", taskId);
+        params.put("names", names);
+
+        InlineVariableSupport inlineVariableSupport = getInlineVariableSupport();
+        if (inlineVariableSupport != null) {
+            ensureTaskLoaded(inlineVariableSupport, taskId);
+            if (!inlineVariableSupport.hasExternalTaskVariables(taskId)) {
+                return getMongoDbSession().findFromCache(variableInstancesByTaskAndNamesMatcher, params, VariableInstanceEntityImpl.class);
+            }
+        }
+
+        Bson filter = Filters.and(Filters.eq("taskId", taskId), Filters.in("name", names));
+        return getMongoDbSession().find(COLLECTION_VARIABLES, filter, params, VariableInstanceEntityImpl.class, variableInstancesByTaskAndNamesMatcher, true);
     }
 
     @Override
@@ -158,8 +290,173 @@ public class MongoDbVariableInstanceDataManager extends AbstractMongoDbDataManag
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Returns the ids of the executions having a variable that matches the query variable value.
+     * Used as semi-join by the execution and process instance queries.
+     */
+    public List<String> findExecutionIdsByQueryVariableValue(QueryVariableValue queryVariableValue) {
+        return getMongoDbSession().distinct(COLLECTION_VARIABLES, "executionId", createQueryVariableValueFilter(queryVariableValue));
+    }
+
+    /**
+     * Creates the filter on the variable fields for a query variable value.
+     * The filter is also usable in an $elemMatch on inline variables, as those have the same fields.
+     */
+    public Bson createQueryVariableValueFilter(QueryVariableValue queryVariableValue) {
+        List<Bson> filters = new ArrayList<>();
+        if (queryVariableValue.getName() != null) {
+            filters.add(Filters.eq("name", queryVariableValue.getName()));
+        }
+        filters.add(Filters.eq("taskId", null));
+
+        QueryOperator operator = QueryOperator.valueOf(queryVariableValue.getOperator());
+        if (operator == QueryOperator.EXISTS || operator == QueryOperator.NOT_EXISTS) {
+            // Not exists is handled by the caller, by excluding the executions having the variable
+            return makeAndFilter(filters);
+        }
+
+        if ("null".equals(queryVariableValue.getType())) {
+            filters.add(Filters.eq("typeName", "null"));
+            return makeAndFilter(filters);
+        }
+        filters.add(Filters.ne("typeName", "null"));
+
+        List<Bson> valueFilters = new ArrayList<>();
+        addValueFilter(valueFilters, "textValue", queryVariableValue.getTextValue(), operator);
+        addValueFilter(valueFilters, "textValue2", queryVariableValue.getTextValue2(), operator);
+        if (operator != QueryOperator.LIKE && operator != QueryOperator.LIKE_IGNORE_CASE
+                && operator != QueryOperator.EQUALS_IGNORE_CASE && operator != QueryOperator.NOT_EQUALS_IGNORE_CASE) {
+            addValueFilter(valueFilters, "longValue", queryVariableValue.getLongValue(), operator);
+            addValueFilter(valueFilters, "doubleValue", queryVariableValue.getDoubleValue(), operator);
+        }
+
+        if (operator == QueryOperator.NOT_EQUALS) {
+            // Same as the relational counterpart: the value is different when not all value fields are equal
+            filters.add(Filters.nor(makeAndFilter(valueFilters)));
+        } else {
+            filters.addAll(valueFilters);
+        }
+        return makeAndFilter(filters);
+    }
+
+    protected void addValueFilter(List<Bson> valueFilters, String fieldName, Object value, QueryOperator operator) {
+        if (value == null) {
+            return;
+        }
+
+        switch (operator) {
+        case EQUALS:
+        case NOT_EQUALS:
+            valueFilters.add(Filters.eq(fieldName, value));
+            break;
+        case GREATER_THAN:
+            valueFilters.add(Filters.gt(fieldName, value));
+            break;
+        case GREATER_THAN_OR_EQUAL:
+            valueFilters.add(Filters.gte(fieldName, value));
+            break;
+        case LESS_THAN:
+            valueFilters.add(Filters.lt(fieldName, value));
+            break;
+        case LESS_THAN_OR_EQUAL:
+            valueFilters.add(Filters.lte(fieldName, value));
+            break;
+        case EQUALS_IGNORE_CASE:
+            valueFilters.add(Filters.regex(fieldName, "^" + Pattern.quote(value.toString()) + "$", "i"));
+            break;
+        case NOT_EQUALS_IGNORE_CASE:
+            valueFilters.add(Filters.not(Filters.regex(fieldName, "^" + Pattern.quote(value.toString()) + "$", "i")));
+            break;
+        case LIKE:
+            valueFilters.add(Filters.regex(fieldName, toRegex(value.toString())));
+            break;
+        case LIKE_IGNORE_CASE:
+            valueFilters.add(Filters.regex(fieldName, toRegex(value.toString()), "i"));
+            break;
+        default:
+            break;
+        }
+    }
+
+    protected String toRegex(String likeValue) {
+        StringBuilder regex = new StringBuilder("^");
+        String[] parts = likeValue.split("%", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (!parts[i].isEmpty()) {
+                regex.append(Pattern.quote(parts[i]));
+            }
+        }
+        return regex.append("$").toString();
+    }
+
     public VariableInstanceEntityImpl transformToEntity(Document document) {
         throw new UnsupportedOperationException();
     }
 
+    protected InlineVariableSupport getInlineVariableSupport() {
+        return getMongoDbSession().getInlineVariableSupport();
+    }
+
+    /**
+     * The inline variables are only known after the owner document has been loaded in the current session.
+     */
+    protected void ensureExecutionLoaded(InlineVariableSupport inlineVariableSupport, String executionId) {
+        if (!inlineVariableSupport.isExecutionLoaded(executionId)) {
+            getMongoDbSession().getMongoDbSessionFactory().getDataManagerForCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).findById(executionId);
+        }
+    }
+
+    protected void ensureExecutionsLoaded(InlineVariableSupport inlineVariableSupport, Collection<String> executionIds) {
+        List<String> executionIdsToLoad = new ArrayList<>();
+        for (String executionId : executionIds) {
+            if (!inlineVariableSupport.isExecutionLoaded(executionId)) {
+                executionIdsToLoad.add(executionId);
+            }
+        }
+
+        if (!executionIdsToLoad.isEmpty()) {
+            if (getMongoDbSession().getMongoDbSessionFactory().isEmbeddedExecutionTreeEnabled()) {
+                MongoDbExecutionDataManager executionDataManager = (MongoDbExecutionDataManager) getMongoDbSession().getMongoDbSessionFactory()
+                        .getDataManagerForCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
+                for (Document executionTree : getMongoDbSession().findDocuments(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES,
+                        Filters.in(ExecutionTreeWriter.EXECUTION_IDS, executionIdsToLoad))) {
+                    executionDataManager.loadExecutionTree(executionTree);
+                }
+            } else {
+                getMongoDbSession().find(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, Filters.in("_id", executionIdsToLoad));
+            }
+        }
+    }
+
+    protected void ensureTaskLoaded(InlineVariableSupport inlineVariableSupport, String taskId) {
+        if (!inlineVariableSupport.isTaskLoaded(taskId)) {
+            getMongoDbSession().findOne(MongoDbTaskDataManager.COLLECTION_TASKS, taskId);
+        }
+    }
+
+    protected void ensureTasksLoaded(InlineVariableSupport inlineVariableSupport, Collection<String> taskIds) {
+        List<String> taskIdsToLoad = new ArrayList<>();
+        for (String taskId : taskIds) {
+            if (!inlineVariableSupport.isTaskLoaded(taskId)) {
+                taskIdsToLoad.add(taskId);
+            }
+        }
+
+        if (!taskIdsToLoad.isEmpty()) {
+            getMongoDbSession().find(MongoDbTaskDataManager.COLLECTION_TASKS, Filters.in("_id", taskIdsToLoad));
+        }
+    }
+
+    protected VariableInstanceEntity findInCacheByName(List<VariableInstanceEntity> variables, String variableName) {
+        for (VariableInstanceEntity variable : variables) {
+            if (variableName.equals(variable.getName())) {
+                return variable;
+            }
+        }
+        return null;
+    }
+
 }
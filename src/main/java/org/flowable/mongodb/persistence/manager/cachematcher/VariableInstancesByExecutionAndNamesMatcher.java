@@ -0,0 +1,36 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.persistence.manager.cachematcher;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.flowable.common.engine.impl.persistence.cache.CachedEntityMatcherAdapter;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntity;
+
+/**
+ * Matches the variables with the given executionId and one of the given names.
+ * The parameter is a {@link Map} with the 'executionId' and 'names' keys.
+ *
+ * @author Joram Barrez
+ */
+public class VariableInstancesByExecutionAndNamesMatcher extends CachedEntityMatcherAdapter<VariableInstanceEntity> {
+
+    @Override
+    public boolean isRetained(VariableInstanceEntity entity, Object param) {
+        Map<?, ?> parameters = (Map<?, ?>) param;
+        return entity.getExecutionId() != null && entity.getExecutionId().equals(parameters.get("executionId"))
+                && ((Collection<?>) parameters.get("names")).contains(entity.getName());
+    }
+
+}
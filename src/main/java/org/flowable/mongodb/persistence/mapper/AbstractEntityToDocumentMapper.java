@@ -15,14 +15,18 @@ package org.flowable.mongodb.persistence.mapper;
 import java.util.Date;
 
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.flowable.common.engine.impl.persistence.entity.Entity;
 import org.flowable.mongodb.persistence.EntityToDocumentMapper;
+import org.flowable.mongodb.persistence.compression.ByteArrayCompression;
 
 /**
  * @author Joram Barrez
  */
 public abstract class AbstractEntityToDocumentMapper<T extends Entity> implements EntityToDocumentMapper<T> {
 
+    protected ByteArrayCompression byteArrayCompression;
+
     protected void appendIfNotNull(Document document, String field, String value) {
         if (value != null) {
             document.append(field, value);
@@ -61,8 +65,24 @@ public abstract class AbstractEntityToDocumentMapper<T extends Entity> implement
 
     protected void appendIfNotNull(Document document, String field, byte[] value) {
         if (value != null) {
-            document.append(field, value);
+            document.append(field, byteArrayCompression != null ? byteArrayCompression.toStoredValue(value) : value);
+        }
+    }
+
+    protected byte[] getBytes(Document document, String field) {
+        Object value = document.get(field);
+        if (byteArrayCompression != null) {
+            return byteArrayCompression.fromStoredValue(value);
         }
+        return value != null ? ((Binary) value).getData() : null;
+    }
+
+    public ByteArrayCompression getByteArrayCompression() {
+        return byteArrayCompression;
+    }
+
+    public void setByteArrayCompression(ByteArrayCompression byteArrayCompression) {
+        this.byteArrayCompression = byteArrayCompression;
     }
 
 }
@@ -12,8 +12,13 @@
  */
 package org.flowable.mongodb.persistence.mapper;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.bson.Document;
+import org.flowable.common.engine.impl.context.Context;
 import org.flowable.engine.impl.persistence.entity.ExecutionEntityImpl;
+import org.flowable.engine.repository.ProcessDefinition;
 import org.flowable.mongodb.persistence.EntityToDocumentMapper;
 
 /**
@@ -21,6 +26,8 @@ import org.flowable.mongodb.persistence.EntityToDocumentMapper;
  */
 public class ExecutionEntityMapper extends AbstractEntityToDocumentMapper<ExecutionEntityImpl> {
 
+    protected Map<String, Document> processDefinitionFields = new ConcurrentHashMap<>();
+
     @Override
     public ExecutionEntityImpl fromDocument(Document document) {
         ExecutionEntityImpl executionEntity = new ExecutionEntityImpl();
@@ -47,6 +54,12 @@ public class ExecutionEntityMapper extends AbstractEntityToDocumentMapper<Execut
         executionEntity.setCallbackId(document.getString("callBackId"));
         executionEntity.setCallbackType(document.getString("callbackType"));
 
+        // Denormalized process definition
+        executionEntity.setProcessDefinitionKey(document.getString("processDefinitionKey"));
+        executionEntity.setProcessDefinitionName(document.getString("processDefinitionName"));
+        executionEntity.setProcessDefinitionVersion(document.getInteger("processDefinitionVersion"));
+        executionEntity.setDeploymentId(document.getString("deploymentId"));
+
         // Entity counts settings
         executionEntity.setCountEnabled(document.getBoolean("countEnabled"));
         executionEntity.setEventSubscriptionCount(document.getInteger("eventSubscriptionCount"));
@@ -77,6 +90,7 @@ public class ExecutionEntityMapper extends AbstractEntityToDocumentMapper<Execut
         appendIfNotNull(executionDocument, "isMultiInstanceRoot", executionEntity.isMultiInstanceRoot());
         appendIfNotNull(executionDocument, "parentId", executionEntity.getParentId());
         appendIfNotNull(executionDocument, "superExecutionId", executionEntity.getSuperExecutionId());
+        appendSuperProcessInstanceId(executionDocument, executionEntity);
         appendIfNotNull(executionDocument, "rootProcessInstanceId", executionEntity.getRootProcessInstanceId());
         appendIfNotNull(executionDocument, "suspensionState", executionEntity.getSuspensionState());
         appendIfNotNull(executionDocument, "tenantId", executionEntity.getTenantId());
@@ -87,6 +101,9 @@ public class ExecutionEntityMapper extends AbstractEntityToDocumentMapper<Execut
         appendIfNotNull(executionDocument, "callbackId", executionEntity.getCallbackId());
         appendIfNotNull(executionDocument, "callbackType", executionEntity.getCallbackType());
 
+        // Denormalized process definition (a process definition never changes), which avoids a join when querying
+        appendProcessDefinition(executionDocument, executionEntity);
+
         // Entity counts settings
         appendIfNotNull(executionDocument, "countEnabled", executionEntity.isCountEnabled());
         appendIfNotNull(executionDocument, "eventSubscriptionCount", executionEntity.getEventSubscriptionCount());
@@ -101,4 +118,46 @@ public class ExecutionEntityMapper extends AbstractEntityToDocumentMapper<Execut
         return executionDocument;
     }
 
+    /**
+     * The process instance of the super execution is stored on a sub process instance,
+     * so the call activity hierarchy can be queried without fetching the super executions first.
+     */
+    protected void appendSuperProcessInstanceId(Document executionDocument, ExecutionEntityImpl executionEntity) {
+        if (executionEntity.getSuperExecutionId() != null && Context.getCommandContext() != null) {
+            ExecutionEntityImpl superExecution = executionEntity.getSuperExecution();
+            if (superExecution != null) {
+                appendIfNotNull(executionDocument, "superProcessInstanceId", superExecution.getProcessInstanceId());
+            }
+        }
+    }
+
+    /**
+     * The process definition fields that aren't on the entity are registered by the data manager when the execution is inserted
+     * (see {@link #addProcessDefinition(ProcessDefinition)}), so mapping an execution doesn't need a command context.
+     */
+    protected void appendProcessDefinition(Document executionDocument, ExecutionEntityImpl executionEntity) {
+        appendIfNotNull(executionDocument, "processDefinitionKey", executionEntity.getProcessDefinitionKey());
+        appendIfNotNull(executionDocument, "processDefinitionName", executionEntity.getProcessDefinitionName());
+        appendIfNotNull(executionDocument, "processDefinitionVersion", executionEntity.getProcessDefinitionVersion());
+        appendIfNotNull(executionDocument, "deploymentId", executionEntity.getDeploymentId());
+
+        Document processDefinitionFields = executionEntity.getProcessDefinitionId() != null
+                ? this.processDefinitionFields.get(executionEntity.getProcessDefinitionId()) : null;
+        if (processDefinitionFields != null) {
+            executionDocument.putAll(processDefinitionFields);
+        }
+    }
+
+    /**
+     * A process definition never changes, so its fields can be kept by id.
+     */
+    public void addProcessDefinition(ProcessDefinition processDefinition) {
+        if (!processDefinitionFields.containsKey(processDefinition.getId())) {
+            Document fields = new Document();
+            appendIfNotNull(fields, "processDefinitionCategory", processDefinition.getCategory());
+            appendIfNotNull(fields, "processDefinitionEngineVersion", processDefinition.getEngineVersion());
+            processDefinitionFields.put(processDefinition.getId(), fields);
+        }
+    }
+
 }
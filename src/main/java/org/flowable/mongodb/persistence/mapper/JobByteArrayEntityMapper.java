@@ -13,33 +13,41 @@
 package org.flowable.mongodb.persistence.mapper;
 
 import org.bson.Document;
-import org.bson.types.Binary;
-import org.flowable.job.service.impl.persistence.entity.JobByteArrayEntityImpl;
+import org.flowable.mongodb.persistence.GridFsByteArrayStore;
+import org.flowable.mongodb.persistence.entity.MongoDbJobByteArrayEntityImpl;
 
 /**
  * @author Joram Barrez
  */
-public class JobByteArrayEntityMapper extends AbstractJobEntityMapper<JobByteArrayEntityImpl> {
+public class JobByteArrayEntityMapper extends AbstractJobEntityMapper<MongoDbJobByteArrayEntityImpl> {
 
     @Override
-    public JobByteArrayEntityImpl fromDocument(Document document) {
-        JobByteArrayEntityImpl jobByteArrayEntity = new JobByteArrayEntityImpl();
+    public MongoDbJobByteArrayEntityImpl fromDocument(Document document) {
+        MongoDbJobByteArrayEntityImpl jobByteArrayEntity = new MongoDbJobByteArrayEntityImpl();
         jobByteArrayEntity.setId(document.getString("_id"));
         jobByteArrayEntity.setName(document.getString("name"));
         jobByteArrayEntity.setDeploymentId(document.getString("deploymentId"));
 
-        Binary binary = (Binary) document.get("bytes");
-        jobByteArrayEntity.setBytes(binary.getData());
+        // Bytes stored in GridFS are loaded by the data manager
+        byte[] bytes = getBytes(document, "bytes");
+        if (bytes != null) {
+            jobByteArrayEntity.setBytes(bytes);
+        }
+        jobByteArrayEntity.setStoredInGridFs(Boolean.TRUE.equals(document.getBoolean(GridFsByteArrayStore.GRID_FS_FIELD)));
         return jobByteArrayEntity;
     }
 
     @Override
-    public Document toDocument(JobByteArrayEntityImpl jobByteArrayEntity) {
+    public Document toDocument(MongoDbJobByteArrayEntityImpl jobByteArrayEntity) {
         Document document = new Document();
         appendIfNotNull(document, "_id", jobByteArrayEntity.getId());
         appendIfNotNull(document, "name", jobByteArrayEntity.getName());
         appendIfNotNull(document, "deploymentId", jobByteArrayEntity.getDeploymentId());
-        appendIfNotNull(document, "bytes", jobByteArrayEntity.getBytes());
+        if (jobByteArrayEntity.isStoredInGridFs()) {
+            document.append(GridFsByteArrayStore.GRID_FS_FIELD, true);
+        } else {
+            appendIfNotNull(document, "bytes", jobByteArrayEntity.getBytes());
+        }
         return document;
     }
 
@@ -13,22 +13,26 @@
 package org.flowable.mongodb.persistence.mapper;
 
 import org.bson.Document;
-import org.bson.types.Binary;
-import org.flowable.engine.impl.persistence.entity.ResourceEntityImpl;
+import org.flowable.mongodb.persistence.GridFsByteArrayStore;
+import org.flowable.mongodb.persistence.entity.MongoDbResourceEntityImpl;
 
 /**
  * @author Joram Barrez
  */
-public class ResourceEntityMapper extends AbstractEntityToDocumentMapper<ResourceEntityImpl> {
+public class ResourceEntityMapper extends AbstractEntityToDocumentMapper<MongoDbResourceEntityImpl> {
 
     @Override
-    public ResourceEntityImpl fromDocument(Document document) {
-        ResourceEntityImpl resourceEntity = new ResourceEntityImpl();
+    public MongoDbResourceEntityImpl fromDocument(Document document) {
+        MongoDbResourceEntityImpl resourceEntity = new MongoDbResourceEntityImpl();
         resourceEntity.setId(document.getString("_id"));
         resourceEntity.setName(document.getString("name"));
 
-        Binary binary = (Binary) document.get("bytes");
-        resourceEntity.setBytes(binary.getData());
+        // The bytes are not fetched when the resource is loaded lazily
+        byte[] bytes = getBytes(document, "bytes");
+        if (bytes != null) {
+            resourceEntity.setBytes(bytes);
+        }
+        resourceEntity.setStoredInGridFs(Boolean.TRUE.equals(document.getBoolean(GridFsByteArrayStore.GRID_FS_FIELD)));
 
         resourceEntity.setDeploymentId(document.getString("deploymentId"));
         resourceEntity.setGenerated(document.getBoolean("generated"));
@@ -36,12 +40,16 @@ public class ResourceEntityMapper extends AbstractEntityToDocumentMapper<Resourc
     }
 
     @Override
-    public Document toDocument(ResourceEntityImpl resourceEntity) {
+    public Document toDocument(MongoDbResourceEntityImpl resourceEntity) {
         // Note: no revision
         Document resourceDocument = new Document();
         appendIfNotNull(resourceDocument, "_id", resourceEntity.getId());
         appendIfNotNull(resourceDocument, "name", resourceEntity.getName());
-        appendIfNotNull(resourceDocument, "bytes", resourceEntity.getBytes());
+        if (resourceEntity.isStoredInGridFs()) {
+            resourceDocument.append(GridFsByteArrayStore.GRID_FS_FIELD, true);
+        } else {
+            appendIfNotNull(resourceDocument, "bytes", resourceEntity.getBytes());
+        }
         appendIfNotNull(resourceDocument, "deploymentId", resourceEntity.getDeploymentId());
         appendIfNotNull(resourceDocument, "generated", resourceEntity.isGenerated());
         return resourceDocument;
@@ -0,0 +1,93 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.flowable.mongodb.persistence.QueryShapeRecorder.QueryShape;
+
+/**
+ * The result of the {@link IndexAdvisor}.
+ *
+ * @author Joram Barrez
+ */
+public class IndexAdvice {
+
+    protected List<QueryShape> collectionScans = new ArrayList<>();
+    protected Map<String, List<Document>> recommendedIndices = new LinkedHashMap<>();
+    protected Map<String, List<String>> unusedIndices = new LinkedHashMap<>();
+
+    public void addCollectionScan(QueryShape shape) {
+        collectionScans.add(shape);
+    }
+
+    public void addRecommendedIndex(String collection, Document indexKeys) {
+        List<Document> indices = recommendedIndices.get(collection);
+        if (indices == null) {
+            indices = new ArrayList<>();
+            recommendedIndices.put(collection, indices);
+        }
+        if (!indices.contains(indexKeys)) {
+            indices.add(indexKeys);
+        }
+    }
+
+    public void addUnusedIndex(String collection, String indexName) {
+        List<String> indexNames = unusedIndices.get(collection);
+        if (indexNames == null) {
+            indexNames = new ArrayList<>();
+            unusedIndices.put(collection, indexNames);
+        }
+        indexNames.add(indexName);
+    }
+
+    public List<QueryShape> getCollectionScans() {
+        return collectionScans;
+    }
+
+    /**
+     * The recommended index keys per collection, with the regular (not compact) field names.
+     */
+    public Map<String, List<Document>> getRecommendedIndices() {
+        return recommendedIndices;
+    }
+
+    public Map<String, List<String>> getUnusedIndices() {
+        return unusedIndices;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("Queries with a collection scan:\n");
+        for (QueryShape shape : collectionScans) {
+            report.append("  ").append(shape).append('\n');
+        }
+        report.append("Recommended indices:\n");
+        for (String collection : recommendedIndices.keySet()) {
+            for (Document indexKeys : recommendedIndices.get(collection)) {
+                report.append("  ").append(collection).append(' ').append(indexKeys.toJson()).append('\n');
+            }
+        }
+        report.append("Unused indices:\n");
+        for (String collection : unusedIndices.keySet()) {
+            report.append("  ").append(collection).append(' ').append(unusedIndices.get(collection)).append('\n');
+        }
+        return report.toString();
+    }
+
+}
@@ -0,0 +1,157 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.CompactFieldNames;
+import org.flowable.mongodb.persistence.MongoDbSessionFactory;
+import org.flowable.mongodb.persistence.QueryShapeRecorder;
+import org.flowable.mongodb.persistence.QueryShapeRecorder.QueryShape;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Analyzes the query shapes recorded by the {@link QueryShapeRecorder}:
+ *
+ * - every shape is explained, shapes that are executed with a collection scan get an index recommendation
+ *   (equality fields, then sort fields, then range fields), unless an existing index starts with the same fields.
+ * - indices that weren't used since the server started (according to $indexStats) are reported as unused.
+ *
+ * The recommended indices can be created with {@link MongoProcessSchemaManager#createRecommendedIndices(IndexAdvice)}.
+ *
+ * @author Joram Barrez
+ */
+public class IndexAdvisor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexAdvisor.class);
+
+    protected MongoDbSessionFactory mongoDbSessionFactory;
+
+    public IndexAdvisor(MongoDbSessionFactory mongoDbSessionFactory) {
+        this.mongoDbSessionFactory = mongoDbSessionFactory;
+    }
+
+    public IndexAdvice analyze() {
+        IndexAdvice indexAdvice = new IndexAdvice();
+        QueryShapeRecorder queryShapeRecorder = mongoDbSessionFactory.getQueryShapeRecorder();
+        if (queryShapeRecorder != null) {
+            for (QueryShape shape : queryShapeRecorder.getShapes()) {
+                analyzeShape(shape, indexAdvice);
+            }
+        }
+
+        for (String collection : mongoDbSessionFactory.getCollectionNames()) {
+            collectUnusedIndices(collection, indexAdvice);
+        }
+        return indexAdvice;
+    }
+
+    protected void analyzeShape(QueryShape shape, IndexAdvice indexAdvice) {
+        Document explain;
+        try {
+            explain = getMongoDatabase().runCommand(new Document("explain", new Document("find", shape.getCollection())
+                    .append("filter", toStoredFilter(shape.getCollection(), shape.getSampleFilter()))
+                    .append("sort", toStoredKeys(shape.getCollection(), shape.getSort())))
+                    .append("verbosity", "queryPlanner"));
+        } catch (MongoException e) {
+            LOGGER.warn("Could not explain query on {}", shape.getCollection(), e);
+            return;
+        }
+
+        Document queryPlanner = (Document) explain.get("queryPlanner");
+        if (queryPlanner != null && containsStage((Document) queryPlanner.get("winningPlan"), "COLLSCAN")) {
+            indexAdvice.addCollectionScan(shape);
+
+            BsonDocument indexKeys = shape.getIndexKeys();
+            if (!indexKeys.isEmpty() && !isCoveredByIndex(shape.getCollection(), indexKeys)) {
+                indexAdvice.addRecommendedIndex(shape.getCollection(), Document.parse(indexKeys.toJson()));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected boolean containsStage(Document plan, String stage) {
+        if (plan == null) {
+            return false;
+        }
+        if (stage.equals(plan.getString("stage"))) {
+            return true;
+        }
+        if (containsStage((Document) plan.get("inputStage"), stage)) {
+            return true;
+        }
+        List<Document> inputStages = (List<Document>) plan.get("inputStages");
+        if (inputStages != null) {
+            for (Document inputStage : inputStages) {
+                if (containsStage(inputStage, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An index covers the recommendation when its first fields are the fields of the recommendation.
+     */
+    protected boolean isCoveredByIndex(String collection, BsonDocument indexKeys) {
+        List<String> fields = new ArrayList<>(toStoredKeys(collection, indexKeys).toBsonDocument(BsonDocument.class,
+                getMongoDatabase().getCodecRegistry()).keySet());
+        for (Document index : getMongoDatabase().getCollection(collection).listIndexes()) {
+            List<String> existingFields = new ArrayList<>(((Document) index.get("key")).keySet());
+            if (existingFields.size() >= fields.size() && existingFields.subList(0, fields.size()).equals(fields)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void collectUnusedIndices(String collection, IndexAdvice indexAdvice) {
+        try {
+            for (Document indexStats : getMongoDatabase().getCollection(collection)
+                    .aggregate(Collections.singletonList(new Document("$indexStats", new Document())))) {
+                String name = indexStats.getString("name");
+                Document accesses = (Document) indexStats.get("accesses");
+                if (!"_id_".equals(name) && accesses != null && ((Number) accesses.get("ops")).longValue() == 0L) {
+                    indexAdvice.addUnusedIndex(collection, name);
+                }
+            }
+        } catch (MongoException e) {
+            LOGGER.debug("Could not get index statistics of {}", collection, e);
+        }
+    }
+
+    protected Bson toStoredFilter(String collection, Bson filter) {
+        CompactFieldNames compactFieldNames = mongoDbSessionFactory.getCompactFieldNames();
+        return compactFieldNames != null ? compactFieldNames.toStoredFilter(collection, filter) : filter;
+    }
+
+    protected Bson toStoredKeys(String collection, Bson keys) {
+        CompactFieldNames compactFieldNames = mongoDbSessionFactory.getCompactFieldNames();
+        return compactFieldNames != null ? compactFieldNames.toStoredKeys(collection, keys) : keys;
+    }
+
+    protected MongoDatabase getMongoDatabase() {
+        return mongoDbSessionFactory.getMongoDatabase();
+    }
+
+}
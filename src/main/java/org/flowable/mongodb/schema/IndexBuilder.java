@@ -0,0 +1,232 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.api.FlowableException;
+import org.flowable.mongodb.persistence.CompactFieldNames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * Collects the indices of the schema and creates them with one createIndexes command per collection.
+ *
+ * Before creating, the indices are compared with the existing indices of the collection (by their keys, or their name when it is set),
+ * so only the missing indices are sent and an up to date schema costs one listIndexes call per collection.
+ * The collections are handled in parallel.
+ *
+ * Indices are built with the background option, as they can also be created on existing collections.
+ *
+ * @author Joram Barrez
+ */
+public class IndexBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexBuilder.class);
+
+    protected MongoDatabase mongoDatabase;
+    protected CompactFieldNames compactFieldNames;
+    protected Map<String, List<IndexModel>> indices = new LinkedHashMap<>();
+    protected int parallelism = 4;
+    protected List<String> failedIndices = new ArrayList<>();
+
+    public IndexBuilder(MongoDatabase mongoDatabase, CompactFieldNames compactFieldNames) {
+        this.mongoDatabase = mongoDatabase;
+        this.compactFieldNames = compactFieldNames;
+    }
+
+    public void addIndex(String collection, Document keys, IndexOptions indexOptions) {
+        Bson storedKeys = compactFieldNames != null ? compactFieldNames.toStoredKeys(collection, keys) : keys;
+        List<IndexModel> collectionIndices = indices.get(collection);
+        if (collectionIndices == null) {
+            collectionIndices = new ArrayList<>();
+            indices.put(collection, collectionIndices);
+        }
+        collectionIndices.add(new IndexModel(storedKeys, indexOptions.background(true)));
+    }
+
+    public boolean isEmpty() {
+        return indices.isEmpty();
+    }
+
+    /**
+     * Creates the missing indices of all collections and waits until they are built.
+     * The collected indices are cleared, so the builder can be reused.
+     *
+     * When indices can't be created, the other indices are still built and one exception listing the failed indices is thrown at the end,
+     * so the schema update or migration step that collected them fails and is run again on the next start.
+     */
+    public void build() {
+        if (indices.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<IndexModel>> collectionIndices = new LinkedHashMap<>(indices);
+        indices.clear();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(parallelism, collectionIndices.size()), runnable -> {
+            Thread thread = new Thread(runnable, "flowable-index-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<String> failedIndices = new ArrayList<>();
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (String collection : collectionIndices.keySet()) {
+                futures.add(executorService.submit(() -> buildIndices(collection, collectionIndices.get(collection))));
+            }
+            for (Future<List<String>> future : futures) {
+                failedIndices.addAll(future.get());
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowableException("Interrupted while creating indices", e);
+
+        } catch (ExecutionException e) {
+            throw new FlowableException("Could not create indices", e.getCause());
+
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        if (!failedIndices.isEmpty()) {
+            this.failedIndices.addAll(failedIndices);
+            throw new FlowableException("Could not create indices " + String.join(", ", failedIndices));
+        }
+    }
+
+    /**
+     * Whether indices of an earlier {@link #build()} of this builder couldn't be created.
+     */
+    public boolean hasFailedIndices() {
+        return !failedIndices.isEmpty();
+    }
+
+    public List<String> getFailedIndices() {
+        return failedIndices;
+    }
+
+    public void clearFailedIndices() {
+        failedIndices.clear();
+    }
+
+    /**
+     * Creates the missing indices of one collection.
+     *
+     * @return the indices that couldn't be created, as their collection and keys
+     */
+    protected List<String> buildIndices(String collectionName, List<IndexModel> collectionIndices) {
+        List<String> failedIndices = new ArrayList<>();
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        List<IndexModel> missingIndices = getMissingIndices(collection, collectionIndices);
+        if (missingIndices.isEmpty()) {
+            return failedIndices;
+        }
+
+        LOGGER.debug("Creating {} indices on {}", missingIndices.size(), collectionName);
+        try {
+            collection.createIndexes(missingIndices);
+
+        } catch (MongoException e) {
+            // One conflicting index fails the whole command, the others are still created one by one
+            LOGGER.warn("Could not create indices on {} in one command, creating them one by one", collectionName, e);
+            for (IndexModel index : missingIndices) {
+                try {
+                    collection.createIndex(index.getKeys(), index.getOptions());
+                } catch (MongoException ie) {
+                    LOGGER.warn("Could not create index {} on {}", toBsonDocument(index.getKeys()).toJson(), collectionName, ie);
+                    failedIndices.add(collectionName + " " + toBsonDocument(index.getKeys()).toJson());
+                }
+            }
+        }
+        return failedIndices;
+    }
+
+    protected List<IndexModel> getMissingIndices(MongoCollection<Document> collection, List<IndexModel> collectionIndices) {
+        Set<String> existingKeys = new HashSet<>();
+        Set<String> existingNames = new HashSet<>();
+        for (Document existingIndex : collection.listIndexes()) {
+            existingKeys.add(getKeySignature(toBsonDocument((Document) existingIndex.get("key"))));
+            existingNames.add(existingIndex.getString("name"));
+        }
+
+        List<IndexModel> missingIndices = new ArrayList<>();
+        for (IndexModel index : collectionIndices) {
+            String name = index.getOptions().getName();
+            String keySignature = getKeySignature(toBsonDocument(index.getKeys()));
+            if (name != null ? !existingNames.contains(name) : !existingKeys.contains(keySignature)) {
+                missingIndices.add(index);
+
+                // The same index can be collected more than once (e.g. by a migration step and the default indices)
+                existingKeys.add(keySignature);
+                if (name != null) {
+                    existingNames.add(name);
+                }
+            }
+        }
+        return missingIndices;
+    }
+
+    /**
+     * The fields and directions of the keys in order. Numeric directions are compared as integers,
+     * as indices created by other tools can have e.g. 1.0 instead of 1.
+     */
+    protected String getKeySignature(BsonDocument keys) {
+        StringBuilder signature = new StringBuilder();
+        for (Map.Entry<String, BsonValue> key : keys.entrySet()) {
+            BsonValue direction = key.getValue();
+            signature.append(key.getKey()).append(':')
+                    .append(direction.isNumber() ? String.valueOf(direction.asNumber().intValue()) : direction.asString().getValue())
+                    .append(',');
+        }
+        return signature.toString();
+    }
+
+    protected BsonDocument toBsonDocument(Bson bson) {
+        return bson.toBsonDocument(Document.class, mongoDatabase.getCodecRegistry());
+    }
+
+    public MongoDatabase getMongoDatabase() {
+        return mongoDatabase;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+}
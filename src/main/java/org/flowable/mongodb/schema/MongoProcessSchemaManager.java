@@ -12,25 +12,36 @@
  */
 package org.flowable.mongodb.schema;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.flowable.common.engine.api.FlowableException;
 import org.flowable.common.engine.impl.FlowableVersions;
 import org.flowable.common.engine.impl.db.SchemaManager;
 import org.flowable.engine.impl.util.CommandContextUtil;
 import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.CompactFieldNames;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.GridFsByteArrayStore;
+import org.flowable.mongodb.persistence.InlineVariableSupport;
 import org.flowable.mongodb.persistence.MongoDbSession;
 import org.flowable.mongodb.persistence.MongoDbSessionFactory;
+import org.flowable.mongodb.persistence.ProcessInstanceLeaseManager;
+import org.flowable.mongodb.persistence.ShardKeys;
 import org.flowable.mongodb.persistence.manager.MongoDbEventSubscriptionDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricDetailDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbHistoricIdentityLinkDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
@@ -43,17 +54,25 @@ import org.flowable.mongodb.persistence.manager.MongoDbResourceDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbTimerJobDataManager;
 import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.mongodb.schema.migration.ExecutionProcessDefinitionMigration;
+import org.flowable.mongodb.schema.migration.ExecutionTreeInlineVariableIdsMigration;
+import org.flowable.mongodb.schema.migration.ExecutionTreeMigration;
+import org.flowable.mongodb.schema.migration.IndexMigration;
+import org.flowable.mongodb.schema.migration.SchemaMigration;
+import org.flowable.mongodb.schema.migration.SchemaMigrationContext;
+import org.flowable.mongodb.schema.migration.SchemaMigrator;
+import org.flowable.mongodb.schema.migration.SuperProcessInstanceIdMigration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.ErrorCategory;
-import com.mongodb.MongoWriteException;
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOptions;
 
 /**
  * Note that the term 'schema' is not the same as for a relational database.
@@ -77,12 +96,51 @@ public class MongoProcessSchemaManager implements SchemaManager {
     
     public static final String SCHEMA_VERSION_PROPERTY = "schema.version";
     
+    public static final String FIELD_NAMES_PROPERTY = "schema.fieldNames";
+    public static final String FIELD_NAMES_DEFAULT = "default";
+    public static final String FIELD_NAMES_COMPACT = "compact";
+    
+    /**
+     * Set to {@link #INDICES_PENDING} while the default indices of a new schema are created asynchronously.
+     */
+    public static final String INDICES_PROPERTY = "schema.indices";
+    public static final String INDICES_PENDING = "pending";
+    public static final String INDICES_COMPLETED = "completed";
+    
+    /**
+     * Identifies the schema checks that were done by the last full schema update (see {@link #getSchemaFingerprint(MongoDbProcessEngineConfiguration)}).
+     */
+    public static final String SCHEMA_FINGERPRINT_PROPERTY = "schema.fingerprint";
+    
+    protected static final int ERROR_CODE_ALREADY_INITIALIZED = 23;
+    
+    /**
+     * The append-mostly history collections that are clustered on their _id when clustered history collections are enabled.
+     * Their documents are updated and deleted, so time-series collections can't be used for them.
+     */
+    public static final Set<String> CLUSTERED_HISTORY_COLLECTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES,
+            MongoDbHistoricDetailDataManager.COLLECTION_HISTORIC_DETAILS,
+            MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS)));
+    
     protected String randomId = UUID.randomUUID().toString();
+    protected SchemaLock schemaLock;
+    
+    protected IndexBuilder indexBuilder;
+    protected boolean defaultIndicesPending;
+    protected String deferredSchemaFingerprint;
+    
+    /**
+     * The collection names of the database, listed once per schema operation.
+     */
+    protected Set<String> existingCollections;
     
     @Override
     public void schemaCreate() {
         
         MongoDbProcessEngineConfiguration engineConfiguration = getEngineConfiguration();
+        existingCollections = null;
+        clearFailedIndices();
         String currentSchemaVersion = getVersion(engineConfiguration.getMongoDatabase());
         
         if (currentSchemaVersion == null) {
@@ -94,6 +152,14 @@ public class MongoProcessSchemaManager implements SchemaManager {
                 if (currentSchemaVersion == null) {
                     initializeDefaultCollectionsAndIndices(engineConfiguration);
                     initSchemaVersionProperty(engineConfiguration);
+                    if (engineConfiguration.isAsyncIndexCreationEnabled()) {
+                        setPropertyValue(engineConfiguration.getMongoDatabase(), INDICES_PROPERTY, INDICES_PENDING);
+                    }
+                    buildIndices(engineConfiguration);
+                    
+                    // A new schema has the current indices and document structure
+                    createSchemaMigrator(engineConfiguration).markAllCompleted();
+                    updateSchemaFingerprint(engineConfiguration);
                 }
                 
             } finally {
@@ -107,114 +173,361 @@ public class MongoProcessSchemaManager implements SchemaManager {
 
     protected void initializeDefaultCollectionsAndIndices(MongoDbProcessEngineConfiguration engineConfiguration) {
         initDefaultCollections(engineConfiguration);
+        if (getMongoDbSessionFactory().getShardKeys() != null) {
+            initShardedCollections(engineConfiguration);
+        }
         initDefaultIndices(engineConfiguration);
     }
+    
+    /**
+     * Shards the collections of the {@link ShardKeys} that aren't sharded yet.
+     * The index on the shard key is created first, as an existing collection can only be sharded when it has that index.
+     */
+    protected void initShardedCollections(MongoDbProcessEngineConfiguration engineConfiguration) {
+        MongoDatabase mongoDatabase = engineConfiguration.getMongoDatabase();
+        MongoDatabase adminDatabase = engineConfiguration.getMongoClient().getDatabase("admin");
+        MongoCollection<Document> shardedCollections = engineConfiguration.getMongoClient().getDatabase("config").getCollection("collections");
+        ShardKeys shardKeys = getMongoDbSessionFactory().getShardKeys();
+        CompactFieldNames compactFieldNames = getMongoDbSessionFactory().getCompactFieldNames();
+        
+        try {
+            adminDatabase.runCommand(new Document("enableSharding", mongoDatabase.getName()));
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != ERROR_CODE_ALREADY_INITIALIZED) {
+                throw new FlowableException("Could not enable sharding for database " + mongoDatabase.getName(), e);
+            }
+        }
+        
+        boolean compoundHashedKeySupported = isServerVersionAtLeast(mongoDatabase, 4, 4);
+        for (String collection : shardKeys.getShardKeyFields().keySet()) {
+            String namespace = mongoDatabase.getName() + "." + collection;
+            if (shardedCollections.find(Filters.and(Filters.eq("_id", namespace), Filters.ne("dropped", true))).first() != null) {
+                continue;
+            }
+            
+            Document shardKey = shardKeys.getShardKey(collection, compoundHashedKeySupported);
+            createIndex(mongoDatabase, collection, shardKey);
+            buildIndices(mongoDatabase);
+            
+            Bson storedShardKey = compactFieldNames != null ? compactFieldNames.toStoredKeys(collection, shardKey) : shardKey;
+            LOGGER.info("Sharding collection {} on {}", collection, shardKey.toJson());
+            adminDatabase.runCommand(new Document("shardCollection", namespace)
+                    .append("key", storedShardKey.toBsonDocument(Document.class, mongoDatabase.getCodecRegistry())));
+        }
+    }
 
     protected void initDefaultCollections(MongoDbProcessEngineConfiguration engineConfiguration) {
         // Collections can't be created in a transaction (see https://docs.mongodb.com/manual/core/transactions/)
-        Set<String> collections = new HashSet<>();
-        MongoIterable<String> existingCollections = engineConfiguration.getMongoDatabase().listCollectionNames();
-        if (existingCollections != null) {
-            for (String collectionName : existingCollections) {
-                collections.add(collectionName);
+        for (String name : getAllCollectionNames()) {
+            if (engineConfiguration.isClusteredHistoryCollectionsEnabled() && CLUSTERED_HISTORY_COLLECTIONS.contains(name)) {
+                createClusteredCollectionIfNotExists(engineConfiguration.getMongoDatabase(), name);
+            } else {
+                createCollectionIfNotExists(engineConfiguration.getMongoDatabase(), name);
             }
         }
-        
-        for (String name : getAllCollectionNames()) {
-            if (!collections.contains(name)) {
-                engineConfiguration.getMongoDatabase().createCollection(name);
+    }
+    
+    /**
+     * Creates a collection that stores the documents in the order of their _id, instead of in a separate _id index (requires MongoDB 5.3).
+     * With time-ordered ids, inserts are appended at the end of the collection and there is one index less to maintain.
+     * 
+     * Existing collections can't be converted, so this only applies to collections that don't exist yet.
+     */
+    protected void createClusteredCollectionIfNotExists(MongoDatabase mongoDatabase, String collectionName) {
+        Set<String> collectionNames = getExistingCollections(mongoDatabase);
+        if (!collectionNames.contains(collectionName)) {
+            // Older servers reject the clusteredIndex option with an unclear error, or ignore it and create a regular collection
+            if (!isServerVersionAtLeast(mongoDatabase, 5, 3)) {
+                throw new FlowableException("Clustered history collections require MongoDB 5.3 or later, the server is "
+                        + mongoDatabase.runCommand(new Document("buildInfo", 1)).getString("version"));
             }
+            mongoDatabase.runCommand(new Document("create", collectionName)
+                    .append("clusteredIndex", new Document()
+                            .append("key", new Document("_id", 1))
+                            .append("unique", true)
+                            .append("name", "flw_" + collectionName + "_clustered_idx")));
+            collectionNames.add(collectionName);
         }
     }
 
+    /**
+     * Whether the version of the server (from the buildInfo command) is the given major and minor version or later.
+     */
+    public static boolean isServerVersionAtLeast(MongoDatabase mongoDatabase, int major, int minor) {
+        List<?> versionArray = mongoDatabase.runCommand(new Document("buildInfo", 1)).get("versionArray", List.class);
+        int serverMajor = ((Number) versionArray.get(0)).intValue();
+        int serverMinor = ((Number) versionArray.get(1)).intValue();
+        return serverMajor > major || (serverMajor == major && serverMinor >= minor);
+    }
+
     protected void initDefaultIndices(MongoDbProcessEngineConfiguration engineConfiguration) {
         MongoDatabase mongoDatabase = engineConfiguration.getMongoDatabase();
+        defaultIndicesPending = true;
         
-        mongoDatabase.getCollection(MongoDbResourceDataManager.COLLECTION_BYTE_ARRAY).createIndex(new Document("deploymentId", 1));
+        createIndex(mongoDatabase, MongoDbResourceDataManager.COLLECTION_BYTE_ARRAY, new Document("deploymentId", 1));
         
-        mongoDatabase.getCollection(MongoDbProcessDefinitionDataManager.COLLECTION_PROCESS_DEFINITIONS).createIndex(new Document("deploymentId", 1));
+        createIndex(mongoDatabase, MongoDbProcessDefinitionDataManager.COLLECTION_PROCESS_DEFINITIONS, new Document("deploymentId", 1));
         
-        mongoDatabase.getCollection(MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION).createIndex(new Document("configuration", 1));
+        createIndex(mongoDatabase, MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION, new Document("executionId", 1));
+        createIndex(mongoDatabase, MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbEventSubscriptionDataManager.COLLECTION_EVENT_SUBSCRIPTION, new Document("configuration", 1));
         
-        mongoDatabase.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).createIndex(new Document("businessKey", 1));
-        mongoDatabase.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).createIndex(new Document("parentId", 1));
-        mongoDatabase.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).createIndex(new Document("superExecutionId", 1));
-        mongoDatabase.getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS).createIndex(new Document("rootProcessInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document("businessKey", 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document("parentId", 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document("superExecutionId", 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document("rootProcessInstanceId", 1));
+        if (engineConfiguration.isEmbeddedExecutionTreeEnabled()) {
+            initExecutionTreeIndices(mongoDatabase);
+        }
+        if (engineConfiguration.isInlineVariablesEnabled()) {
+            initInlineVariableIndices(mongoDatabase);
+        }
+        if (engineConfiguration.getProcessInstanceLeaseManager() != null) {
+            initProcessInstanceLockIndices(mongoDatabase);
+        }
+        if (engineConfiguration.getGridFsByteArrayStore() != null && engineConfiguration.getGridFsByteArrayStore().isEnabled()) {
+            initGridFsIndices(mongoDatabase);
+        }
         
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document("createTime", 1));
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document().append("subScopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).createIndex(new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document("executionId", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document("createTime", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document().append("subScopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
         
-        mongoDatabase.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).createIndex(new Document("taskId", 1));
-        mongoDatabase.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES).createIndex(new Document().append("subScopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, new Document("executionId", 1));
+        createIndex(mongoDatabase, MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, new Document("taskId", 1));
+        createIndex(mongoDatabase, MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, new Document().append("subScopeId", 1).append("scopeType", 1));
         
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document("taskId", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document("userId", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document("groupId", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document().append("subScopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS).createIndex(new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
+        initQueryIndices(mongoDatabase);
+        initJobAcquisitionIndices(mongoDatabase);
+
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document("taskId", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document("userId", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document("groupId", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document().append("subScopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS, new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
         
-        mongoDatabase.getCollection(MongoDbJobDataManager.COLLECTION_JOBS).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbJobDataManager.COLLECTION_JOBS).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbJobDataManager.COLLECTION_JOBS).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbJobDataManager.COLLECTION_JOBS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbJobDataManager.COLLECTION_JOBS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS, new Document("executionId", 1));
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS, new Document().append("subScopeId", 1).append("scopeType", 1));
         
-        mongoDatabase.getCollection(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, new Document("executionId", 1));
+        createIndex(mongoDatabase, MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, new Document().append("subScopeId", 1).append("scopeType", 1));
 
-        mongoDatabase.getCollection(MongoDbJobByteArrayDataManager.COLLECTION_JOB_BYTE_ARRAY).createIndex(new Document("deploymentId", 1));
+        createIndex(mongoDatabase, MongoDbJobByteArrayDataManager.COLLECTION_JOB_BYTE_ARRAY, new Document("deploymentId", 1));
         
-        mongoDatabase.getCollection(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES).createIndex(new Document("startTime", 1));
-        mongoDatabase.getCollection(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES).createIndex(new Document("endTime", 1));
-        mongoDatabase.getCollection(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES).createIndex(new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, new Document("startTime", 1));
+        createIndex(mongoDatabase, MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, new Document("endTime", 1));
+        createIndex(mongoDatabase, MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, new Document("processDefinitionId", 1));
         
-        mongoDatabase.getCollection(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS).createIndex(new Document("userId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS).createIndex(new Document("groupId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS).createIndex(new Document("taskId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS).createIndex(new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, new Document("userId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, new Document("groupId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, new Document("taskId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS, new Document().append("scopeId", 1).append("scopeType", 1));
         
-        mongoDatabase.getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES).createIndex(new Document("businessKey", 1));
-        mongoDatabase.getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES).createIndex(new Document("startTime", 1));
-        mongoDatabase.getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES).createIndex(new Document("endTime", 1));
+        createIndex(mongoDatabase, MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, new Document("businessKey", 1));
+        createIndex(mongoDatabase, MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, new Document("startTime", 1));
+        createIndex(mongoDatabase, MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, new Document("endTime", 1));
         
-        mongoDatabase.getCollection(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES).createIndex(new Document("processDefinitionId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES).createIndex(new Document().append("subScopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES).createIndex(new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, new Document("processDefinitionId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, new Document().append("subScopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, new Document().append("scopeDefinitionId", 1).append("scopeType", 1));
         
-        mongoDatabase.getCollection(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES).createIndex(new Document().append("name", 1).append("typeName", 1));
-        mongoDatabase.getCollection(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES).createIndex(new Document().append("scopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES).createIndex(new Document().append("subScopeId", 1).append("scopeType", 1));
-        mongoDatabase.getCollection(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES).createIndex(new Document("processInstanceId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES).createIndex(new Document("executionId", 1));
-        mongoDatabase.getCollection(MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES).createIndex(new Document("taskId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, new Document().append("name", 1).append("typeName", 1));
+        createIndex(mongoDatabase, MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, new Document().append("scopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, new Document().append("subScopeId", 1).append("scopeType", 1));
+        createIndex(mongoDatabase, MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, new Document("processInstanceId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, new Document("executionId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricVariableInstanceDataManager.COLLECTION_HISTORIC_VARIABLE_INSTANCES, new Document("taskId", 1));
+    }
+    
+    /**
+     * Indices for the execution and process instance queries, which are also created when updating an existing schema.
+     */
+    protected void initQueryIndices(MongoDatabase mongoDatabase) {
+        initVariableValueIndices(mongoDatabase);
+        initProcessDefinitionIndices(mongoDatabase);
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document("superProcessInstanceId", 1));
+
+        // Compound indices for the lookups of the activity behaviours, their prefixes replace single field indices
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS,
+                new Document().append("processInstanceId", 1).append("isActive", 1).append("activityId", 1));
+        createIndex(mongoDatabase, MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES,
+                new Document().append("executionId", 1).append("activityId", 1));
+    }
+    
+    /**
+     * Indices for the queries of the async executor, which run continuously on every engine:
+     * 
+     * - jobs to execute: scopeType and no lockExpirationTime
+     * - expired jobs: scopeType and a lockExpirationTime in the past, or no lockExpirationTime and an old createTime
+     * - timer jobs to execute: scopeType, no lockOwner and a duedate in the past
+     * 
+     * The lock fields are only stored for locked jobs, so a partial index on the lockExpirationTime only contains the locked jobs.
+     */
+    protected void initJobAcquisitionIndices(MongoDatabase mongoDatabase) {
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS,
+                new Document().append("scopeType", 1).append("lockExpirationTime", 1).append("createTime", 1));
+        createIndex(mongoDatabase, MongoDbJobDataManager.COLLECTION_JOBS, new Document("lockExpirationTime", 1), new IndexOptions()
+                .name("flw_locked_jobs_idx").partialFilterExpression(Filters.exists("lockExpirationTime")));
+        createIndex(mongoDatabase, MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS,
+                new Document().append("scopeType", 1).append("lockOwner", 1).append("duedate", 1));
+    }
+    
+    /**
+     * Creates the indices recommended by the {@link IndexAdvisor}.
+     */
+    public void createRecommendedIndices(IndexAdvice indexAdvice) {
+        MongoDatabase mongoDatabase = getEngineConfiguration().getMongoDatabase();
+        for (String collection : indexAdvice.getRecommendedIndices().keySet()) {
+            for (Document indexKeys : indexAdvice.getRecommendedIndices().get(collection)) {
+                LOGGER.info("Creating recommended index {} on {}", indexKeys.toJson(), collection);
+                createIndex(mongoDatabase, collection, indexKeys);
+            }
+        }
+        buildIndices(mongoDatabase);
+    }
+
+    /**
+     * Indices for the variable value conditions of the execution and process instance queries.
+     * The query fetches the execution ids from the index, without needing the variable documents.
+     */
+    protected void initVariableValueIndices(MongoDatabase mongoDatabase) {
+        String variables = MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES;
+        createIndex(mongoDatabase, variables, new Document().append("name", 1).append("typeName", 1).append("textValue", 1).append("executionId", 1));
+        createIndex(mongoDatabase, variables, new Document().append("name", 1).append("typeName", 1).append("longValue", 1).append("executionId", 1));
+        createIndex(mongoDatabase, variables, new Document().append("name", 1).append("typeName", 1).append("doubleValue", 1).append("executionId", 1));
+    }
+
+    /**
+     * Indices on the process definition properties that are denormalized on the executions.
+     */
+    protected void initProcessDefinitionIndices(MongoDatabase mongoDatabase) {
+        String executions = MongoDbExecutionDataManager.COLLECTION_EXECUTIONS;
+        createIndex(mongoDatabase, executions, new Document().append("processDefinitionKey", 1).append("processDefinitionVersion", 1));
+        createIndex(mongoDatabase, executions, new Document("deploymentId", 1));
+    }
+
+    /**
+     * Removes the schema lock of a crashed engine once its lease has expired. Only the lock document has a lockTime.
+     */
+    protected void initSchemaLockIndices(MongoCollection<Document> propertiesCollection) {
+        propertiesCollection.createIndex(new Document("lockTime", 1), createSchemaLockIndexOptions());
+    }
+    
+    protected IndexOptions createSchemaLockIndexOptions() {
+        return new IndexOptions().expireAfter(0L, TimeUnit.SECONDS).name("flw_schema_lock_ttl_idx");
+    }
+    
+    protected void initExecutionTreeIndices(MongoDatabase mongoDatabase) {
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES, new Document(ExecutionTreeWriter.EXECUTION_IDS, 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES, new Document(ExecutionTreeWriter.INLINE_VARIABLE_IDS, 1));
+    }
+    
+    protected void initProcessInstanceLockIndices(MongoDatabase mongoDatabase) {
+        // The lockTime is the expiration of the lease, so expired leases are removed right after it
+        createIndex(mongoDatabase, ProcessInstanceLeaseManager.COLLECTION_PROCESS_INSTANCE_LOCKS,
+                new Document("lockTime", 1), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+    }
+    
+    /**
+     * The indices of the GridFS specification (which the driver would otherwise create on the first upload, which isn't possible in a transaction)
+     * and the deploymentId in the metadata for deleting deployments.
+     */
+    protected void initGridFsIndices(MongoDatabase mongoDatabase) {
+        createIndex(mongoDatabase, GridFsByteArrayStore.COLLECTION_FILES, new Document().append("filename", 1).append("uploadDate", 1));
+        createIndex(mongoDatabase, GridFsByteArrayStore.COLLECTION_FILES, new Document("metadata.deploymentId", 1));
+        createIndex(mongoDatabase, GridFsByteArrayStore.COLLECTION_CHUNKS, new Document().append("files_id", 1).append("n", 1), new IndexOptions().unique(true));
+    }
+    
+    protected void initInlineVariableIndices(MongoDatabase mongoDatabase) {
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document(InlineVariableSupport.INLINE_VARIABLES + "._id", 1));
+        createIndex(mongoDatabase, MongoDbTaskDataManager.COLLECTION_TASKS, new Document(InlineVariableSupport.INLINE_VARIABLES + "._id", 1));
+        createIndex(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, new Document()
+                .append(InlineVariableSupport.INLINE_VARIABLES + ".name", 1).append(InlineVariableSupport.INLINE_VARIABLES + ".textValue", 1));
+    }
+    
+    /**
+     * The ordered migration steps that bring an existing database up to date (see {@link SchemaMigrator}).
+     * The ids of the steps must never change, as their completion is recorded under these ids.
+     */
+    protected List<SchemaMigration> getSchemaMigrations(MongoDbProcessEngineConfiguration engineConfiguration) {
+        List<SchemaMigration> migrations = new ArrayList<>();
+        // Index steps are only marked completed when their indices are built, so they are never deferred
+        migrations.add(new IndexMigration("6.4.0.1-query-indices", context -> {
+            initQueryIndices(context.getMongoDatabase());
+            buildIndices(context.getMongoDatabase());
+        }));
+        migrations.add(new IndexMigration("6.4.0.2-job-acquisition-indices", context -> {
+            initJobAcquisitionIndices(context.getMongoDatabase());
+            buildIndices(context.getMongoDatabase());
+        }));
+        migrations.add(new ExecutionProcessDefinitionMigration());
+        migrations.add(new SuperProcessInstanceIdMigration());
+        migrations.add(new IndexMigration("6.4.0.5-schema-lock-ttl-index", context -> {
+            createIndex(context.getMongoDatabase(), COLLECTION_PROPERTIES, new Document("lockTime", 1), createSchemaLockIndexOptions());
+            buildIndices(context.getMongoDatabase());
+        }));
+        // The executions of the embedded execution trees weren't migrated by the steps above
+        migrations.add(new ExecutionTreeMigration("6.4.0.6-execution-tree-process-definition", new ExecutionProcessDefinitionMigration()::createUpdates));
+        migrations.add(new ExecutionTreeMigration("6.4.0.7-execution-tree-super-process-instance-id", new SuperProcessInstanceIdMigration()::createUpdates));
+        migrations.add(new ExecutionTreeInlineVariableIdsMigration());
+        if (engineConfiguration.getCustomSchemaMigrations() != null) {
+            migrations.addAll(engineConfiguration.getCustomSchemaMigrations());
+        }
+        return migrations;
+    }
+    
+    protected SchemaMigrator createSchemaMigrator(MongoDbProcessEngineConfiguration engineConfiguration) {
+        SchemaMigrationContext context = new SchemaMigrationContext(engineConfiguration.getMongoDatabase(),
+                getPropertiesCollection(engineConfiguration), getMongoDbSessionFactory().getCompactFieldNames());
+        return new SchemaMigrator(context, getSchemaMigrations(engineConfiguration));
+    }
+    
+    /**
+     * Executes the migration steps that weren't executed on this database yet.
+     * The lock is only taken when there is something to migrate, so a database that is up to date doesn't delay the engine start.
+     */
+    protected void migrate(MongoDbProcessEngineConfiguration engineConfiguration) {
+        if (createSchemaMigrator(engineConfiguration).isMigrationNeeded()) {
+            try {
+                waitForLock(engineConfiguration);
+                
+                // Recreated after the lock is acquired, another engine can have migrated in the meantime
+                createSchemaMigrator(engineConfiguration).migrate();
+                
+            } finally {
+                releaseLock(engineConfiguration);
+            }
+        }
+    }
+    
+    protected void updateSchemaVersionProperty(MongoDbProcessEngineConfiguration engineConfiguration) {
+        getPropertiesCollection(engineConfiguration).updateOne(Filters.eq("name", SCHEMA_VERSION_PROPERTY),
+                new Document("$set", new Document("value", FlowableVersions.CURRENT_VERSION)));
     }
     
     protected void initSchemaVersionProperty(MongoDbProcessEngineConfiguration engineConfiguration) {
@@ -222,67 +535,204 @@ public class MongoProcessSchemaManager implements SchemaManager {
         propertiesCollection.insertOne(new Document()
                     .append("name", SCHEMA_VERSION_PROPERTY)
                     .append("value", FlowableVersions.CURRENT_VERSION));
+        propertiesCollection.insertOne(new Document()
+                    .append("name", FIELD_NAMES_PROPERTY)
+                    .append("value", getFieldNamesMode()));
     }
     
-    protected void waitForLock(MongoDbProcessEngineConfiguration engineConfiguration) {
-        boolean acquired = acquireLock(engineConfiguration);
-        if (!acquired) {
-            long timeout = new Date().getTime() + (5 * 60 * 1000); // TODO: make configurable
-            while (!acquired && new Date().getTime() < timeout) {
-              acquired = acquireLock(engineConfiguration);
-              if (!acquired) {
-                LOGGER.info("Waiting for lock....");
-                try {
-                  Thread.sleep(1000); // TODO: make configurable
-                } catch (InterruptedException e) {
-                    
-                }
-              }
+    /**
+     * The field names of existing documents can't be switched between the default and the compact names.
+     * Schemas created before the field names were recorded use the default names.
+     */
+    protected void checkFieldNames(MongoDatabase mongoDatabase) {
+        String fieldNames = getPropertyValue(mongoDatabase, FIELD_NAMES_PROPERTY);
+        if (fieldNames == null) {
+            fieldNames = FIELD_NAMES_DEFAULT;
+        }
+        if (!fieldNames.equals(getFieldNamesMode())) {
+            throw new FlowableException("The schema uses " + fieldNames + " field names, but the engine is configured for " + getFieldNamesMode() + " field names");
+        }
+    }
+    
+    protected String getFieldNamesMode() {
+        return getMongoDbSessionFactory().getCompactFieldNames() != null ? FIELD_NAMES_COMPACT : FIELD_NAMES_DEFAULT;
+    }
+    
+    protected void createIndex(MongoDatabase mongoDatabase, String collection, Document keys) {
+        createIndex(mongoDatabase, collection, keys, new IndexOptions());
+    }
+    
+    /**
+     * Collects the index, which is created by the next {@link #buildIndices(MongoDbProcessEngineConfiguration)} or {@link #buildIndices(MongoDatabase)}.
+     */
+    protected void createIndex(MongoDatabase mongoDatabase, String collection, Document keys, IndexOptions indexOptions) {
+        getIndexBuilder(mongoDatabase).addIndex(collection, keys, indexOptions);
+    }
+    
+    protected IndexBuilder getIndexBuilder(MongoDatabase mongoDatabase) {
+        if (indexBuilder == null) {
+            indexBuilder = new IndexBuilder(mongoDatabase, getMongoDbSessionFactory().getCompactFieldNames());
+        }
+        return indexBuilder;
+    }
+    
+    /**
+     * Creates the collected indices, unless asynchronous index creation is enabled.
+     * In that case they are created by {@link #buildDeferredIndices()} when the engine is up.
+     */
+    protected void buildIndices(MongoDbProcessEngineConfiguration engineConfiguration) {
+        if (!engineConfiguration.isAsyncIndexCreationEnabled()) {
+            buildIndices(engineConfiguration.getMongoDatabase());
+        }
+    }
+    
+    /**
+     * Creates the collected indices and waits until they are built.
+     */
+    protected void buildIndices(MongoDatabase mongoDatabase) {
+        if (indexBuilder != null && !indexBuilder.isEmpty()) {
+            indexBuilder.build();
+            if (defaultIndicesPending) {
+                setPropertyValue(mongoDatabase, INDICES_PROPERTY, INDICES_COMPLETED);
+                defaultIndicesPending = false;
             }
-            throw new FlowableException("Could not acquire lock within timeout");
-          }
+        }
     }
     
-    protected boolean acquireLock(MongoDbProcessEngineConfiguration engineConfiguration) {
-        try {
-            // Try to write a random ID to the lock document. There is a unique index on the name, so there can be only one.
-            // If the duplicate key exception is thrown, another engine has acquired the lock first.
-            MongoCollection<Document> propertiesCollection = getPropertiesCollection(engineConfiguration);
-            propertiesCollection.insertOne(new Document().append("name", "lock").append("value", randomId));
-
-            // Even if the write was successful, double-check the value of the written lock
-            FindIterable<Document> lockDocumentIterable = propertiesCollection.find(new Document().append("name", "lock"));
-            if (lockDocumentIterable != null) {
-                Document lockDocument = lockDocumentIterable.first();
-                if (lockDocument != null) {
-                    return randomId.equals(lockDocument.getString("value"));
+    /**
+     * Creates the indices that were collected when asynchronous index creation is enabled on a background thread,
+     * so the engine start doesn't wait for them.
+     * 
+     * When the default indices of a new schema were collected, the schema is marked with pending indices until they are built,
+     * so the next engine start creates them again when this engine stopped before.
+     */
+    public void buildDeferredIndices() {
+        if (indexBuilder == null || indexBuilder.isEmpty()) {
+            return;
+        }
+        
+        IndexBuilder deferredIndexBuilder = indexBuilder;
+        boolean deferredDefaultIndices = defaultIndicesPending;
+        String schemaFingerprint = deferredSchemaFingerprint;
+        indexBuilder = null;
+        defaultIndicesPending = false;
+        deferredSchemaFingerprint = null;
+        
+        Thread thread = new Thread(() -> {
+            try {
+                deferredIndexBuilder.build();
+                if (deferredDefaultIndices) {
+                    setPropertyValue(deferredIndexBuilder.getMongoDatabase(), INDICES_PROPERTY, INDICES_COMPLETED);
                 }
+                if (schemaFingerprint != null && !deferredIndexBuilder.hasFailedIndices()) {
+                    setPropertyValue(deferredIndexBuilder.getMongoDatabase(), SCHEMA_FINGERPRINT_PROPERTY, schemaFingerprint);
+                }
+                LOGGER.info("Indices created");
+                
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not create indices", e);
             }
-        } catch (MongoWriteException e) {
-            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
-                return false;
-            }
+        }, "flowable-async-index-creation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * The fingerprint of everything the schema update checks: the version, the field names, the collections,
+     * the optional features that have their own collections or indices and the migration steps.
+     * 
+     * It is stored when all checks of a schema update succeeded. When the schema fingerprint is enabled
+     * and the stored fingerprint matches, the engine start skips the checks with one query.
+     * Indices or collections that are dropped manually afterwards are then only recreated when the configuration changes.
+     */
+    protected String getSchemaFingerprint(MongoDbProcessEngineConfiguration engineConfiguration) {
+        StringBuilder fingerprint = new StringBuilder()
+                .append(FlowableVersions.CURRENT_VERSION).append('|')
+                .append(getFieldNamesMode()).append('|')
+                .append(engineConfiguration.isEmbeddedExecutionTreeEnabled()).append('|')
+                .append(engineConfiguration.isInlineVariablesEnabled()).append('|')
+                .append(engineConfiguration.getProcessInstanceLeaseManager() != null).append('|')
+                .append(engineConfiguration.getGridFsByteArrayStore() != null && engineConfiguration.getGridFsByteArrayStore().isEnabled()).append('|')
+                .append(getMongoDbSessionFactory().getShardKeys() != null).append('|')
+                .append(engineConfiguration.isClusteredHistoryCollectionsEnabled()).append('|');
+        
+        List<String> collectionNames = new ArrayList<>(getAllCollectionNames());
+        Collections.sort(collectionNames);
+        fingerprint.append(String.join(",", collectionNames)).append('|');
+        for (SchemaMigration migration : getSchemaMigrations(engineConfiguration)) {
+            fingerprint.append(migration.getId()).append(',');
+        }
+        
+        return UUID.nameUUIDFromBytes(fingerprint.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+    
+    protected boolean isSchemaFingerprintUnchanged(MongoDbProcessEngineConfiguration engineConfiguration) {
+        return engineConfiguration.isSchemaFingerprintEnabled()
+                && getSchemaFingerprint(engineConfiguration).equals(getPropertyValue(engineConfiguration.getMongoDatabase(), SCHEMA_FINGERPRINT_PROPERTY));
+    }
+    
+    /**
+     * The failures of an earlier schema check are retried by this one, so they don't keep it from storing the fingerprint.
+     */
+    protected void clearFailedIndices() {
+        if (indexBuilder != null) {
+            indexBuilder.clearFailedIndices();
+        }
+    }
+    
+    /**
+     * Stores the fingerprint of the schema, or keeps it until the deferred indices are built.
+     * Nothing is stored when an index couldn't be created, so the next start checks the schema again.
+     */
+    protected void updateSchemaFingerprint(MongoDbProcessEngineConfiguration engineConfiguration) {
+        if (!engineConfiguration.isSchemaFingerprintEnabled()) {
+            return;
+        }
+        if (indexBuilder != null && indexBuilder.hasFailedIndices()) {
+            LOGGER.warn("Not storing the schema fingerprint, indices {} could not be created", indexBuilder.getFailedIndices());
+            return;
+        }
+        
+        String fingerprint = getSchemaFingerprint(engineConfiguration);
+        if (indexBuilder != null && !indexBuilder.isEmpty()) {
+            deferredSchemaFingerprint = fingerprint;
+        } else {
+            setPropertyValue(engineConfiguration.getMongoDatabase(), SCHEMA_FINGERPRINT_PROPERTY, fingerprint);
         }
-        return true;
+    }
+    
+    protected void waitForLock(MongoDbProcessEngineConfiguration engineConfiguration) {
+        // Created for every acquire, as this also recreates the properties collection after a schema drop
+        schemaLock = createSchemaLock(engineConfiguration);
+        schemaLock.acquire();
+    }
+    
+    protected SchemaLock createSchemaLock(MongoDbProcessEngineConfiguration engineConfiguration) {
+        SchemaLock lock = new SchemaLock(getPropertiesCollection(engineConfiguration),
+                engineConfiguration.getSchemaLockLeaseDuration(), engineConfiguration.getSchemaLockWaitTimeout());
+        lock.setOwner(randomId);
+        return lock;
     }
     
     protected void releaseLock(MongoDbProcessEngineConfiguration engineConfiguration) {
-        MongoCollection<Document> propertiesCollection = getPropertiesCollection(engineConfiguration);
-        if (propertiesCollection != null) {
-            propertiesCollection.findOneAndDelete(new Document().append("name", "lock").append("value", randomId));
+        if (schemaLock != null) {
+            schemaLock.release();
+            schemaLock = null;
         }
     }
 
     protected  MongoCollection<Document> getPropertiesCollection(MongoDbProcessEngineConfiguration engineConfiguration) {
         if (!propertiesCollectionExists(engineConfiguration.getMongoDatabase())) {
-            MongoCollection<Document> propertiesCollection = null;
+            MongoCollection<Document> propertiesCollection = engineConfiguration.getMongoDatabase().getCollection(COLLECTION_PROPERTIES);
             try {
+                // Fails when another engine created the collection in the meantime
                 engineConfiguration.getMongoDatabase().createCollection(COLLECTION_PROPERTIES);
-                propertiesCollection = engineConfiguration.getMongoDatabase().getCollection(COLLECTION_PROPERTIES);
                 propertiesCollection.createIndex(new Document("name", 1), new IndexOptions().unique(true).name("flw_schema_version_idx"));
+                initSchemaLockIndices(propertiesCollection);
             } catch (Exception e) { 
                 // ignore
             }
+            getExistingCollections(engineConfiguration.getMongoDatabase()).add(COLLECTION_PROPERTIES);
             return propertiesCollection;
             
         } else  {
@@ -295,21 +745,33 @@ public class MongoProcessSchemaManager implements SchemaManager {
     public void schemaDrop() {
         LOGGER.info("Dropping all MongoDB collections in the database");
         MongoDatabase mongoDatabase = getEngineConfiguration().getMongoDatabase();
-        List<String> existingCollections = getExistingCollections(mongoDatabase);
+        existingCollections = null;
+        Set<String> collectionNames = getExistingCollections(mongoDatabase);
         for (String collectionName : getAllCollectionNames()) {
-            if (existingCollections.contains(collectionName)) {
+            if (collectionNames.contains(collectionName)) {
                 MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
                 if (collection != null) {
                     collection.drop();
                 }
             }
         }
+        existingCollections = null;
+        indexBuilder = null;
+        defaultIndicesPending = false;
+        deferredSchemaFingerprint = null;
     }
 
     @Override
     public String schemaUpdate() {
         
         MongoDbProcessEngineConfiguration engineConfiguration = getEngineConfiguration();
+        if (isSchemaFingerprintUnchanged(engineConfiguration)) {
+            LOGGER.info("Schema fingerprint is unchanged, skipping schema checks");
+            return null;
+        }
+        
+        existingCollections = null;
+        clearFailedIndices();
         String currentSchemaVersion = getVersion(engineConfiguration.getMongoDatabase());
         
         if (currentSchemaVersion == null) {
@@ -320,8 +782,8 @@ public class MongoProcessSchemaManager implements SchemaManager {
                 waitForLock(engineConfiguration);
                 currentSchemaVersion = getVersion(engineConfiguration.getMongoDatabase());
                 if (!FlowableVersions.CURRENT_VERSION.equals(currentSchemaVersion)) {
-                    // TODO in future release (if needed): loop from current version to latest version and apply updates programmatically
-                    // Note that the wait and release of the lock also need to happen in this case
+                    createSchemaMigrator(engineConfiguration).migrate();
+                    updateSchemaVersionProperty(engineConfiguration);
                 }
                 
             } finally {
@@ -330,7 +792,43 @@ public class MongoProcessSchemaManager implements SchemaManager {
             
         } else {
             LOGGER.info("Schema is up to date");
+            checkFieldNames(engineConfiguration.getMongoDatabase());
+            
+            migrate(engineConfiguration);
+            
+            // Sharding can be switched on for an existing schema
+            if (getMongoDbSessionFactory().getShardKeys() != null) {
+                initShardedCollections(engineConfiguration);
+            }
             
+            MongoDatabase mongoDatabase = engineConfiguration.getMongoDatabase();
+            if (INDICES_PENDING.equals(getPropertyValue(mongoDatabase, INDICES_PROPERTY))) {
+                // The asynchronous creation of the default indices didn't finish, only the missing ones are created again
+                initDefaultIndices(engineConfiguration);
+            }
+            
+            // The execution tree collection is optional and can be switched on for an existing schema
+            if (engineConfiguration.isEmbeddedExecutionTreeEnabled()) {
+                createCollectionIfNotExists(mongoDatabase, MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES);
+                initExecutionTreeIndices(mongoDatabase);
+            }
+            if (engineConfiguration.isInlineVariablesEnabled()) {
+                initInlineVariableIndices(mongoDatabase);
+            }
+            if (engineConfiguration.getProcessInstanceLeaseManager() != null) {
+                createCollectionIfNotExists(mongoDatabase, ProcessInstanceLeaseManager.COLLECTION_PROCESS_INSTANCE_LOCKS);
+                initProcessInstanceLockIndices(mongoDatabase);
+            }
+            if (engineConfiguration.getGridFsByteArrayStore() != null && engineConfiguration.getGridFsByteArrayStore().isEnabled()) {
+                for (String collectionName : Arrays.asList(GridFsByteArrayStore.COLLECTION_FILES, GridFsByteArrayStore.COLLECTION_CHUNKS)) {
+                    createCollectionIfNotExists(mongoDatabase, collectionName);
+                }
+                initGridFsIndices(mongoDatabase);
+            }
+            
+            // Only the indices that don't exist yet are sent, so this is one listIndexes call per collection for an up to date schema
+            buildIndices(engineConfiguration);
+            updateSchemaFingerprint(engineConfiguration);
         }
         
         return null;
@@ -338,10 +836,16 @@ public class MongoProcessSchemaManager implements SchemaManager {
     
     @Override
     public void schemaCheckVersion() {
+        if (isSchemaFingerprintUnchanged(getEngineConfiguration())) {
+            return;
+        }
+        
+        existingCollections = null;
         String version = getVersion(getEngineConfiguration().getMongoDatabase());
         if (!FlowableVersions.CURRENT_VERSION.equals(version)) {
             throw new FlowableException("Invalid version. Current schema version is " + version);
         }
+        checkFieldNames(getEngineConfiguration().getMongoDatabase());
     }
     
     protected String getVersion(MongoDatabase mongoDatabase) {
@@ -353,31 +857,37 @@ public class MongoProcessSchemaManager implements SchemaManager {
     }
 
     protected boolean propertiesCollectionExists(MongoDatabase mongoDatabase) {
-        MongoIterable<String> collectionNames = mongoDatabase.listCollectionNames();
-        if (collectionNames != null) {
-            for (String collectionName : collectionNames) {
-                if (COLLECTION_PROPERTIES.equals(collectionName)) {
-                    return true;
+        return getExistingCollections(mongoDatabase).contains(COLLECTION_PROPERTIES);
+    }
+    
+    protected Set<String> getExistingCollections(MongoDatabase mongoDatabase) {
+        if (existingCollections == null) {
+            existingCollections = new HashSet<>();
+            MongoIterable<String> collectionNames = mongoDatabase.listCollectionNames();
+            if (collectionNames != null) {
+                for (String collectionName : collectionNames) {
+                    existingCollections.add(collectionName);
                 }
             }
         }
-        return false;
+        return existingCollections;
     }
     
-    protected List<String> getExistingCollections(MongoDatabase mongoDatabase) {
-        List<String> result = new ArrayList<>();
-        MongoIterable<String> collectionNames = mongoDatabase.listCollectionNames();
-        if (collectionNames != null) {
-            for (String collectionName : collectionNames) {
-                result.add(collectionName);
-            }
+    protected void createCollectionIfNotExists(MongoDatabase mongoDatabase, String collectionName) {
+        Set<String> collectionNames = getExistingCollections(mongoDatabase);
+        if (!collectionNames.contains(collectionName)) {
+            mongoDatabase.createCollection(collectionName);
+            collectionNames.add(collectionName);
         }
-        return result;
     }
     
     protected String getSchemaVersionValue(MongoDatabase mongoDatabase) {
+        return getPropertyValue(mongoDatabase, SCHEMA_VERSION_PROPERTY);
+    }
+    
+    protected String getPropertyValue(MongoDatabase mongoDatabase, String name) {
         MongoCollection<Document> propertiesCollection = mongoDatabase.getCollection(COLLECTION_PROPERTIES);
-        FindIterable<Document> schemaVersionDocument = propertiesCollection.find(Filters.eq("name", SCHEMA_VERSION_PROPERTY));
+        FindIterable<Document> schemaVersionDocument = propertiesCollection.find(Filters.eq("name", name));
         if (schemaVersionDocument != null) {
             Document document = schemaVersionDocument.first();
             if (document != null) {
@@ -387,14 +897,22 @@ public class MongoProcessSchemaManager implements SchemaManager {
         return null;
     }
     
+    protected void setPropertyValue(MongoDatabase mongoDatabase, String name, String value) {
+        mongoDatabase.getCollection(COLLECTION_PROPERTIES).updateOne(Filters.eq("name", name),
+                new Document("$set", new Document("value", value)), new UpdateOptions().upsert(true));
+    }
+    
     protected Collection<String> getAllCollectionNames() {
-        MongoDbSessionFactory mongoDbSessionFactory = (MongoDbSessionFactory) getEngineConfiguration().getSessionFactories().get(MongoDbSession.class);
         Set<String> collectionNames = new HashSet<>();
-        collectionNames.addAll(mongoDbSessionFactory.getCollectionNames());
+        collectionNames.addAll(getMongoDbSessionFactory().getCollectionNames());
         collectionNames.add(COLLECTION_PROPERTIES);
         return collectionNames;
     }
     
+    protected MongoDbSessionFactory getMongoDbSessionFactory() {
+        return (MongoDbSessionFactory) getEngineConfiguration().getSessionFactories().get(MongoDbSession.class);
+    }
+    
     protected MongoDbProcessEngineConfiguration getEngineConfiguration() {
         MongoDbProcessEngineConfiguration engineConfiguration = (MongoDbProcessEngineConfiguration) CommandContextUtil.getProcessEngineConfiguration();
         return engineConfiguration;
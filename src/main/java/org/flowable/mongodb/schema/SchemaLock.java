@@ -0,0 +1,233 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.api.FlowableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * The lock that makes sure only one engine changes the schema at a time, as a lease in the properties collection:
+ *
+ * <pre>
+ * {
+ *   name: "lock",
+ *   value: id of the engine holding the lock,
+ *   lockTime: time the lease expires
+ * }
+ * </pre>
+ *
+ * The holder renews the lease while it holds the lock, so a lock of a crashed engine expires after the lease duration
+ * and is taken over by the next engine (and removed by the TTL index on the lockTime).
+ *
+ * An engine waiting for the lock watches the lock document with a change stream, so it tries again as soon as the lock is released.
+ * When change streams aren't available (e.g. when not connected to a replica set), it polls with the poll interval.
+ *
+ * @author Joram Barrez
+ */
+public class SchemaLock {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaLock.class);
+
+    public static final String LOCK_PROPERTY = "lock";
+
+    protected MongoCollection<Document> propertiesCollection;
+    protected String owner = UUID.randomUUID().toString();
+    protected long leaseDuration;
+    protected long waitTimeout;
+    protected long pollInterval = 1000L;
+
+    protected ScheduledExecutorService renewalExecutor;
+
+    public SchemaLock(MongoCollection<Document> propertiesCollection, long leaseDuration, long waitTimeout) {
+        this.propertiesCollection = propertiesCollection;
+        this.leaseDuration = leaseDuration;
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Acquires the lock, waiting at most the wait timeout for another engine to release it.
+     */
+    public void acquire() {
+        long timeout = System.currentTimeMillis() + waitTimeout;
+        while (!tryAcquire()) {
+            if (System.currentTimeMillis() >= timeout) {
+                throw new FlowableException("Could not acquire schema lock within " + waitTimeout + " ms");
+            }
+            LOGGER.info("Waiting for schema lock");
+            waitForRelease(timeout);
+        }
+        startRenewal();
+    }
+
+    /**
+     * Acquires the lock when it isn't held or when the lease of the holder has expired.
+     */
+    public boolean tryAcquire() {
+        stampLegacyLock();
+
+        Bson filter = Filters.and(Filters.eq("name", LOCK_PROPERTY), Filters.or(
+                Filters.eq("value", owner), Filters.lt("lockTime", new Date())));
+        Bson update = Updates.combine(Updates.set("value", owner), Updates.set("lockTime", getLeaseExpiration()));
+
+        try {
+            Document lock = propertiesCollection.findOneAndUpdate(filter, update,
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+            return lock != null && owner.equals(lock.getString("value"));
+
+        } catch (MongoCommandException e) {
+            // The upsert fails with a duplicate key on the unique name index when another engine holds the lock
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Locks written by engines before the lock was a lease don't have a lockTime and are never renewed.
+     * The first engine that sees such a lock gives it one lease duration as grace period, so an older engine
+     * still changing the schema during a rolling upgrade isn't taken over immediately.
+     */
+    protected void stampLegacyLock() {
+        propertiesCollection.updateOne(Filters.and(Filters.eq("name", LOCK_PROPERTY), Filters.exists("lockTime", false)),
+                Updates.set("lockTime", getLeaseExpiration()));
+    }
+
+    /**
+     * Waits until the current lock document changes, its lease expires or the timeout is reached.
+     */
+    protected void waitForRelease(long timeout) {
+        Document lock = propertiesCollection.find(Filters.eq("name", LOCK_PROPERTY)).first();
+        if (lock == null) {
+            return;
+        }
+
+        long waitUntil = timeout;
+        Date lockTime = lock.getDate("lockTime");
+        if (lockTime != null && lockTime.getTime() < waitUntil) {
+            waitUntil = lockTime.getTime();
+        }
+
+        try (MongoCursor<ChangeStreamDocument<Document>> cursor = propertiesCollection
+                .watch(Collections.singletonList(Aggregates.match(Filters.eq("documentKey._id", lock.get("_id")))))
+                .maxAwaitTime(pollInterval, TimeUnit.MILLISECONDS).iterator()) {
+
+            // The lock can have been released before the change stream was opened
+            if (!lock.equals(propertiesCollection.find(Filters.eq("_id", lock.get("_id"))).first())) {
+                return;
+            }
+            while (System.currentTimeMillis() < waitUntil) {
+                if (cursor.tryNext() != null) {
+                    return;
+                }
+            }
+
+        } catch (MongoException e) {
+            LOGGER.debug("Could not watch the schema lock, polling instead", e);
+            sleep(Math.min(pollInterval, waitUntil - System.currentTimeMillis()));
+        }
+    }
+
+    protected void startRenewal() {
+        renewalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flowable-schema-lock-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewalInterval = Math.max(leaseDuration / 3, 1L);
+        renewalExecutor.scheduleWithFixedDelay(this::renew, renewalInterval, renewalInterval, TimeUnit.MILLISECONDS);
+    }
+
+    protected void renew() {
+        try {
+            if (propertiesCollection.updateOne(Filters.and(Filters.eq("name", LOCK_PROPERTY), Filters.eq("value", owner)),
+                    Updates.set("lockTime", getLeaseExpiration())).getMatchedCount() == 0) {
+                LOGGER.warn("Schema lock was taken over by another engine");
+            }
+        } catch (MongoException e) {
+            LOGGER.warn("Could not renew schema lock", e);
+        }
+    }
+
+    /**
+     * Releases the lock, if it's still held by this engine.
+     */
+    public void release() {
+        if (renewalExecutor != null) {
+            renewalExecutor.shutdownNow();
+            renewalExecutor = null;
+        }
+        propertiesCollection.deleteOne(Filters.and(Filters.eq("name", LOCK_PROPERTY), Filters.eq("value", owner)));
+    }
+
+    protected Date getLeaseExpiration() {
+        return new Date(System.currentTimeMillis() + leaseDuration);
+    }
+
+    protected void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FlowableException("Interrupted while waiting for schema lock", e);
+            }
+        }
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+}
@@ -0,0 +1,97 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * A step that changes the documents of one collection in batches, in the order of their ids.
+ *
+ * After every batch the id of the last document is saved as checkpoint, so an interrupted migration continues
+ * after the last completed batch. Every batch is a separate bulk write without transaction,
+ * so other engines can keep working on the collection while it's migrated.
+ *
+ * @author Joram Barrez
+ */
+public abstract class AbstractBatchedDataMigration implements SchemaMigration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractBatchedDataMigration.class);
+
+    protected int batchSize = 500;
+
+    /**
+     * The collection of the documents to migrate.
+     */
+    protected abstract String getCollection();
+
+    /**
+     * The documents that need to be migrated, with the regular field names.
+     */
+    protected abstract Bson getFilter();
+
+    /**
+     * Creates the writes for one batch of documents. The documents and write models use the regular field names.
+     */
+    protected abstract List<WriteModel<Document>> migrateBatch(SchemaMigrationContext context, List<Document> documents);
+
+    @Override
+    public void migrate(SchemaMigrationContext context) {
+        String collection = getCollection();
+        String checkpoint = context.getCheckpoint(getId());
+        long migratedCount = 0;
+        while (true) {
+            Bson filter = checkpoint != null ? Filters.and(getFilter(), Filters.gt("_id", checkpoint)) : getFilter();
+            List<Document> documents = new ArrayList<>(batchSize);
+            for (Document document : context.getMongoDatabase().getCollection(collection)
+                    .find(context.toStoredFilter(collection, filter)).sort(Sorts.ascending("_id")).limit(batchSize)) {
+                documents.add(context.fromStoredDocument(collection, document));
+            }
+            if (documents.isEmpty()) {
+                break;
+            }
+
+            List<WriteModel<Document>> writeModels = migrateBatch(context, documents);
+            if (!writeModels.isEmpty()) {
+                context.bulkWrite(collection, writeModels);
+            }
+
+            migratedCount += documents.size();
+            checkpoint = documents.get(documents.size() - 1).getString("_id");
+            context.saveCheckpoint(getId(), checkpoint);
+            LOGGER.info("Migration {}: {} documents of {} migrated", getId(), migratedCount, collection);
+
+            if (documents.size() < batchSize) {
+                break;
+            }
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+}
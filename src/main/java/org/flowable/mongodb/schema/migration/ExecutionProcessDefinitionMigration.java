@@ -0,0 +1,112 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbProcessDefinitionDataManager;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Copies the process definition properties to the executions that were written before they were denormalized on the execution documents.
+ *
+ * @author Joram Barrez
+ */
+public class ExecutionProcessDefinitionMigration extends AbstractBatchedDataMigration {
+
+    @Override
+    public String getId() {
+        return "6.4.0.3-execution-process-definition";
+    }
+
+    @Override
+    protected String getCollection() {
+        return MongoDbExecutionDataManager.COLLECTION_EXECUTIONS;
+    }
+
+    @Override
+    protected Bson getFilter() {
+        return Filters.and(Filters.exists("processDefinitionId"), Filters.exists("processDefinitionKey", false));
+    }
+
+    @Override
+    protected List<WriteModel<Document>> migrateBatch(SchemaMigrationContext context, List<Document> executions) {
+        List<WriteModel<Document>> writeModels = new ArrayList<>();
+        for (Map.Entry<String, Document> update : createUpdates(context, executions).entrySet()) {
+            writeModels.add(new UpdateOneModel<>(Filters.eq("_id", update.getKey()), new Document("$set", update.getValue())));
+        }
+        return writeModels;
+    }
+
+    /**
+     * The fields to set per execution id, for the executions that don't have the process definition properties yet.
+     */
+    public Map<String, Document> createUpdates(SchemaMigrationContext context, Collection<Document> executions) {
+        Set<String> processDefinitionIds = new HashSet<>();
+        for (Document execution : executions) {
+            if (isMigrationNeeded(execution)) {
+                processDefinitionIds.add(execution.getString("processDefinitionId"));
+            }
+        }
+        if (processDefinitionIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Document> processDefinitions = new HashMap<>();
+        for (Document processDefinition : context.getMongoDatabase().getCollection(MongoDbProcessDefinitionDataManager.COLLECTION_PROCESS_DEFINITIONS)
+                .find(Filters.in("_id", processDefinitionIds))) {
+            processDefinitions.put(processDefinition.getString("_id"), processDefinition);
+        }
+
+        Map<String, Document> updates = new LinkedHashMap<>();
+        for (Document execution : executions) {
+            Document processDefinition = isMigrationNeeded(execution) ? processDefinitions.get(execution.getString("processDefinitionId")) : null;
+            if (processDefinition != null) {
+                Document set = new Document();
+                appendIfNotNull(set, "processDefinitionKey", processDefinition.get("key"));
+                appendIfNotNull(set, "processDefinitionName", processDefinition.get("name"));
+                appendIfNotNull(set, "processDefinitionVersion", processDefinition.get("version"));
+                appendIfNotNull(set, "processDefinitionCategory", processDefinition.get("category"));
+                appendIfNotNull(set, "processDefinitionEngineVersion", processDefinition.get("engineVersion"));
+                appendIfNotNull(set, "deploymentId", processDefinition.get("deploymentId"));
+                updates.put(execution.getString("_id"), set);
+            }
+        }
+        return updates;
+    }
+
+    protected boolean isMigrationNeeded(Document execution) {
+        return execution.get("processDefinitionId") != null && !execution.containsKey("processDefinitionKey");
+    }
+
+    protected void appendIfNotNull(Document document, String name, Object value) {
+        if (value != null) {
+            document.append(name, value);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.InlineVariableSupport;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Sets the {@value ExecutionTreeWriter#INLINE_VARIABLE_IDS} of the execution trees that were written before the trees kept them,
+ * from the inline variables of their executions.
+ *
+ * @author Joram Barrez
+ */
+public class ExecutionTreeInlineVariableIdsMigration extends AbstractBatchedDataMigration {
+
+    @Override
+    public String getId() {
+        return "6.4.0.8-execution-tree-inline-variable-ids";
+    }
+
+    @Override
+    protected String getCollection() {
+        return MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES;
+    }
+
+    @Override
+    protected Bson getFilter() {
+        return Filters.exists(ExecutionTreeWriter.INLINE_VARIABLE_IDS, false);
+    }
+
+    @Override
+    protected List<WriteModel<Document>> migrateBatch(SchemaMigrationContext context, List<Document> executionTrees) {
+        List<WriteModel<Document>> writeModels = new ArrayList<>();
+        for (Document executionTree : executionTrees) {
+            List<String> inlineVariableIds = new ArrayList<>();
+            Document executions = (Document) executionTree.get(ExecutionTreeWriter.EXECUTIONS);
+            if (executions != null) {
+                for (Object execution : executions.values()) {
+                    List<?> inlineVariables = (List<?>) ((Document) execution).get(InlineVariableSupport.INLINE_VARIABLES);
+                    if (inlineVariables != null) {
+                        for (Object inlineVariable : inlineVariables) {
+                            inlineVariableIds.add(((Document) inlineVariable).getString("_id"));
+                        }
+                    }
+                }
+            }
+            writeModels.add(new UpdateOneModel<>(Filters.eq("_id", executionTree.getString("_id")),
+                    Updates.set(ExecutionTreeWriter.INLINE_VARIABLE_IDS, inlineVariableIds)));
+        }
+        return writeModels;
+    }
+
+}
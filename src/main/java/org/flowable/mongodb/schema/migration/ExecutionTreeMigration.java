@@ -0,0 +1,90 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Applies an execution migration to the executions stored in the execution tree documents (see {@link ExecutionTreeWriter}).
+ *
+ * The executions of a tree are passed together, and the fields to set per execution are written with one update per tree.
+ * The executions are embedded by id, so the updates set the fields on the path of the execution and don't need array filters.
+ *
+ * @author Joram Barrez
+ */
+public class ExecutionTreeMigration extends AbstractBatchedDataMigration {
+
+    protected String id;
+    protected BiFunction<SchemaMigrationContext, Collection<Document>, Map<String, Document>> executionUpdates;
+
+    public ExecutionTreeMigration(String id, BiFunction<SchemaMigrationContext, Collection<Document>, Map<String, Document>> executionUpdates) {
+        this.id = id;
+        this.executionUpdates = executionUpdates;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    protected String getCollection() {
+        return MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES;
+    }
+
+    @Override
+    protected Bson getFilter() {
+        return new Document();
+    }
+
+    @Override
+    protected List<WriteModel<Document>> migrateBatch(SchemaMigrationContext context, List<Document> executionTrees) {
+        List<WriteModel<Document>> writeModels = new ArrayList<>();
+        for (Document executionTree : executionTrees) {
+            Document executions = (Document) executionTree.get(ExecutionTreeWriter.EXECUTIONS);
+            if (executions == null || executions.isEmpty()) {
+                continue;
+            }
+
+            List<Document> executionDocuments = new ArrayList<>(executions.size());
+            for (Object execution : executions.values()) {
+                executionDocuments.add((Document) execution);
+            }
+
+            Document set = new Document();
+            for (Map.Entry<String, Document> update : executionUpdates.apply(context, executionDocuments).entrySet()) {
+                for (Map.Entry<String, Object> field : update.getValue().entrySet()) {
+                    set.append(ExecutionTreeWriter.EXECUTIONS + "." + update.getKey() + "." + field.getKey(), field.getValue());
+                }
+            }
+            if (!set.isEmpty()) {
+                writeModels.add(new UpdateOneModel<>(Filters.eq("_id", executionTree.getString("_id")), new Document("$set", set)));
+            }
+        }
+        return writeModels;
+    }
+
+}
@@ -0,0 +1,50 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.function.Consumer;
+
+import org.flowable.mongodb.schema.IndexBuilder;
+
+/**
+ * A step that creates indices. The indices are collected in an {@link IndexBuilder} and built before the step returns:
+ * the built-in steps use the index builder of the schema manager, custom steps can create one for
+ * {@link SchemaMigrationContext#getMongoDatabase()} and {@link SchemaMigrationContext#getCompactFieldNames()}.
+ *
+ * The index builder only creates the missing indices, so the step is idempotent. The indices are created with the background option,
+ * so the collections remain writable while the indices are built on an existing database.
+ * When an index can't be created, the build fails and the step isn't marked completed, so it runs again on the next start.
+ *
+ * @author Joram Barrez
+ */
+public class IndexMigration implements SchemaMigration {
+
+    protected String id;
+    protected Consumer<SchemaMigrationContext> indexCreator;
+
+    public IndexMigration(String id, Consumer<SchemaMigrationContext> indexCreator) {
+        this.id = id;
+        this.indexCreator = indexCreator;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void migrate(SchemaMigrationContext context) {
+        indexCreator.accept(context);
+    }
+
+}
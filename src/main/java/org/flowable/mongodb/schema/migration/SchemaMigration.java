@@ -0,0 +1,33 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+/**
+ * One step of the schema migrations, which brings an existing database up to date with the current indices and document structure.
+ *
+ * Steps are executed in order, only once per database (see {@link SchemaMigrator}).
+ * A step can be interrupted at any point (e.g. when the engine is stopped) and is then executed again on the next start,
+ * so it must be idempotent.
+ *
+ * @author Joram Barrez
+ */
+public interface SchemaMigration {
+
+    /**
+     * The unique and stable id of the step, under which its completion is recorded.
+     */
+    String getId();
+
+    void migrate(SchemaMigrationContext context);
+
+}
@@ -0,0 +1,114 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.CompactFieldNames;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Gives the {@link SchemaMigration} steps access to the database, translating field names when compact field names are used,
+ * and stores the progress of the steps in the properties collection.
+ *
+ * @author Joram Barrez
+ */
+public class SchemaMigrationContext {
+
+    public static final String MIGRATION_PROPERTY_PREFIX = "migration.";
+    public static final String CHECKPOINT_PROPERTY_SUFFIX = ".checkpoint";
+    public static final String COMPLETED = "completed";
+
+    protected MongoDatabase mongoDatabase;
+    protected MongoCollection<Document> propertiesCollection;
+    protected CompactFieldNames compactFieldNames;
+
+    public SchemaMigrationContext(MongoDatabase mongoDatabase, MongoCollection<Document> propertiesCollection, CompactFieldNames compactFieldNames) {
+        this.mongoDatabase = mongoDatabase;
+        this.propertiesCollection = propertiesCollection;
+        this.compactFieldNames = compactFieldNames;
+    }
+
+    /**
+     * Writes the changes of a batch, translating the filters and $set/$unset updates to the stored field names.
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkWrite(String collection, List<WriteModel<Document>> writeModels) {
+        List<WriteModel<Document>> storedWriteModels = writeModels;
+        if (compactFieldNames != null) {
+            storedWriteModels = new ArrayList<>(writeModels.size());
+            for (WriteModel<Document> writeModel : writeModels) {
+                if (writeModel instanceof UpdateOneModel && ((UpdateOneModel<Document>) writeModel).getUpdate() instanceof Document) {
+                    UpdateOneModel<Document> updateOneModel = (UpdateOneModel<Document>) writeModel;
+                    storedWriteModels.add(new UpdateOneModel<>(compactFieldNames.toStoredFilter(collection, updateOneModel.getFilter()),
+                            compactFieldNames.toStoredUpdate(collection, (Document) updateOneModel.getUpdate()), updateOneModel.getOptions()));
+                } else {
+                    storedWriteModels.add(writeModel);
+                }
+            }
+        }
+        mongoDatabase.getCollection(collection).bulkWrite(storedWriteModels);
+    }
+
+    public Bson toStoredFilter(String collection, Bson filter) {
+        return compactFieldNames != null ? compactFieldNames.toStoredFilter(collection, filter) : filter;
+    }
+
+    public Document fromStoredDocument(String collection, Document document) {
+        return compactFieldNames != null ? compactFieldNames.fromStoredDocument(collection, document) : document;
+    }
+
+    public boolean isCompleted(String migrationId) {
+        return COMPLETED.equals(getProperty(MIGRATION_PROPERTY_PREFIX + migrationId));
+    }
+
+    public void markCompleted(String migrationId) {
+        setProperty(MIGRATION_PROPERTY_PREFIX + migrationId, COMPLETED);
+        propertiesCollection.deleteOne(Filters.eq("name", MIGRATION_PROPERTY_PREFIX + migrationId + CHECKPOINT_PROPERTY_SUFFIX));
+    }
+
+    public String getCheckpoint(String migrationId) {
+        return getProperty(MIGRATION_PROPERTY_PREFIX + migrationId + CHECKPOINT_PROPERTY_SUFFIX);
+    }
+
+    public void saveCheckpoint(String migrationId, String checkpoint) {
+        setProperty(MIGRATION_PROPERTY_PREFIX + migrationId + CHECKPOINT_PROPERTY_SUFFIX, checkpoint);
+    }
+
+    protected String getProperty(String name) {
+        Document property = propertiesCollection.find(Filters.eq("name", name)).first();
+        return property != null ? property.getString("value") : null;
+    }
+
+    protected void setProperty(String name, String value) {
+        propertiesCollection.updateOne(Filters.eq("name", name), new Document("$set", new Document("value", value)), new UpdateOptions().upsert(true));
+    }
+
+    public MongoDatabase getMongoDatabase() {
+        return mongoDatabase;
+    }
+
+    public CompactFieldNames getCompactFieldNames() {
+        return compactFieldNames;
+    }
+
+}
@@ -0,0 +1,70 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the {@link SchemaMigration} steps that weren't completed yet on the database, in order.
+ * The completion of every step is recorded in the properties collection, so a step is never executed twice after it completed.
+ *
+ * The caller is responsible for making sure only one engine migrates at the same time (i.e. holding the schema lock).
+ *
+ * @author Joram Barrez
+ */
+public class SchemaMigrator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    protected SchemaMigrationContext context;
+    protected List<SchemaMigration> migrations;
+
+    public SchemaMigrator(SchemaMigrationContext context, List<SchemaMigration> migrations) {
+        this.context = context;
+        this.migrations = migrations;
+    }
+
+    public boolean isMigrationNeeded() {
+        for (SchemaMigration migration : migrations) {
+            if (!context.isCompleted(migration.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void migrate() {
+        for (SchemaMigration migration : migrations) {
+            if (!context.isCompleted(migration.getId())) {
+                LOGGER.info("Executing schema migration {}", migration.getId());
+                long start = System.currentTimeMillis();
+                migration.migrate(context);
+                context.markCompleted(migration.getId());
+                LOGGER.info("Schema migration {} completed in {} ms", migration.getId(), System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Records all steps as completed, for a database that was created with the current indices and document structure.
+     */
+    public void markAllCompleted() {
+        for (SchemaMigration migration : migrations) {
+            context.markCompleted(migration.getId());
+        }
+    }
+
+}
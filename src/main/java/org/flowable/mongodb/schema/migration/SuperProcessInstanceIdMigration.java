@@ -0,0 +1,101 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.mongodb.schema.migration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Stores the process instance of the super execution on the sub process instances that were written before it was stored.
+ *
+ * @author Joram Barrez
+ */
+public class SuperProcessInstanceIdMigration extends AbstractBatchedDataMigration {
+
+    @Override
+    public String getId() {
+        return "6.4.0.4-super-process-instance-id";
+    }
+
+    @Override
+    protected String getCollection() {
+        return MongoDbExecutionDataManager.COLLECTION_EXECUTIONS;
+    }
+
+    @Override
+    protected Bson getFilter() {
+        return Filters.and(Filters.exists("superExecutionId"), Filters.exists("superProcessInstanceId", false));
+    }
+
+    @Override
+    protected List<WriteModel<Document>> migrateBatch(SchemaMigrationContext context, List<Document> subProcessInstances) {
+        List<WriteModel<Document>> writeModels = new ArrayList<>();
+        for (Map.Entry<String, Document> update : createUpdates(context, subProcessInstances).entrySet()) {
+            writeModels.add(new UpdateOneModel<>(Filters.eq("_id", update.getKey()), new Document("$set", update.getValue())));
+        }
+        return writeModels;
+    }
+
+    /**
+     * The fields to set per execution id, for the sub process instances that don't have the superProcessInstanceId yet.
+     * The super executions are looked up in the given executions first (they're part of the same execution tree), then in the executions collection.
+     */
+    public Map<String, Document> createUpdates(SchemaMigrationContext context, Collection<Document> executions) {
+        Map<String, String> superProcessInstanceIds = new HashMap<>();
+        for (Document execution : executions) {
+            superProcessInstanceIds.put(execution.getString("_id"), execution.getString("processInstanceId"));
+        }
+
+        Set<String> superExecutionIds = new HashSet<>();
+        for (Document execution : executions) {
+            if (isMigrationNeeded(execution) && !superProcessInstanceIds.containsKey(execution.getString("superExecutionId"))) {
+                superExecutionIds.add(execution.getString("superExecutionId"));
+            }
+        }
+        if (!superExecutionIds.isEmpty()) {
+            for (Document superExecution : context.getMongoDatabase().getCollection(getCollection())
+                    .find(context.toStoredFilter(getCollection(), Filters.in("_id", superExecutionIds)))) {
+                superExecution = context.fromStoredDocument(getCollection(), superExecution);
+                superProcessInstanceIds.put(superExecution.getString("_id"), superExecution.getString("processInstanceId"));
+            }
+        }
+
+        Map<String, Document> updates = new LinkedHashMap<>();
+        for (Document execution : executions) {
+            String superProcessInstanceId = isMigrationNeeded(execution) ? superProcessInstanceIds.get(execution.getString("superExecutionId")) : null;
+            if (superProcessInstanceId != null) {
+                updates.put(execution.getString("_id"), new Document("superProcessInstanceId", superProcessInstanceId));
+            }
+        }
+        return updates;
+    }
+
+    protected boolean isMigrationNeeded(Document execution) {
+        return execution.get("superExecutionId") != null && !execution.containsKey("superProcessInstanceId");
+    }
+
+}
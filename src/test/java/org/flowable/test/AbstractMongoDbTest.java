@@ -72,6 +72,7 @@ public class AbstractMongoDbTest {
         asyncJobExecutor.setDefaultTimerJobAcquireWaitTimeInMillis(1000);
         processEngineConfiguration.setAsyncExecutor(asyncJobExecutor);
         processEngineConfiguration.setAsyncFailedJobWaitTime(1);
+        configureProcessEngine(processEngineConfiguration);
         
         this.processEngine = processEngineConfiguration.buildProcessEngine();
         this.repositoryService = this.processEngine.getRepositoryService();
@@ -81,6 +82,13 @@ public class AbstractMongoDbTest {
         this.managementService = this.processEngine.getManagementService();
     }
     
+    /**
+     * Hook for subclasses to change the configuration before the process engine is built.
+     */
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        
+    }
+    
     @AfterEach
     public void cleanup() {
         deleteAllDocuments();
@@ -0,0 +1,88 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.flowable.common.engine.impl.util.IoUtil;
+import org.flowable.common.engine.impl.util.ReflectUtil;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.compression.ByteArrayCompression;
+import org.flowable.mongodb.persistence.compression.DeflateByteArrayCompressor;
+import org.flowable.mongodb.persistence.manager.MongoDbResourceDataManager;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class ByteArrayCompressionTest extends AbstractMongoDbTest {
+
+    private static final String RESOURCE = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml";
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setByteArrayCompressionEnabled(true);
+    }
+
+    @Test
+    public void testResourceStoredCompressed() throws Exception {
+        byte[] expectedBytes;
+        try (InputStream inputStream = ReflectUtil.getResourceAsStream(RESOURCE)) {
+            expectedBytes = IoUtil.readInputStream(inputStream, RESOURCE);
+        }
+
+        String deploymentId = repositoryService.createDeployment().addClasspathResource(RESOURCE).deploy().getId();
+        try {
+            Document resourceDocument = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbResourceDataManager.COLLECTION_BYTE_ARRAY)
+                .find(Filters.and(Filters.eq("deploymentId", deploymentId), Filters.eq("name", RESOURCE))).first();
+            Binary binary = (Binary) resourceDocument.get("bytes");
+            assertEquals(DeflateByteArrayCompressor.BINARY_SUB_TYPE, binary.getType());
+            assertTrue(binary.length() < expectedBytes.length);
+
+            try (InputStream inputStream = repositoryService.getResourceAsStream(deploymentId, RESOURCE)) {
+                assertArrayEquals(expectedBytes, IoUtil.readInputStream(inputStream, RESOURCE));
+            }
+
+            processEngineConfiguration.getProcessDefinitionCache().clear();
+            assertNotNull(runtimeService.startProcessInstanceByKey("oneTaskProcess"));
+
+        } finally {
+            repositoryService.deleteDeployment(deploymentId, true);
+        }
+    }
+
+    @Test
+    public void testUncompressedBytesReadable() {
+        ByteArrayCompression compression = new ByteArrayCompression(new DeflateByteArrayCompressor(), true);
+        byte[] bytes = new byte[1024];
+        assertArrayEquals(bytes, compression.fromStoredValue(compression.toStoredValue(bytes)));
+
+        // Written before compression was enabled
+        assertArrayEquals(bytes, compression.fromStoredValue(new Binary(bytes)));
+
+        // Too small to compress
+        byte[] smallBytes = new byte[10];
+        assertSame(smallBytes, compression.toStoredValue(smallBytes));
+    }
+
+}
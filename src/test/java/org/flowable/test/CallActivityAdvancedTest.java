@@ -60,6 +60,14 @@ public class CallActivityAdvancedTest extends AbstractMongoDbTest {
         Task taskInSubProcess = taskQuery.singleResult();
         assertEquals("Task in subprocess", taskInSubProcess.getName());
 
+        // The call hierarchy can be queried in both directions
+        assertEquals(taskInSubProcess.getProcessInstanceId(),
+                runtimeService.createProcessInstanceQuery().superProcessInstanceId(processInstance.getId()).singleResult().getId());
+        assertEquals(processInstance.getId(),
+                runtimeService.createProcessInstanceQuery().subProcessInstanceId(taskInSubProcess.getProcessInstanceId()).singleResult().getId());
+        assertEquals(processInstance.getId(), runtimeService.createProcessInstanceQuery().excludeSubprocesses(true).singleResult().getId());
+        assertEquals(taskInSubProcess.getProcessInstanceId(), runtimeService.createExecutionQuery().onlySubProcessExecutions().singleResult().getId());
+
         // Completing the task in the subprocess, finishes the subprocess
         taskService.complete(taskInSubProcess.getId());
         Task taskAfterSubProcess = taskQuery.singleResult();
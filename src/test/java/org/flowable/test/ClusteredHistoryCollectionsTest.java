@@ -0,0 +1,69 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.bson.Document;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricDetailDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricIdentityLinkDataManager;
+import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class ClusteredHistoryCollectionsTest extends AbstractMongoDbTest {
+
+    @BeforeAll
+    public static void assumeClusteredIndexSupported() {
+        MongoClient mongoClient = new MongoClient("localhost", 27017);
+        try {
+            Assumptions.assumeTrue(MongoProcessSchemaManager.isServerVersionAtLeast(mongoClient.getDatabase("admin"), 5, 3),
+                    "Clustered collections require MongoDB 5.3 or later");
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        // A separate database, as existing collections aren't converted to clustered collections
+        processEngineConfiguration.setDatabaseName("flowable-clustered");
+        processEngineConfiguration.setClusteredHistoryCollectionsEnabled(true);
+    }
+
+    @Test
+    public void testHistoryCollectionsAreClustered() {
+        assertClustered(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES);
+        assertClustered(MongoDbHistoricDetailDataManager.COLLECTION_HISTORIC_DETAILS);
+        assertClustered(MongoDbHistoricIdentityLinkDataManager.COLLECTION_HISTORIC_IDENTITY_LINKS);
+    }
+
+    protected void assertClustered(String collectionName) {
+        Document collection = processEngineConfiguration.getMongoDatabase().listCollections().filter(Filters.eq("name", collectionName)).first();
+        assertNotNull(collection, collectionName);
+        Document clusteredIndex = (Document) ((Document) collection.get("options")).get("clusteredIndex");
+        assertNotNull(clusteredIndex, collectionName);
+        assertEquals(new Document("_id", 1), clusteredIndex.get("key"));
+    }
+
+}
@@ -0,0 +1,72 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.bson.Document;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.task.api.Task;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class CompactFieldNamesTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        // The field names are recorded in the schema, so a separate database is needed
+        processEngineConfiguration.setDatabaseName("flowable-compact");
+        processEngineConfiguration.setCompactFieldNamesEnabled(true);
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testCompactFieldNames() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess", "myBusinessKey",
+                Collections.<String, Object>singletonMap("myVar", "hello"));
+
+        Document processInstanceDocument = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS)
+                .find(Filters.eq("_id", processInstance.getId())).first();
+        assertEquals("myBusinessKey", processInstanceDocument.getString("bKey"));
+        assertFalse(processInstanceDocument.containsKey("businessKey"));
+        assertTrue(processEngineConfiguration.getMongoDatabase().getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES)
+                .find(Filters.eq("exId", processInstance.getId())).first() != null);
+
+        // Queries, updates and aggregations use the regular field names
+        assertEquals(processInstance.getId(), runtimeService.createProcessInstanceQuery().processInstanceBusinessKey("myBusinessKey").singleResult().getId());
+        assertEquals("hello", runtimeService.createProcessInstanceQuery().processInstanceId(processInstance.getId())
+                .includeProcessVariables().singleResult().getProcessVariables().get("myVar"));
+        runtimeService.setVariable(processInstance.getId(), "myVar", "world");
+        assertEquals("world", runtimeService.getVariable(processInstance.getId(), "myVar"));
+
+        Task task = taskService.createTaskQuery().processInstanceId(processInstance.getId()).singleResult();
+        taskService.complete(task.getId());
+        assertProcessEnded(processInstance.getId());
+
+        assertEquals(1, historyService.createHistoricProcessInstanceQuery().processInstanceBusinessKey("myBusinessKey").finished().count());
+        assertEquals("world", historyService.createHistoricVariableInstanceQuery().processInstanceId(processInstance.getId())
+                .variableName("myVar").singleResult().getValue());
+    }
+
+}
@@ -0,0 +1,59 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.flowable.engine.impl.persistence.entity.ResourceEntity;
+import org.flowable.engine.impl.util.CommandContextUtil;
+import org.flowable.mongodb.persistence.entity.MongoDbResourceEntityImpl;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Joram Barrez
+ */
+public class DeploymentResourcesTest extends AbstractMongoDbTest {
+
+    private static final String RESOURCE = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml";
+
+    @Test
+    public void testImageBytesLoadedLazily() {
+        byte[] imageBytes = new byte[] { 1, 2, 3 };
+        String deploymentId = repositoryService.createDeployment().addClasspathResource(RESOURCE).addBytes("diagram.PNG", imageBytes).deploy().getId();
+        try {
+            managementService.executeCommand(commandContext -> {
+                List<ResourceEntity> resources = CommandContextUtil.getResourceEntityManager(commandContext).findResourcesByDeploymentId(deploymentId);
+                assertEquals(2, resources.size());
+                for (ResourceEntity resource : resources) {
+                    MongoDbResourceEntityImpl mongoDbResource = (MongoDbResourceEntityImpl) resource;
+                    if (RESOURCE.equals(resource.getName())) {
+                        assertTrue(mongoDbResource.isBytesLoaded());
+                    } else {
+                        assertFalse(mongoDbResource.isBytesLoaded());
+                        assertArrayEquals(imageBytes, mongoDbResource.getBytes());
+                    }
+                }
+                return null;
+            });
+
+        } finally {
+            repositoryService.deleteDeployment(deploymentId, true);
+        }
+    }
+
+}
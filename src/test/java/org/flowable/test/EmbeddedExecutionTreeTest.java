@@ -0,0 +1,152 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.Document;
+import org.flowable.engine.runtime.Execution;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.flowable.mongodb.schema.migration.SchemaMigrationContext;
+import org.flowable.task.api.Task;
+import org.flowable.task.api.TaskQuery;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * @author Joram Barrez
+ */
+public class EmbeddedExecutionTreeTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setEmbeddedExecutionTreeEnabled(true);
+    }
+
+    @Test
+    public void testNestedForkJoin() {
+        repositoryService.createDeployment().addClasspathResource("org/flowable/test/ParallelGatewayTest.testNestedForkJoin.bpmn20.xml").deploy();
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("nestedForkJoin");
+
+        MongoCollection<Document> executionTrees = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES);
+        MongoCollection<Document> executions = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
+        assertEquals(1, executionTrees.countDocuments());
+        assertEquals(0, executions.countDocuments());
+
+        TaskQuery query = taskService.createTaskQuery().orderByTaskName().asc();
+        taskService.complete(query.singleResult().getId());
+        List<Task> tasks = query.list();
+        assertEquals(2, tasks.size());
+
+        // All executions are stored in the document of the root process instance
+        Document executionTree = executionTrees.find(Filters.eq("_id", processInstance.getId())).first();
+        assertNotNull(executionTree);
+        List<Execution> runtimeExecutions = runtimeService.createExecutionQuery().processInstanceId(processInstance.getId()).list();
+        assertEquals(runtimeExecutions.size(), ((List<?>) executionTree.get(ExecutionTreeWriter.EXECUTION_IDS)).size());
+        assertEquals(runtimeExecutions.size(), ((Document) executionTree.get(ExecutionTreeWriter.EXECUTIONS)).size());
+        assertEquals(1, runtimeService.createProcessInstanceQuery().processInstanceId(processInstance.getId()).count());
+
+        taskService.complete(tasks.get(0).getId());
+        taskService.complete(tasks.get(1).getId());
+        tasks = query.list();
+        assertEquals(2, tasks.size());
+        assertEquals("Task B1", tasks.get(0).getName());
+        assertEquals("Task B2", tasks.get(1).getName());
+
+        taskService.complete(tasks.get(0).getId());
+        taskService.complete(tasks.get(1).getId());
+        assertEquals("Task C", query.singleResult().getName());
+
+        taskService.complete(query.singleResult().getId());
+        assertProcessEnded(processInstance.getId());
+        assertNull(executionTrees.find(Filters.eq("_id", processInstance.getId())).first());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testIncludeProcessVariablesPaged() {
+        List<String> processInstanceIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            processInstanceIds.add(runtimeService.startProcessInstanceByKey("oneTaskProcess", Collections.singletonMap("index", i)).getId());
+        }
+        Collections.sort(processInstanceIds);
+
+        List<ProcessInstance> processInstances = runtimeService.createProcessInstanceQuery().includeProcessVariables()
+                .orderByProcessInstanceId().desc().listPage(1, 2);
+        assertEquals(2, processInstances.size());
+        assertEquals(processInstanceIds.get(1), processInstances.get(0).getId());
+        assertEquals(processInstanceIds.get(0), processInstances.get(1).getId());
+        assertEquals(1, processInstances.get(0).getProcessVariables().size());
+    }
+
+    @Test
+    public void testCallActivityInSameExecutionTree() {
+        repositoryService.createDeployment()
+            .addClasspathResource("org/flowable/test/callactivity/CallActivity.testCallSimpleSubProcess.bpmn20.xml")
+            .addClasspathResource("org/flowable/test/callactivity/simpleSubProcess.bpmn20.xml")
+            .deploy();
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("callSimpleSubProcess");
+
+        TaskQuery taskQuery = taskService.createTaskQuery();
+        taskService.complete(taskQuery.singleResult().getId());
+        Task taskInSubProcess = taskQuery.singleResult();
+        assertEquals("Task in subprocess", taskInSubProcess.getName());
+
+        // The sub process instance is part of the execution tree of the root process instance
+        MongoCollection<Document> executionTrees = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES);
+        assertEquals(1, executionTrees.countDocuments());
+        assertEquals(1, executionTrees.countDocuments(Filters.eq(ExecutionTreeWriter.EXECUTION_IDS, taskInSubProcess.getProcessInstanceId())));
+        assertNotNull(runtimeService.createProcessInstanceQuery().superProcessInstanceId(processInstance.getId()).singleResult());
+
+        taskService.complete(taskInSubProcess.getId());
+        assertEquals("Task after subprocess", taskQuery.singleResult().getName());
+        taskService.complete(taskQuery.singleResult().getId());
+        assertProcessEnded(processInstance.getId());
+        assertEquals(0, executionTrees.countDocuments());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testExecutionTreeMigration() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+
+        // Simulate an execution tree written before the process definition properties were stored on the executions
+        String migrationId = "6.4.0.6-execution-tree-process-definition";
+        MongoCollection<Document> executionTrees = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES);
+        executionTrees.updateOne(Filters.eq("_id", processInstance.getId()),
+                Updates.unset(ExecutionTreeWriter.EXECUTIONS + "." + processInstance.getId() + ".processDefinitionKey"));
+        MongoCollection<Document> properties = processEngineConfiguration.getMongoDatabase().getCollection(MongoProcessSchemaManager.COLLECTION_PROPERTIES);
+        properties.deleteOne(Filters.eq("name", SchemaMigrationContext.MIGRATION_PROPERTY_PREFIX + migrationId));
+        assertEquals(0, runtimeService.createProcessInstanceQuery().processDefinitionKey("oneTaskProcess").count());
+
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+
+        assertEquals(1, runtimeService.createProcessInstanceQuery().processDefinitionKey("oneTaskProcess").count());
+        assertEquals(SchemaMigrationContext.COMPLETED, properties.find(Filters.eq("name", SchemaMigrationContext.MIGRATION_PROPERTY_PREFIX + migrationId))
+                .first().getString("value"));
+    }
+
+}
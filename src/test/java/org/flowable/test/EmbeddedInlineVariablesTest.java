@@ -0,0 +1,67 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.Document;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ExecutionTreeWriter;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.variable.service.impl.util.CommandContextUtil;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class EmbeddedInlineVariablesTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setEmbeddedExecutionTreeEnabled(true);
+        processEngineConfiguration.setInlineVariablesEnabled(true);
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testInlineVariableIdsOfExecutionTree() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess", Collections.singletonMap("a", "valueA"));
+        String variableAId = runtimeService.getVariableInstance(processInstance.getId(), "a").getId();
+        assertEquals(Collections.singletonList(variableAId), getInlineVariableIds(processInstance.getId()));
+
+        runtimeService.setVariable(processInstance.getId(), "b", "valueB");
+        String variableBId = runtimeService.getVariableInstance(processInstance.getId(), "b").getId();
+        assertTrue(getInlineVariableIds(processInstance.getId()).contains(variableBId));
+
+        // A variable is found by its id through the indexed ids of the trees
+        assertNotNull(managementService.executeCommand(commandContext -> CommandContextUtil.getVariableInstanceEntityManager(commandContext).findById(variableBId)));
+
+        runtimeService.removeVariable(processInstance.getId(), "a");
+        assertEquals(Collections.singletonList(variableBId), getInlineVariableIds(processInstance.getId()));
+    }
+
+    protected List<?> getInlineVariableIds(String rootProcessInstanceId) {
+        Document executionTree = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES)
+                .find(Filters.eq("_id", rootProcessInstanceId)).first();
+        return (List<?>) executionTree.get(ExecutionTreeWriter.INLINE_VARIABLE_IDS);
+    }
+
+}
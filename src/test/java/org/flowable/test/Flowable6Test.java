@@ -80,6 +80,20 @@ public class Flowable6Test extends AbstractMongoDbTest {
         assertEquals("kermit", task.getAssignee());
     }
 
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testQueryByProcessDefinition() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        ProcessDefinition processDefinition = repositoryService.createProcessDefinitionQuery().processDefinitionKey("oneTaskProcess").singleResult();
+
+        assertEquals(processInstance.getId(), runtimeService.createProcessInstanceQuery().processDefinitionKey("oneTaskProcess").singleResult().getId());
+        assertEquals(1, runtimeService.createProcessInstanceQuery().processDefinitionVersion(processDefinition.getVersion()).count());
+        assertEquals(1, runtimeService.createProcessInstanceQuery().deploymentId(processDefinition.getDeploymentId()).count());
+        assertEquals(0, runtimeService.createProcessInstanceQuery().processDefinitionKey("unknown").count());
+        assertEquals(2, runtimeService.createExecutionQuery().processDefinitionKey("oneTaskProcess").count());
+        assertEquals("oneTaskProcess", runtimeService.createProcessInstanceQuery().singleResult().getProcessDefinitionKey());
+    }
+
     @Test
     @org.flowable.engine.test.Deployment
     public void testSimpleParallelGateway() {
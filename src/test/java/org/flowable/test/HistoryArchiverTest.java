@@ -0,0 +1,82 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Date;
+
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.persistence.HistoryArchiver;
+import org.flowable.mongodb.persistence.MongoDbSession;
+import org.flowable.mongodb.persistence.MongoDbSessionFactory;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * @author Joram Barrez
+ */
+public class HistoryArchiverTest extends AbstractMongoDbTest {
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testArchiveHistory() {
+        ProcessInstance oldProcessInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        taskService.complete(taskService.createTaskQuery().processInstanceId(oldProcessInstance.getId()).singleResult().getId());
+        ProcessInstance recentProcessInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        taskService.complete(taskService.createTaskQuery().processInstanceId(recentProcessInstance.getId()).singleResult().getId());
+
+        processEngineConfiguration.getMongoDatabase().getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES)
+                .updateOne(Filters.eq("_id", oldProcessInstance.getId()), Updates.set("endTime", new Date(System.currentTimeMillis() - 3L * 24L * 60L * 60L * 1000L)));
+
+        MongoDatabase archiveDatabase = processEngineConfiguration.getMongoClient().getDatabase("flowableArchiveTest");
+        MongoDbSessionFactory mongoDbSessionFactory = (MongoDbSessionFactory) processEngineConfiguration.getSessionFactories().get(MongoDbSession.class);
+        HistoryArchiver historyArchiver = new HistoryArchiver().setArchiveDatabase(archiveDatabase);
+        historyArchiver.setRetentionDays(2);
+        historyArchiver.start(processEngineConfiguration.getCommandExecutor());
+        try {
+            assertEquals(1, historyArchiver.archiveHistory());
+
+            assertEquals(0, countDocuments(processEngineConfiguration.getMongoDatabase(), MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, oldProcessInstance.getId()));
+            assertEquals(0, countDocuments(processEngineConfiguration.getMongoDatabase(), MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, oldProcessInstance.getId()));
+            assertEquals(1, countDocuments(archiveDatabase, MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, oldProcessInstance.getId()));
+            assertEquals(1, countDocuments(archiveDatabase, MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, oldProcessInstance.getId()));
+            assertEquals(1, countDocuments(processEngineConfiguration.getMongoDatabase(), MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, recentProcessInstance.getId()));
+
+            assertNull(historyService.createHistoricProcessInstanceQuery().processInstanceId(oldProcessInstance.getId()).singleResult());
+
+            mongoDbSessionFactory.setHistoryArchiver(historyArchiver);
+            assertNotNull(historyService.createHistoricProcessInstanceQuery().processInstanceId(oldProcessInstance.getId()).singleResult());
+            assertEquals(countDocuments(archiveDatabase, MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, oldProcessInstance.getId()),
+                    historyService.createHistoricActivityInstanceQuery().processInstanceId(oldProcessInstance.getId()).count());
+
+        } finally {
+            mongoDbSessionFactory.setHistoryArchiver(null);
+            historyArchiver.stop();
+            archiveDatabase.drop();
+        }
+    }
+
+    protected long countDocuments(MongoDatabase mongoDatabase, String collection, String processInstanceId) {
+        return mongoDatabase.getCollection(collection).countDocuments(Filters.eq("processInstanceId", processInstanceId));
+    }
+
+}
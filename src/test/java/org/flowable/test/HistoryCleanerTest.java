@@ -0,0 +1,64 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Date;
+
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.persistence.HistoryCleaner;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricActivityInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricProcessInstanceDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbHistoricTaskInstanceDataManager;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * @author Joram Barrez
+ */
+public class HistoryCleanerTest extends AbstractMongoDbTest {
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testCleanHistory() {
+        ProcessInstance oldProcessInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        taskService.complete(taskService.createTaskQuery().processInstanceId(oldProcessInstance.getId()).singleResult().getId());
+        ProcessInstance recentProcessInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        taskService.complete(taskService.createTaskQuery().processInstanceId(recentProcessInstance.getId()).singleResult().getId());
+
+        processEngineConfiguration.getMongoDatabase().getCollection(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES)
+                .updateOne(Filters.eq("_id", oldProcessInstance.getId()), Updates.set("endTime", new Date(System.currentTimeMillis() - 3L * 24L * 60L * 60L * 1000L)));
+
+        HistoryCleaner historyCleaner = new HistoryCleaner().setRetentionDays(30).setProcessDefinitionRetentionDays("oneTaskProcess", 2);
+        historyCleaner.start(processEngineConfiguration.getCommandExecutor());
+        try {
+            assertEquals(1, historyCleaner.cleanHistory());
+        } finally {
+            historyCleaner.stop();
+        }
+
+        assertEquals(0, countDocuments(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, oldProcessInstance.getId()));
+        assertEquals(0, countDocuments(MongoDbHistoricActivityInstanceDataManager.COLLECTION_HISTORIC_ACTIVITY_INSTANCES, oldProcessInstance.getId()));
+        assertEquals(0, countDocuments(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, oldProcessInstance.getId()));
+        assertEquals(1, countDocuments(MongoDbHistoricProcessInstanceDataManager.COLLECTION_HISTORIC_PROCESS_INSTANCES, recentProcessInstance.getId()));
+        assertEquals(1, countDocuments(MongoDbHistoricTaskInstanceDataManager.COLLECTION_HISTORIC_TASK_INSTANCES, recentProcessInstance.getId()));
+    }
+
+    protected long countDocuments(String collection, String processInstanceId) {
+        return processEngineConfiguration.getMongoDatabase().getCollection(collection).countDocuments(Filters.eq("processInstanceId", processInstanceId));
+    }
+
+}
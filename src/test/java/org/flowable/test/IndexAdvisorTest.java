@@ -0,0 +1,95 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.MongoDbSession;
+import org.flowable.mongodb.persistence.MongoDbSessionFactory;
+import org.flowable.mongodb.persistence.QueryShapeRecorder.QueryShape;
+import org.flowable.mongodb.persistence.manager.MongoDbJobDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTimerJobDataManager;
+import org.flowable.mongodb.schema.IndexAdvice;
+import org.flowable.mongodb.schema.IndexAdvisor;
+import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class IndexAdvisorTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setQueryShapeRecordingEnabled(true);
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testIndexAdvice() {
+        runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        taskService.createTaskQuery().taskAssignee("kermit").taskName("my task").list();
+
+        boolean taskShapeRecorded = false;
+        for (QueryShape shape : processEngineConfiguration.getQueryShapeRecorder().getShapes()) {
+            if (MongoDbTaskDataManager.COLLECTION_TASKS.equals(shape.getCollection()) && shape.getEqualityFields().contains("assignee")) {
+                taskShapeRecorded = true;
+            }
+        }
+        assertTrue(taskShapeRecorded);
+
+        MongoDbSessionFactory mongoDbSessionFactory = (MongoDbSessionFactory) processEngineConfiguration.getSessionFactories().get(MongoDbSession.class);
+        IndexAdvice indexAdvice = new IndexAdvisor(mongoDbSessionFactory).analyze();
+        Document assigneeIndex = new Document().append("assignee", 1).append("name", 1);
+        assertTrue(indexAdvice.getRecommendedIndices().get(MongoDbTaskDataManager.COLLECTION_TASKS).contains(assigneeIndex));
+
+        try {
+            managementService.executeCommand(commandContext -> {
+                ((MongoProcessSchemaManager) processEngineConfiguration.getSchemaManager()).createRecommendedIndices(indexAdvice);
+                return null;
+            });
+            IndexAdvice newIndexAdvice = new IndexAdvisor(mongoDbSessionFactory).analyze();
+            assertFalse(newIndexAdvice.getRecommendedIndices().containsKey(MongoDbTaskDataManager.COLLECTION_TASKS)
+                    && newIndexAdvice.getRecommendedIndices().get(MongoDbTaskDataManager.COLLECTION_TASKS).contains(assigneeIndex));
+
+        } finally {
+            processEngineConfiguration.getMongoDatabase().getCollection(MongoDbTaskDataManager.COLLECTION_TASKS).dropIndex(assigneeIndex);
+        }
+    }
+
+    @Test
+    public void testJobAcquisitionQueriesUseIndex() {
+        assertFalse(isCollectionScan(MongoDbJobDataManager.COLLECTION_JOBS, Filters.and(Filters.eq("scopeType", null), Filters.eq("lockExpirationTime", null))));
+        assertFalse(isCollectionScan(MongoDbJobDataManager.COLLECTION_JOBS, Filters.and(Filters.eq("scopeType", null), Filters.or(
+                Filters.lt("lockExpirationTime", new Date()), Filters.and(Filters.eq("lockExpirationTime", null), Filters.lt("createTime", new Date()))))));
+        assertFalse(isCollectionScan(MongoDbTimerJobDataManager.COLLECTION_TIMER_JOBS, Filters.and(Filters.eq("scopeType", null),
+                Filters.lte("duedate", new Date()), Filters.eq("lockOwner", null))));
+    }
+
+    protected boolean isCollectionScan(String collection, Bson filter) {
+        Document explain = processEngineConfiguration.getMongoDatabase().runCommand(new Document("explain", new Document("find", collection)
+                .append("filter", filter.toBsonDocument(BsonDocument.class, processEngineConfiguration.getMongoDatabase().getCodecRegistry()))));
+        return explain.toJson().contains("COLLSCAN");
+    }
+
+}
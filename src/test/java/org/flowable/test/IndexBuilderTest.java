@@ -0,0 +1,80 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.bson.Document;
+import org.flowable.common.engine.api.FlowableException;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.schema.IndexBuilder;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * @author Joram Barrez
+ */
+public class IndexBuilderTest extends AbstractMongoDbTest {
+
+    @Test
+    public void testOnlyMissingIndicesAreCreated() {
+        MongoCollection<Document> tasks = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbTaskDataManager.COLLECTION_TASKS);
+        int indexCount = countIndices(tasks);
+
+        IndexBuilder indexBuilder = new IndexBuilder(processEngineConfiguration.getMongoDatabase(), null);
+        indexBuilder.addIndex(MongoDbTaskDataManager.COLLECTION_TASKS, new Document("executionId", 1), new IndexOptions());
+        indexBuilder.addIndex(MongoDbTaskDataManager.COLLECTION_TASKS, new Document().append("name", 1).append("assignee", 1), new IndexOptions());
+        indexBuilder.build();
+        assertTrue(indexBuilder.isEmpty());
+        assertEquals(indexCount + 1, countIndices(tasks));
+
+        // Building the same indices again is a no-op
+        indexBuilder.addIndex(MongoDbTaskDataManager.COLLECTION_TASKS, new Document().append("name", 1).append("assignee", 1), new IndexOptions());
+        indexBuilder.build();
+        assertEquals(indexCount + 1, countIndices(tasks));
+
+        tasks.dropIndex(new Document().append("name", 1).append("assignee", 1));
+    }
+
+    @Test
+    public void testFailedIndicesAreReported() {
+        MongoCollection<Document> tasks = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbTaskDataManager.COLLECTION_TASKS);
+        tasks.createIndex(new Document("description", 1), new IndexOptions().name("flw_test_description_idx"));
+        int indexCount = countIndices(tasks);
+
+        try {
+            // The same keys with another name conflict with the existing index, the other index is still created
+            IndexBuilder indexBuilder = new IndexBuilder(processEngineConfiguration.getMongoDatabase(), null);
+            indexBuilder.addIndex(MongoDbTaskDataManager.COLLECTION_TASKS, new Document("description", 1), new IndexOptions().name("flw_other_description_idx"));
+            indexBuilder.addIndex(MongoDbTaskDataManager.COLLECTION_TASKS, new Document("formKey", 1), new IndexOptions());
+            FlowableException exception = assertThrows(FlowableException.class, indexBuilder::build);
+            assertTrue(exception.getMessage().contains("description"));
+            assertEquals(indexCount + 1, countIndices(tasks));
+
+        } finally {
+            tasks.dropIndex("flw_test_description_idx");
+            tasks.dropIndex(new Document("formKey", 1));
+        }
+    }
+
+    protected int countIndices(MongoCollection<Document> collection) {
+        return collection.listIndexes().into(new ArrayList<>()).size();
+    }
+
+}
@@ -0,0 +1,103 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.InlineVariableSupport;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.task.api.Task;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class InlineVariablesTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setInlineVariablesEnabled(true);
+        processEngineConfiguration.setInlineVariableMaxLength(10);
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testSmallVariablesStoredInline() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("smallString", "abc");
+        variables.put("number", 123L);
+        variables.put("largeString", "this value is longer than the threshold");
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+
+        MongoCollection<Document> executions = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
+        MongoCollection<Document> variablesCollection = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES);
+
+        Document processInstanceDocument = executions.find(Filters.eq("_id", processInstance.getId())).first();
+        assertEquals(2, ((List<?>) processInstanceDocument.get(InlineVariableSupport.INLINE_VARIABLES)).size());
+        assertEquals(Boolean.TRUE, processInstanceDocument.getBoolean(InlineVariableSupport.EXTERNAL_VARIABLES));
+        assertEquals(1, variablesCollection.countDocuments());
+
+        assertEquals("abc", runtimeService.getVariable(processInstance.getId(), "smallString"));
+        assertEquals(123L, runtimeService.getVariable(processInstance.getId(), "number"));
+        assertEquals(3, runtimeService.getVariables(processInstance.getId()).size());
+
+        // Updating a variable keeps it inline, unless the value becomes too large
+        runtimeService.setVariable(processInstance.getId(), "number", 456L);
+        runtimeService.setVariable(processInstance.getId(), "smallString", "now also too large for inline storage");
+        assertEquals(456L, runtimeService.getVariable(processInstance.getId(), "number"));
+        assertEquals("now also too large for inline storage", runtimeService.getVariable(processInstance.getId(), "smallString"));
+        processInstanceDocument = executions.find(Filters.eq("_id", processInstance.getId())).first();
+        assertEquals(1, ((List<?>) processInstanceDocument.get(InlineVariableSupport.INLINE_VARIABLES)).size());
+        assertEquals(2, variablesCollection.countDocuments());
+
+        runtimeService.removeVariable(processInstance.getId(), "number");
+        assertNull(runtimeService.getVariable(processInstance.getId(), "number"));
+        assertEquals(2, runtimeService.getVariables(processInstance.getId()).size());
+
+        taskService.complete(taskService.createTaskQuery().singleResult().getId());
+        assertProcessEnded(processInstance.getId());
+        assertEquals(0, variablesCollection.countDocuments());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testTaskLocalVariablesStoredInline() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        Task task = taskService.createTaskQuery().processInstanceId(processInstance.getId()).singleResult();
+        taskService.setVariableLocal(task.getId(), "approved", true);
+
+        MongoCollection<Document> tasks = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbTaskDataManager.COLLECTION_TASKS);
+        Document taskDocument = tasks.find(Filters.eq("_id", task.getId())).first();
+        assertEquals(1, ((List<?>) taskDocument.get(InlineVariableSupport.INLINE_VARIABLES)).size());
+        assertFalse(taskDocument.getBoolean(InlineVariableSupport.EXTERNAL_VARIABLES));
+
+        assertEquals(Boolean.TRUE, taskService.getVariableLocal(task.getId(), "approved"));
+        taskService.complete(task.getId());
+        assertProcessEnded(processInstance.getId());
+    }
+
+}
@@ -0,0 +1,66 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.flowable.engine.repository.ProcessDefinition;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ProcessDefinitionDocumentCache;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Joram Barrez
+ */
+public class ProcessDefinitionDocumentCacheTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setProcessDefinitionDocumentCacheEnabled(true);
+    }
+
+    @Test
+    public void testProcessDefinitionCachedAndInvalidated() throws Exception {
+        ProcessDefinitionDocumentCache documentCache = processEngineConfiguration.getProcessDefinitionDocumentCache();
+        waitForWatching(documentCache);
+
+        String deploymentId = repositoryService.createDeployment().addClasspathResource("org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml").deploy().getId();
+        try {
+            ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+            assertNotNull(processInstance);
+            assertTrue(documentCache.size() > 0);
+
+            // A new version must be picked up as the latest version after the invalidation
+            String secondDeploymentId = repositoryService.createDeployment().addClasspathResource("org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml").deploy().getId();
+            ProcessDefinition latestProcessDefinition = repositoryService.createProcessDefinitionQuery().deploymentId(secondDeploymentId).singleResult();
+            processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+            assertEquals(latestProcessDefinition.getId(), processInstance.getProcessDefinitionId());
+
+            repositoryService.deleteDeployment(secondDeploymentId, true);
+        } finally {
+            repositoryService.deleteDeployment(deploymentId, true);
+        }
+    }
+
+    protected void waitForWatching(ProcessDefinitionDocumentCache documentCache) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000L;
+        while (!documentCache.isWatching() && System.currentTimeMillis() < end) {
+            Thread.sleep(100L);
+        }
+        assertTrue(documentCache.isWatching());
+    }
+
+}
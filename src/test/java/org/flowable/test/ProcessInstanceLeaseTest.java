@@ -0,0 +1,67 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.flowable.common.engine.api.FlowableOptimisticLockingException;
+import org.flowable.engine.impl.util.CommandContextUtil;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ProcessInstanceLeaseManager;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Joram Barrez
+ */
+public class ProcessInstanceLeaseTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setProcessInstanceLeasesEnabled(true);
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testProcessInstanceLease() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        long lockCount = processEngineConfiguration.getMongoDatabase().getCollection(ProcessInstanceLeaseManager.COLLECTION_PROCESS_INSTANCE_LOCKS).countDocuments();
+
+        lockProcessInstance(processInstance.getId());
+        assertEquals(lockCount + 1, processEngineConfiguration.getMongoDatabase().getCollection(ProcessInstanceLeaseManager.COLLECTION_PROCESS_INSTANCE_LOCKS).countDocuments());
+
+        // The lease is committed independently of the transaction, so it can't be acquired a second time
+        assertThrows(FlowableOptimisticLockingException.class, () -> lockProcessInstance(processInstance.getId()));
+
+        managementService.executeCommand(commandContext -> {
+            CommandContextUtil.getExecutionEntityManager(commandContext).clearProcessInstanceLockTime(processInstance.getId());
+            return null;
+        });
+        assertEquals(lockCount, processEngineConfiguration.getMongoDatabase().getCollection(ProcessInstanceLeaseManager.COLLECTION_PROCESS_INSTANCE_LOCKS).countDocuments());
+
+        lockProcessInstance(processInstance.getId());
+        managementService.executeCommand(commandContext -> {
+            CommandContextUtil.getExecutionEntityManager(commandContext).clearProcessInstanceLockTime(processInstance.getId());
+            return null;
+        });
+    }
+
+    protected void lockProcessInstance(String processInstanceId) {
+        managementService.executeCommand(commandContext -> {
+            CommandContextUtil.getExecutionEntityManager(commandContext).updateProcessInstanceLockTime(processInstanceId);
+            return null;
+        });
+    }
+
+}
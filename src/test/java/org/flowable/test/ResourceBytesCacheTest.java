@@ -0,0 +1,82 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.flowable.common.engine.impl.util.IoUtil;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.ResourceBytesCache;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Joram Barrez
+ */
+public class ResourceBytesCacheTest extends AbstractMongoDbTest {
+
+    private static final String RESOURCE = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml";
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setResourceBytesCacheEnabled(true);
+    }
+
+    @Test
+    public void testResourceBytesCached() throws Exception {
+        ResourceBytesCache resourceBytesCache = processEngineConfiguration.getResourceBytesCache();
+        String deploymentId = repositoryService.createDeployment().addClasspathResource(RESOURCE).deploy().getId();
+        try {
+            List<String> resourceNames = repositoryService.getDeploymentResourceNames(deploymentId);
+            assertTrue(resourceNames.contains(RESOURCE));
+
+            byte[] bytes = readResource(deploymentId);
+            assertEquals(1, resourceBytesCache.getResourceCount());
+            assertArrayEquals(bytes, readResource(deploymentId));
+            assertArrayEquals(bytes, resourceBytesCache.get(deploymentId, RESOURCE));
+
+        } finally {
+            repositoryService.deleteDeployment(deploymentId, true);
+        }
+        assertNull(resourceBytesCache.get(deploymentId, RESOURCE));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        ResourceBytesCache resourceBytesCache = new ResourceBytesCache(10);
+        resourceBytesCache.put("1", "a", new byte[4]);
+        resourceBytesCache.put("1", "b", new byte[4]);
+        resourceBytesCache.get("1", "a");
+        resourceBytesCache.put("2", "c", new byte[4]);
+
+        assertNull(resourceBytesCache.get("1", "b"));
+        assertEquals(2, resourceBytesCache.getResourceCount());
+        assertEquals(8, resourceBytesCache.getSize());
+
+        resourceBytesCache.evictDeployment("1");
+        assertNull(resourceBytesCache.get("1", "a"));
+        assertEquals(4, resourceBytesCache.getSize());
+    }
+
+    protected byte[] readResource(String deploymentId) throws Exception {
+        try (InputStream inputStream = repositoryService.getResourceAsStream(deploymentId, RESOURCE)) {
+            return IoUtil.readInputStream(inputStream, RESOURCE);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.bson.Document;
+import org.flowable.common.engine.api.FlowableException;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.manager.MongoDbJobDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * @author Joram Barrez
+ */
+public class SchemaFingerprintTest extends AbstractMongoDbTest {
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setSchemaFingerprintEnabled(true);
+    }
+
+    @Test
+    public void testSchemaChecksSkippedForUnchangedFingerprint() {
+        MongoCollection<Document> properties = processEngineConfiguration.getMongoDatabase().getCollection(MongoProcessSchemaManager.COLLECTION_PROPERTIES);
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+        String fingerprint = getFingerprint(properties);
+        assertNotNull(fingerprint);
+
+        // With an unchanged fingerprint, a dropped index isn't noticed
+        MongoCollection<Document> tasks = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbTaskDataManager.COLLECTION_TASKS);
+        tasks.dropIndex(new Document("createTime", 1));
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+        assertEquals(0, countIndices(tasks, new Document("createTime", 1)));
+
+        // A different fingerprint runs all checks and stores the current fingerprint again
+        properties.updateOne(Filters.eq("name", MongoProcessSchemaManager.SCHEMA_FINGERPRINT_PROPERTY), Updates.set("value", "outdated"));
+        assertNotEquals(fingerprint, getFingerprint(properties));
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+        assertEquals(fingerprint, getFingerprint(properties));
+
+        tasks.createIndex(new Document("createTime", 1));
+    }
+
+    @Test
+    public void testFingerprintNotStoredWhenIndexFails() {
+        MongoCollection<Document> properties = processEngineConfiguration.getMongoDatabase().getCollection(MongoProcessSchemaManager.COLLECTION_PROPERTIES);
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+        String fingerprint = getFingerprint(properties);
+
+        // An index with the keys of a default index but another name makes the default index fail
+        MongoCollection<Document> jobs = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbJobDataManager.COLLECTION_JOBS);
+        jobs.dropIndex("flw_locked_jobs_idx");
+        jobs.createIndex(new Document("lockExpirationTime", 1), new IndexOptions().name("flw_test_lock_expiration_idx"));
+        properties.updateOne(Filters.eq("name", MongoProcessSchemaManager.SCHEMA_FINGERPRINT_PROPERTY), Updates.set("value", "outdated"));
+        properties.updateOne(Filters.eq("name", MongoProcessSchemaManager.INDICES_PROPERTY), Updates.set("value", MongoProcessSchemaManager.INDICES_PENDING),
+                new UpdateOptions().upsert(true));
+
+        try {
+            assertThrows(FlowableException.class, () -> managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate()));
+            assertEquals("outdated", getFingerprint(properties));
+
+        } finally {
+            jobs.dropIndex("flw_test_lock_expiration_idx");
+        }
+
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+        assertEquals(fingerprint, getFingerprint(properties));
+        assertEquals(1, countIndices(jobs, new Document("lockExpirationTime", 1)));
+    }
+
+    protected String getFingerprint(MongoCollection<Document> properties) {
+        Document property = properties.find(Filters.eq("name", MongoProcessSchemaManager.SCHEMA_FINGERPRINT_PROPERTY)).first();
+        return property != null ? property.getString("value") : null;
+    }
+
+    protected long countIndices(MongoCollection<Document> collection, Document keys) {
+        long count = 0;
+        for (Document index : collection.listIndexes()) {
+            if (keys.equals(index.get("key"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
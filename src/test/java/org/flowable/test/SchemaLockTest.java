@@ -0,0 +1,90 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+
+import org.bson.Document;
+import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.flowable.mongodb.schema.SchemaLock;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * @author Joram Barrez
+ */
+public class SchemaLockTest extends AbstractMongoDbTest {
+
+    @Test
+    public void testExpiredLockIsTakenOver() {
+        MongoCollection<Document> properties = processEngineConfiguration.getMongoDatabase().getCollection(MongoProcessSchemaManager.COLLECTION_PROPERTIES);
+        SchemaLock crashedEngineLock = new SchemaLock(properties, 60000L, 0L);
+        SchemaLock lock = new SchemaLock(properties, 60000L, 0L);
+
+        try {
+            assertTrue(crashedEngineLock.tryAcquire());
+            assertFalse(lock.tryAcquire());
+
+            // Simulate a lease that wasn't renewed
+            properties.updateOne(Filters.eq("name", SchemaLock.LOCK_PROPERTY), Updates.set("lockTime", new Date(System.currentTimeMillis() - 1000L)));
+            assertTrue(lock.tryAcquire());
+            assertEquals(lock.getOwner(), properties.find(Filters.eq("name", SchemaLock.LOCK_PROPERTY)).first().getString("value"));
+
+            // Releasing a lock that was taken over doesn't remove the lock of the new holder
+            crashedEngineLock.release();
+            assertEquals(1, properties.countDocuments(Filters.eq("name", SchemaLock.LOCK_PROPERTY)));
+
+        } finally {
+            lock.release();
+        }
+        assertEquals(0, properties.countDocuments(Filters.eq("name", SchemaLock.LOCK_PROPERTY)));
+    }
+
+    @Test
+    public void testLegacyLockIsTakenOverAfterGracePeriod() {
+        MongoCollection<Document> properties = processEngineConfiguration.getMongoDatabase().getCollection(MongoProcessSchemaManager.COLLECTION_PROPERTIES);
+        SchemaLock lock = new SchemaLock(properties, 60000L, 0L);
+
+        try {
+            // A lock written by an engine before the lock was a lease
+            properties.insertOne(new Document("name", SchemaLock.LOCK_PROPERTY).append("value", "legacyEngine"));
+
+            assertFalse(lock.tryAcquire());
+            Date gracePeriodEnd = properties.find(Filters.eq("name", SchemaLock.LOCK_PROPERTY)).first().getDate("lockTime");
+            assertNotNull(gracePeriodEnd);
+            assertTrue(gracePeriodEnd.after(new Date()));
+
+            // The grace period isn't extended by later attempts
+            assertFalse(lock.tryAcquire());
+            assertEquals(gracePeriodEnd, properties.find(Filters.eq("name", SchemaLock.LOCK_PROPERTY)).first().getDate("lockTime"));
+
+            // Simulate the end of the grace period
+            properties.updateOne(Filters.eq("name", SchemaLock.LOCK_PROPERTY), Updates.set("lockTime", new Date(System.currentTimeMillis() - 1000L)));
+            assertTrue(lock.tryAcquire());
+            assertEquals(lock.getOwner(), properties.find(Filters.eq("name", SchemaLock.LOCK_PROPERTY)).first().getString("value"));
+
+        } finally {
+            lock.release();
+        }
+        assertEquals(0, properties.countDocuments(Filters.eq("name", SchemaLock.LOCK_PROPERTY)));
+    }
+
+}
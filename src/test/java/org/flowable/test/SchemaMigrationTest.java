@@ -0,0 +1,57 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.bson.Document;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.schema.MongoProcessSchemaManager;
+import org.flowable.mongodb.schema.migration.SchemaMigrationContext;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * @author Joram Barrez
+ */
+public class SchemaMigrationTest extends AbstractMongoDbTest {
+
+    protected static final String MIGRATION_ID = "6.4.0.3-execution-process-definition";
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testExecutionProcessDefinitionMigration() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+
+        // Simulate an execution written before the process definition properties were stored on the executions
+        MongoCollection<Document> executions = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS);
+        executions.updateOne(Filters.eq("_id", processInstance.getId()), Updates.combine(Updates.unset("processDefinitionKey"), Updates.unset("deploymentId")));
+        MongoCollection<Document> properties = processEngineConfiguration.getMongoDatabase().getCollection(MongoProcessSchemaManager.COLLECTION_PROPERTIES);
+        properties.deleteOne(Filters.eq("name", SchemaMigrationContext.MIGRATION_PROPERTY_PREFIX + MIGRATION_ID));
+        assertEquals(0, runtimeService.createProcessInstanceQuery().processDefinitionKey("oneTaskProcess").count());
+
+        managementService.executeCommand(commandContext -> processEngineConfiguration.getSchemaManager().schemaUpdate());
+
+        assertEquals(1, runtimeService.createProcessInstanceQuery().processDefinitionKey("oneTaskProcess").count());
+        assertEquals(1, runtimeService.createProcessInstanceQuery().deploymentId(deploymentId).count());
+        Document migrationProperty = properties.find(Filters.eq("name", SchemaMigrationContext.MIGRATION_PROPERTY_PREFIX + MIGRATION_ID)).first();
+        assertEquals(SchemaMigrationContext.COMPLETED, migrationProperty.getString("value"));
+        assertEquals(0, properties.countDocuments(Filters.eq("name", SchemaMigrationContext.MIGRATION_PROPERTY_PREFIX + MIGRATION_ID
+                + SchemaMigrationContext.CHECKPOINT_PROPERTY_SUFFIX)));
+    }
+
+}
@@ -0,0 +1,132 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.flowable.common.engine.api.FlowableIllegalArgumentException;
+import org.flowable.common.engine.api.FlowableOptimisticLockingException;
+import org.flowable.engine.impl.persistence.entity.ExecutionEntity;
+import org.flowable.engine.impl.util.CommandContextUtil;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.persistence.MongoDbSession;
+import org.flowable.mongodb.persistence.MongoDbSessionFactory;
+import org.flowable.mongodb.persistence.ShardKeys;
+import org.flowable.mongodb.persistence.manager.MongoDbExecutionDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbIdentityLinkDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.mongodb.persistence.manager.MongoDbVariableInstanceDataManager;
+import org.flowable.task.service.impl.persistence.entity.TaskEntityImpl;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class ShardKeysTest extends AbstractMongoDbTest {
+
+    @Test
+    public void testLookupCollectionsAreNotSharded() {
+        ShardKeys shardKeys = new ShardKeys();
+        assertTrue(shardKeys.isSharded(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS));
+        assertTrue(shardKeys.isSharded(MongoDbTaskDataManager.COLLECTION_TASKS));
+        assertFalse(shardKeys.isSharded(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES));
+        assertFalse(shardKeys.isSharded(MongoDbIdentityLinkDataManager.COLLECTION_IDENTITY_LINKS));
+        assertFalse(shardKeys.isSharded(MongoDbExecutionDataManager.COLLECTION_EXECUTION_TREES));
+
+        assertThrows(FlowableIllegalArgumentException.class, () -> shardKeys.addShardKey(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES,
+                "processInstanceId", entity -> null));
+    }
+
+    @Test
+    public void testCreateIdFilter() {
+        ShardKeys shardKeys = new ShardKeys();
+        assertEquals(new Document("processInstanceId", "hashed").append("_id", 1), shardKeys.getShardKey(MongoDbTaskDataManager.COLLECTION_TASKS, true));
+        assertEquals(new Document("rootProcessInstanceId", "hashed"), shardKeys.getShardKey(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, false));
+
+        TaskEntityImpl task = new TaskEntityImpl();
+        task.setId("task1");
+        task.setProcessInstanceId("processInstance1");
+        assertEquals(toBsonDocument(Filters.and(Filters.eq("processInstanceId", "processInstance1"), Filters.eq("_id", "task1"))),
+                toBsonDocument(shardKeys.createIdFilter(MongoDbTaskDataManager.COLLECTION_TASKS, task)));
+
+        // Unsharded collections are filtered on the id only
+        assertEquals(toBsonDocument(Filters.eq("_id", "task1")),
+                toBsonDocument(shardKeys.createIdFilter(MongoDbVariableInstanceDataManager.COLLECTION_VARIABLES, task)));
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testProcessInstanceLockWithShardKey() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+
+        MongoDbSessionFactory mongoDbSessionFactory = (MongoDbSessionFactory) processEngineConfiguration.getSessionFactories().get(MongoDbSession.class);
+        mongoDbSessionFactory.setShardKeys(new ShardKeys());
+        try {
+            lockProcessInstance(processInstance.getId());
+            assertNotNull(findExecutionDocument(processInstance.getId()).getDate("lockTime"));
+            assertThrows(FlowableOptimisticLockingException.class, () -> lockProcessInstance(processInstance.getId()));
+
+            managementService.executeCommand(commandContext -> {
+                CommandContextUtil.getExecutionEntityManager(commandContext).clearProcessInstanceLockTime(processInstance.getId());
+                return null;
+            });
+            assertNull(findExecutionDocument(processInstance.getId()).getDate("lockTime"));
+
+            // The update is filtered on the shard key, so a process instance stored with another shard key isn't updated
+            managementService.executeCommand(commandContext -> {
+                MongoDbSession mongoDbSession = commandContext.getSession(MongoDbSession.class);
+                ExecutionEntity execution = CommandContextUtil.getExecutionEntityManager(commandContext)
+                        .findById(processInstance.getId());
+                execution.setRootProcessInstanceId("otherRootProcessInstance");
+                assertEquals(0, mongoDbSession.updateImmediately(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS, execution, null,
+                        new BasicDBObject("lockTime", new Date())).getMatchedCount());
+                execution.setRootProcessInstanceId(processInstance.getId());
+                return null;
+            });
+
+        } finally {
+            mongoDbSessionFactory.setShardKeys(null);
+        }
+    }
+
+    protected void lockProcessInstance(String processInstanceId) {
+        managementService.executeCommand(commandContext -> {
+            CommandContextUtil.getExecutionEntityManager(commandContext).updateProcessInstanceLockTime(processInstanceId);
+            return null;
+        });
+    }
+
+    protected Document findExecutionDocument(String executionId) {
+        return processEngineConfiguration.getMongoDatabase().getCollection(MongoDbExecutionDataManager.COLLECTION_EXECUTIONS)
+                .find(Filters.eq("_id", executionId)).first();
+    }
+
+    protected BsonDocument toBsonDocument(Bson filter) {
+        return filter.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+    }
+
+}
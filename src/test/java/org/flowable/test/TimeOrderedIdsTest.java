@@ -0,0 +1,122 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.flowable.common.engine.impl.cfg.IdGenerator;
+import org.flowable.common.engine.impl.persistence.StrongUuidGenerator;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.cfg.MongoDbProcessEngineConfiguration;
+import org.flowable.mongodb.persistence.TimeOrderedUuidGenerator;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * @author Joram Barrez
+ */
+public class TimeOrderedIdsTest extends AbstractMongoDbTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeOrderedIdsTest.class);
+
+    protected static final String BENCHMARK_COLLECTION = "idGeneratorBenchmark";
+
+    @Override
+    protected void configureProcessEngine(MongoDbProcessEngineConfiguration processEngineConfiguration) {
+        processEngineConfiguration.setTimeOrderedIdsEnabled(true);
+    }
+
+    @Test
+    public void testIdsAreOrdered() {
+        TimeOrderedUuidGenerator idGenerator = new TimeOrderedUuidGenerator();
+        String previousId = idGenerator.getNextId();
+        for (int i = 0; i < 100000; i++) {
+            String id = idGenerator.getNextId();
+            assertEquals(36, id.length());
+            assertEquals('7', id.charAt(14));
+            assertTrue(id.compareTo(previousId) > 0);
+            previousId = id;
+        }
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testEngineUsesTimeOrderedIds() {
+        assertTrue(processEngineConfiguration.getIdGenerator() instanceof TimeOrderedUuidGenerator);
+        ProcessInstance first = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        ProcessInstance second = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        assertTrue(second.getId().compareTo(first.getId()) > 0);
+    }
+
+    /**
+     * Compares the insert throughput and the cache behaviour of the _id and reference indices of both generators.
+     * The cache statistics are only available with the WiredTiger storage engine.
+     * Only logs the results, so it's not part of the regular test run.
+     */
+    @Test
+    @Disabled("Benchmark, run manually")
+    public void benchmarkInsertThroughput() {
+        try {
+            benchmark("random", new StrongUuidGenerator());
+            benchmark("time ordered", new TimeOrderedUuidGenerator());
+        } finally {
+            processEngineConfiguration.getMongoDatabase().getCollection(BENCHMARK_COLLECTION).drop();
+        }
+    }
+
+    protected void benchmark(String name, IdGenerator idGenerator) {
+        MongoCollection<Document> collection = processEngineConfiguration.getMongoDatabase().getCollection(BENCHMARK_COLLECTION);
+        collection.drop();
+        collection.createIndex(new Document("processInstanceId", 1));
+
+        int documentCount = 50000;
+        int batchSize = 1000;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < documentCount / batchSize; i++) {
+            List<Document> documents = new ArrayList<>(batchSize);
+            for (int j = 0; j < batchSize; j++) {
+                documents.add(new Document("_id", idGenerator.getNextId()).append("processInstanceId", idGenerator.getNextId()));
+            }
+            collection.insertMany(documents);
+        }
+        long duration = Math.max(1L, System.currentTimeMillis() - start);
+        assertEquals(documentCount, collection.countDocuments());
+
+        LOGGER.info("{} ids: {} inserts/second", name, documentCount * 1000L / duration);
+        Document stats = processEngineConfiguration.getMongoDatabase().runCommand(new Document("collStats", BENCHMARK_COLLECTION).append("indexDetails", true));
+        Document indexDetails = (Document) stats.get("indexDetails");
+        if (indexDetails != null) {
+            for (String indexName : indexDetails.keySet()) {
+                Document cache = (Document) ((Document) indexDetails.get(indexName)).get("cache");
+                if (cache != null) {
+                    Number requested = (Number) cache.get("pages requested from the cache");
+                    Number read = (Number) cache.get("pages read into cache");
+                    if (requested != null && read != null && requested.longValue() > 0) {
+                        LOGGER.info("{} ids: index {} cache hit rate {}%", name, indexName,
+                                100L - (read.longValue() * 100L / requested.longValue()));
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flowable.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.flowable.engine.impl.persistence.CountingExecutionEntity;
+import org.flowable.engine.impl.util.CommandContextUtil;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.mongodb.persistence.manager.MongoDbTaskDataManager;
+import org.flowable.task.api.Task;
+import org.flowable.variable.service.impl.persistence.entity.VariableInstanceEntity;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * @author Joram Barrez
+ */
+public class VariablesMongoDbTest extends AbstractMongoDbTest {
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testFetchVariablesByNames() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", "valueA");
+        variables.put("b", 2);
+        variables.put("c", true);
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+
+        Map<String, Object> fetchedVariables = runtimeService.getVariables(processInstance.getId(), Arrays.asList("a", "c"));
+        assertEquals(2, fetchedVariables.size());
+        assertEquals("valueA", fetchedVariables.get("a"));
+        assertEquals(true, fetchedVariables.get("c"));
+
+        Task task = taskService.createTaskQuery().processInstanceId(processInstance.getId()).singleResult();
+        taskService.setVariableLocal(task.getId(), "d", "valueD");
+        taskService.setVariableLocal(task.getId(), "e", "valueE");
+        assertEquals(1, taskService.getVariablesLocal(task.getId(), Arrays.asList("d")).size());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testFetchVariablesOfMultipleExecutions() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", "valueA");
+        ProcessInstance processInstance1 = runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+        ProcessInstance processInstance2 = runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+        runtimeService.setVariable(processInstance2.getId(), "b", "valueB");
+
+        List<VariableInstanceEntity> variableInstances = managementService.executeCommand(commandContext -> CommandContextUtil.getVariableServiceConfiguration(commandContext)
+                .getVariableInstanceDataManager()
+                .findVariableInstancesByExecutionIds(new HashSet<>(Arrays.asList(processInstance1.getId(), processInstance2.getId()))));
+        assertEquals(3, variableInstances.size());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testQueryIncludeVariables() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", "valueA");
+        variables.put("b", 2);
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+
+        ProcessInstance queriedProcessInstance = runtimeService.createProcessInstanceQuery().processInstanceId(processInstance.getId())
+                .includeProcessVariables().singleResult();
+        assertEquals(2, queriedProcessInstance.getProcessVariables().size());
+        assertEquals("valueA", queriedProcessInstance.getProcessVariables().get("a"));
+
+        Task task = taskService.createTaskQuery().processInstanceId(processInstance.getId()).singleResult();
+        taskService.setVariableLocal(task.getId(), "c", "valueC");
+
+        Task queriedTask = taskService.createTaskQuery().processInstanceId(processInstance.getId())
+                .includeProcessVariables().includeTaskLocalVariables().singleResult();
+        assertEquals(2, queriedTask.getProcessVariables().size());
+        assertEquals(1, queriedTask.getTaskLocalVariables().size());
+        assertEquals("valueC", queriedTask.getTaskLocalVariables().get("c"));
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testQueryByVariableValue() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("orderId", "order-1");
+        variables.put("amount", 100);
+        ProcessInstance processInstance1 = runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+        variables.put("orderId", "order-2");
+        variables.put("amount", 200);
+        runtimeService.startProcessInstanceByKey("oneTaskProcess", variables);
+
+        assertEquals(processInstance1.getId(), runtimeService.createProcessInstanceQuery().variableValueEquals("orderId", "order-1").singleResult().getId());
+        assertEquals(2, runtimeService.createProcessInstanceQuery().variableValueLike("orderId", "order-%").count());
+        assertEquals(1, runtimeService.createProcessInstanceQuery().variableValueEqualsIgnoreCase("orderId", "ORDER-2").count());
+        assertEquals(1, runtimeService.createProcessInstanceQuery().variableValueGreaterThan("amount", 150).count());
+        assertEquals(2, runtimeService.createProcessInstanceQuery().variableValueLessThanOrEqual("amount", 200).count());
+        assertEquals(0, runtimeService.createProcessInstanceQuery().variableValueEquals("orderId", "order-3").count());
+        assertEquals(0, runtimeService.createProcessInstanceQuery().variableNotExists("orderId").count());
+
+        assertEquals(2, runtimeService.createExecutionQuery().processVariableValueEquals("orderId", "order-1").list().size());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testIncludeProcessVariablesPaged() {
+        List<String> processInstanceIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            processInstanceIds.add(runtimeService.startProcessInstanceByKey("oneTaskProcess", Collections.singletonMap("index", i)).getId());
+        }
+        Collections.sort(processInstanceIds);
+
+        List<ProcessInstance> processInstances = runtimeService.createProcessInstanceQuery().includeProcessVariables()
+                .orderByProcessInstanceId().desc().listPage(1, 2);
+        assertEquals(2, processInstances.size());
+        assertEquals(processInstanceIds.get(1), processInstances.get(0).getId());
+        assertEquals(processInstanceIds.get(0), processInstances.get(1).getId());
+        assertEquals(1, processInstances.get(0).getProcessVariables().size());
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testRelationshipCountsUpdated() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        assertEquals(0, getVariableCount(processInstance.getId()));
+
+        runtimeService.setVariable(processInstance.getId(), "a", "valueA");
+        runtimeService.setVariable(processInstance.getId(), "b", "valueB");
+        assertEquals(2, getVariableCount(processInstance.getId()));
+
+        runtimeService.removeVariable(processInstance.getId(), "a");
+        assertEquals(1, getVariableCount(processInstance.getId()));
+    }
+
+    @Test
+    @org.flowable.engine.test.Deployment(resources = "org/flowable/test/Flowable6Test.testOneTaskProcess.bpmn20.xml")
+    public void testTaskRelationshipCountsAfterAssignment() {
+        ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("oneTaskProcess");
+        Task task = taskService.createTaskQuery().processInstanceId(processInstance.getId()).singleResult();
+        taskService.addCandidateUser(task.getId(), "kermit");
+        taskService.setVariableLocal(task.getId(), "a", "valueA");
+        assertEquals(1, getStoredTaskCount(task.getId(), "identityLinkCount"));
+
+        // Claiming and assigning update the already loaded task, which must not add the counts to themselves
+        taskService.claim(task.getId(), "kermit");
+        assertEquals(1, getStoredTaskCount(task.getId(), "identityLinkCount"));
+        assertEquals(1, getStoredTaskCount(task.getId(), "variableCount"));
+
+        taskService.setAssignee(task.getId(), "fozzie");
+        taskService.setOwner(task.getId(), "gonzo");
+        assertEquals(1, getStoredTaskCount(task.getId(), "identityLinkCount"));
+        assertEquals(1, getStoredTaskCount(task.getId(), "variableCount"));
+    }
+
+    protected int getStoredTaskCount(String taskId, String countField) {
+        Document taskDocument = processEngineConfiguration.getMongoDatabase().getCollection(MongoDbTaskDataManager.COLLECTION_TASKS)
+                .find(Filters.eq("_id", taskId)).first();
+        return taskDocument.getInteger(countField);
+    }
+
+    protected int getVariableCount(String processInstanceId) {
+        CountingExecutionEntity processInstance = (CountingExecutionEntity) runtimeService.createProcessInstanceQuery()
+                .processInstanceId(processInstanceId).singleResult();
+        return processInstance.getVariableCount();
+    }
+
+}